@@ -0,0 +1,28 @@
+package com.g992.blegpsmocker
+
+import android.util.Log
+
+/** [Logger] on android.util.Log. */
+internal object AndroidLogger : Logger {
+    override fun isLoggable(tag: String, level: Int): Boolean = Log.isLoggable(tag, level)
+
+    override fun v(tag: String, message: String) {
+        Log.v(tag, message)
+    }
+
+    override fun d(tag: String, message: String) {
+        Log.d(tag, message)
+    }
+
+    override fun i(tag: String, message: String) {
+        Log.i(tag, message)
+    }
+
+    override fun w(tag: String, message: String, throwable: Throwable?) {
+        Log.w(tag, message, throwable)
+    }
+
+    override fun e(tag: String, message: String, throwable: Throwable?) {
+        Log.e(tag, message, throwable)
+    }
+}
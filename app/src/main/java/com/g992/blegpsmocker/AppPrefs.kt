@@ -7,6 +7,8 @@ import android.os.Build
 object AppPrefs {
     private const val PREFS_NAME = "blegpsmocker_prefs"
     private const val KEY_MOCK_ENABLED = "mock_enabled"
+    private const val KEY_FIX_RATE_HZ = "fix_rate_hz"
+    private const val KEY_DEVICE_SETTINGS_PREFIX = "device_settings_"
 
     private fun prefs(context: Context): SharedPreferences {
         val appContext = context.applicationContext ?: context
@@ -26,4 +28,31 @@ object AppPrefs {
     fun setMockEnabled(context: Context, enabled: Boolean) {
         prefs(context).edit().putBoolean(KEY_MOCK_ENABLED, enabled).apply()
     }
+
+    /**
+     * Fix rate last measured from the receiver's stream; picks connection interval, PHY and
+     * wire protocol on the next connect.
+     */
+    @JvmStatic
+    fun getFixRateHz(context: Context): Int =
+        prefs(context).getInt(KEY_FIX_RATE_HZ, ConnectionManager.DEFAULT_FIX_RATE_HZ)
+
+    @JvmStatic
+    fun setFixRateHz(context: Context, hz: Int) {
+        prefs(context).edit().putInt(KEY_FIX_RATE_HZ, hz).apply()
+    }
+
+    internal fun getDeviceSettings(context: Context, address: String): DeviceSettingsSnapshot? =
+        getDeviceSettings(prefs(context), address)
+
+    internal fun setDeviceSettings(context: Context, address: String, snapshot: DeviceSettingsSnapshot) {
+        setDeviceSettings(prefs(context), address, snapshot)
+    }
+
+    internal fun getDeviceSettings(prefs: SharedPreferences, address: String): DeviceSettingsSnapshot? =
+        DeviceSettingsSnapshot.decode(prefs.getString(KEY_DEVICE_SETTINGS_PREFIX + address, null))
+
+    internal fun setDeviceSettings(prefs: SharedPreferences, address: String, snapshot: DeviceSettingsSnapshot) {
+        prefs.edit().putString(KEY_DEVICE_SETTINGS_PREFIX + address, snapshot.encode()).apply()
+    }
 }
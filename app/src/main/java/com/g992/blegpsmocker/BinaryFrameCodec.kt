@@ -0,0 +1,140 @@
+package com.g992.blegpsmocker
+
+/**
+ * Little-endian binary frames (wire protocol v2) for the coordinates and status characteristics.
+ *
+ * Every frame starts with `version:u8, type:u8, flags:u8`. JSON frames start with `{` or
+ * whitespace, so the first byte is enough to pick a decoder per notification.
+ *
+ * Coordinates (type [TYPE_FIX], 19 bytes):
+ * ```
+ *  3 i32 latitude, 1e-7 deg    7 i32 longitude, 1e-7 deg
+ * 11 u16 speed, cm/s          13 i32 altitude, cm         17 u16 heading, 0.01 deg
+ * ```
+ * Status (type [TYPE_STATUS], 11 bytes + signals):
+ * ```
+ *  3 u8 fix    4 u16 hdop, 0.01    6 u32 ttff, s    10 u8 signal count
+ * 11 signal levels, 6 bits each, LSB first, dB-Hz clamped to 63
+ *  n u16 settings revision, after the signal levels
+ * ```
+ * Optional fields are announced in the flags byte and zero-filled when absent.
+ *
+ * Protocol v3 adds keyframe/delta coordinate frames, see [DeltaStreamDecoder], and batched
+ * timestamped fixes, see [FixBatchDecoder].
+ */
+object BinaryFrameCodec {
+    const val PROTOCOL_VERSION_JSON = 1
+    const val PROTOCOL_VERSION_BINARY = 2
+    const val PROTOCOL_VERSION_DELTA_STREAM = 3
+
+    const val TYPE_FIX = 0x01
+    const val TYPE_KEYFRAME = 0x02
+    const val TYPE_DELTA = 0x03
+    const val TYPE_BATCH = 0x04
+    const val TYPE_STATUS = 0x10
+
+    const val FLAG_HEADING = 1
+    const val FLAG_SPEED = 1 shl 1
+    const val FLAG_ALTITUDE = 1 shl 2
+
+    const val FLAG_FIX = 1
+    const val FLAG_HDOP = 1 shl 1
+    const val FLAG_TTFF = 1 shl 2
+    const val FLAG_SIGNALS = 1 shl 3
+    const val FLAG_CONFIG = 1 shl 4
+
+    const val HEADER_SIZE = 3
+    const val FIX_FRAME_SIZE = 19
+    const val STATUS_FRAME_MIN_SIZE = 11
+
+    // Divisors rather than factors: n / 1e7 is correctly rounded, n * 1e-7 is not.
+    const val DEGREES_DIVISOR = 1e7
+    const val CENTI_DIVISOR = 100.0
+
+    private const val SIGNAL_BITS = 6
+    private const val SIGNAL_MASK = (1 shl SIGNAL_BITS) - 1
+
+    fun isBinaryFrame(data: ByteArray, offset: Int, length: Int): Boolean =
+        length >= HEADER_SIZE && (data[offset].toInt() and 0xFF) == PROTOCOL_VERSION_BINARY
+
+    fun frameType(data: ByteArray, offset: Int): Int = data[offset + 1].toInt() and 0xFF
+
+    fun decodeCoordinates(
+        data: ByteArray,
+        offset: Int,
+        length: Int,
+        out: CoordinatesPayload
+    ): Boolean {
+        out.clear()
+        if (length < FIX_FRAME_SIZE || frameType(data, offset) != TYPE_FIX) return false
+        val flags = readUInt8(data, offset + 2)
+        out.latitude = readInt32(data, offset + 3) / DEGREES_DIVISOR
+        out.longitude = readInt32(data, offset + 7) / DEGREES_DIVISOR
+        if ((flags and FLAG_SPEED) != 0) {
+            out.speed = readUInt16(data, offset + 11) / CENTI_DIVISOR
+        }
+        if ((flags and FLAG_ALTITUDE) != 0) {
+            out.altitude = readInt32(data, offset + 13) / CENTI_DIVISOR
+        }
+        if ((flags and FLAG_HEADING) != 0) {
+            out.heading = readUInt16(data, offset + 17) / CENTI_DIVISOR
+        }
+        return true
+    }
+
+    fun decodeStatus(data: ByteArray, offset: Int, length: Int, out: StatusPayload): Boolean {
+        out.clear()
+        if (length < STATUS_FRAME_MIN_SIZE || frameType(data, offset) != TYPE_STATUS) return false
+        val flags = readUInt8(data, offset + 2)
+        if ((flags and FLAG_FIX) != 0) {
+            out.fix = readUInt8(data, offset + 3)
+        }
+        if ((flags and FLAG_HDOP) != 0) {
+            out.hdop = readUInt16(data, offset + 4) / CENTI_DIVISOR
+        }
+        if ((flags and FLAG_TTFF) != 0) {
+            out.ttffSeconds = readUInt32(data, offset + 6)
+            out.hasTtff = true
+        }
+        var signalBytes = 0
+        if ((flags and FLAG_SIGNALS) != 0) {
+            val count = readUInt8(data, offset + 10)
+            signalBytes = packedSignalBytes(count)
+            if (STATUS_FRAME_MIN_SIZE + signalBytes > length) return false
+            out.hasSignals = true
+            var bitPosition = (offset + STATUS_FRAME_MIN_SIZE) * 8
+            repeat(count) {
+                val byteIndex = bitPosition ushr 3
+                val shift = bitPosition and 7
+                var window = data[byteIndex].toInt() and 0xFF
+                if (shift + SIGNAL_BITS > 8) {
+                    window = window or ((data[byteIndex + 1].toInt() and 0xFF) shl 8)
+                }
+                out.addSignal((window ushr shift) and SIGNAL_MASK)
+                bitPosition += SIGNAL_BITS
+            }
+        }
+        if ((flags and FLAG_CONFIG) != 0) {
+            val position = STATUS_FRAME_MIN_SIZE + signalBytes
+            if (position + 2 > length) return false
+            out.configRevision = readUInt16(data, offset + position).toLong()
+        }
+        return true
+    }
+
+    fun packedSignalBytes(count: Int): Int = (count * SIGNAL_BITS + 7) ushr 3
+
+    internal fun readUInt8(data: ByteArray, index: Int): Int = data[index].toInt() and 0xFF
+
+    internal fun readUInt16(data: ByteArray, index: Int): Int =
+        (data[index].toInt() and 0xFF) or ((data[index + 1].toInt() and 0xFF) shl 8)
+
+    internal fun readInt32(data: ByteArray, index: Int): Int =
+        (data[index].toInt() and 0xFF) or
+            ((data[index + 1].toInt() and 0xFF) shl 8) or
+            ((data[index + 2].toInt() and 0xFF) shl 16) or
+            (data[index + 3].toInt() shl 24)
+
+    internal fun readUInt32(data: ByteArray, index: Int): Long =
+        readInt32(data, index).toLong() and 0xFFFF_FFFFL
+}
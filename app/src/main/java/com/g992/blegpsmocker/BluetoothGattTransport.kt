@@ -0,0 +1,284 @@
+package com.g992.blegpsmocker
+
+import android.annotation.SuppressLint
+import android.bluetooth.BluetoothAdapter
+import android.bluetooth.BluetoothDevice
+import android.bluetooth.BluetoothGatt
+import android.bluetooth.BluetoothGattCallback
+import android.bluetooth.BluetoothGattCharacteristic
+import android.bluetooth.BluetoothGattDescriptor
+import android.bluetooth.BluetoothProfile
+import android.content.Context
+import android.os.Build
+import android.util.Log
+
+/**
+ * [GattTransport] on the Android Bluetooth stack. Callbacks arrive on binder threads and are
+ * forwarded by role; characteristics outside the resolved profile are ignored. Requests made
+ * without BLUETOOTH_CONNECT fail to start.
+ */
+@SuppressLint("MissingPermission")
+internal class BluetoothGattTransport(
+    private val context: Context,
+    private val device: BluetoothDevice,
+    private val adapter: BluetoothAdapter?,
+    private val hasConnectPermission: () -> Boolean
+) : GattTransport {
+    private val tag = "BluetoothGattTransport"
+
+    @Volatile
+    private var gatt: BluetoothGatt? = null
+    @Volatile
+    private var resolved: ResolvedProfile? = null
+    @Volatile
+    private var callback: GattTransport.Callback? = null
+
+    private val gattCallback =
+        object : BluetoothGattCallback() {
+            override fun onConnectionStateChange(gatt: BluetoothGatt, status: Int, newState: Int) {
+                when (newState) {
+                    BluetoothProfile.STATE_CONNECTED ->
+                        callback?.onConnectionStateChanged(true, status)
+                    BluetoothProfile.STATE_DISCONNECTED ->
+                        callback?.onConnectionStateChanged(false, status)
+                }
+            }
+
+            override fun onMtuChanged(gatt: BluetoothGatt, mtu: Int, status: Int) {
+                callback?.onMtuChanged(mtu, status)
+            }
+
+            override fun onPhyUpdate(gatt: BluetoothGatt, txPhy: Int, rxPhy: Int, status: Int) {
+                callback?.onPhyChanged(txPhy, rxPhy, status)
+            }
+
+            override fun onPhyRead(gatt: BluetoothGatt, txPhy: Int, rxPhy: Int, status: Int) {
+                callback?.onPhyChanged(txPhy, rxPhy, status)
+            }
+
+            override fun onServicesDiscovered(gatt: BluetoothGatt, status: Int) {
+                val profile =
+                    if (status == BluetoothGatt.GATT_SUCCESS) ResolvedProfile.resolve(gatt) else null
+                resolved = profile
+                callback?.onServicesResolved(profile?.profile, status)
+            }
+
+            override fun onCharacteristicRead(
+                gatt: BluetoothGatt,
+                characteristic: BluetoothGattCharacteristic,
+                value: ByteArray,
+                status: Int
+            ) {
+                val role = roleOf(characteristic) ?: return
+                callback?.onRead(role, characteristic.value ?: value, status)
+            }
+
+            override fun onCharacteristicChanged(
+                gatt: BluetoothGatt,
+                characteristic: BluetoothGattCharacteristic,
+                value: ByteArray
+            ) {
+                notify(characteristic, characteristic.value ?: value)
+            }
+
+            override fun onCharacteristicRead(
+                gatt: BluetoothGatt,
+                characteristic: BluetoothGattCharacteristic,
+                status: Int
+            ) {
+                val role = roleOf(characteristic) ?: return
+                callback?.onRead(role, characteristic.value, status)
+            }
+
+            override fun onCharacteristicChanged(
+                gatt: BluetoothGatt,
+                characteristic: BluetoothGattCharacteristic
+            ) {
+                notify(characteristic, characteristic.value)
+            }
+
+            override fun onCharacteristicWrite(
+                gatt: BluetoothGatt,
+                characteristic: BluetoothGattCharacteristic,
+                status: Int
+            ) {
+                val role = roleOf(characteristic) ?: return
+                callback?.onWritten(role, characteristic.value, status)
+            }
+
+            override fun onDescriptorWrite(
+                gatt: BluetoothGatt,
+                descriptor: BluetoothGattDescriptor,
+                status: Int
+            ) {
+                if (status == BluetoothGatt.GATT_SUCCESS) {
+                    Log.i(
+                        tag,
+                        "Descriptor ${descriptor.uuid} written for char ${descriptor.characteristic.uuid}"
+                    )
+                }
+                val role = roleOf(descriptor.characteristic) ?: return
+                callback?.onSubscribed(role, status)
+            }
+        }
+
+    override val address: String
+        get() = device.address
+
+    override val supportsLe2MPhy: Boolean
+        get() = adapter?.isLe2MPhySupported == true
+
+    override fun connect(callback: GattTransport.Callback): Boolean {
+        if (!hasConnectPermission()) return false
+        this.callback = callback
+        gatt = device.connectGatt(context, false, gattCallback, BluetoothDevice.TRANSPORT_LE)
+        return gatt != null
+    }
+
+    override fun properties(role: CharacteristicRole): Int =
+        resolved?.characteristic(role)?.properties ?: 0
+
+    override fun requestMtu(mtu: Int): Boolean {
+        val gatt = gatt ?: return false
+        return hasConnectPermission() && gatt.requestMtu(mtu)
+    }
+
+    override fun discoverServices(): Boolean {
+        val gatt = gatt ?: return false
+        return hasConnectPermission() && gatt.discoverServices()
+    }
+
+    override fun requestConnectionPriority(priority: Int): Boolean {
+        val gatt = gatt ?: return false
+        return hasConnectPermission() && gatt.requestConnectionPriority(priority)
+    }
+
+    override fun requestPhy(prefer2M: Boolean) {
+        val gatt = gatt ?: return
+        if (!hasConnectPermission()) return
+        if (prefer2M) {
+            gatt.setPreferredPhy(
+                BluetoothDevice.PHY_LE_2M_MASK,
+                BluetoothDevice.PHY_LE_2M_MASK,
+                BluetoothDevice.PHY_OPTION_NO_PREFERRED
+            )
+        } else {
+            gatt.readPhy()
+        }
+    }
+
+    override fun subscribe(role: CharacteristicRole): Boolean {
+        val gatt = gatt ?: return false
+        val characteristic = resolved?.characteristic(role) ?: return false
+        val characteristicUuid = characteristic.uuid
+        if (!hasConnectPermission()) {
+            Log.e(tag, "Missing BLUETOOTH_CONNECT permission to set characteristic notification")
+            return false
+        }
+        val descriptor = characteristic.getDescriptor(BleUuids.CCCD_UUID)
+        if (descriptor == null) {
+            Log.e(tag, "CCCD not found for characteristic $characteristicUuid")
+            return false
+        }
+
+        if (!gatt.setCharacteristicNotification(characteristic, true)) {
+            Log.e(tag, "Failed to enable client characteristic notification for $characteristicUuid")
+            return false
+        }
+
+        val value =
+            if ((characteristic.properties and BluetoothGattCharacteristic.PROPERTY_INDICATE) != 0) {
+                BluetoothGattDescriptor.ENABLE_INDICATION_VALUE
+            } else {
+                BluetoothGattDescriptor.ENABLE_NOTIFICATION_VALUE
+            }
+
+        val started =
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.TIRAMISU) {
+                gatt.writeDescriptor(descriptor, value) == BluetoothGatt.GATT_SUCCESS
+            } else {
+                descriptor.setValue(value)
+                gatt.writeDescriptor(descriptor)
+            }
+        if (started) {
+            Log.i(tag, "Requested notifications/indications for $characteristicUuid")
+        } else {
+            Log.w(tag, "Failed to initiate CCCD write for $characteristicUuid")
+        }
+        return started
+    }
+
+    override fun read(role: CharacteristicRole): Boolean {
+        val gatt = gatt ?: return false
+        val characteristic = resolved?.characteristic(role) ?: return false
+        val characteristicUuid = characteristic.uuid
+        if (!hasConnectPermission()) {
+            Log.e(tag, "Missing BLUETOOTH_CONNECT permission to read characteristic")
+            return false
+        }
+        if (!gatt.readCharacteristic(characteristic)) {
+            Log.w(tag, "Failed to initiate read for characteristic $characteristicUuid")
+            return false
+        }
+        Log.i(tag, "Requested read for characteristic $characteristicUuid")
+        return true
+    }
+
+    override fun write(role: CharacteristicRole, value: ByteArray, withoutResponse: Boolean): Boolean {
+        val gatt = gatt ?: return false
+        val characteristic = resolved?.characteristic(role) ?: return false
+        val uuid = characteristic.uuid
+        if (!hasConnectPermission()) {
+            Log.e(tag, "Missing BLUETOOTH_CONNECT permission to write characteristic")
+            return false
+        }
+
+        // Android still reports an unacknowledged write through onCharacteristicWrite once it
+        // is handed to the controller, so the operation queue advances either way.
+        characteristic.writeType =
+            if (withoutResponse) {
+                BluetoothGattCharacteristic.WRITE_TYPE_NO_RESPONSE
+            } else {
+                BluetoothGattCharacteristic.WRITE_TYPE_DEFAULT
+            }
+        characteristic.value = value
+        val result = gatt.writeCharacteristic(characteristic)
+        if (!result) {
+            Log.e(tag, "writeCharacteristic($uuid) failed to enqueue GATT write")
+        } else {
+            Log.i(tag, "Enqueued write for $uuid payload=${value.toString(Charsets.UTF_8)}")
+        }
+        return result
+    }
+
+    override fun disconnect() {
+        if (!hasConnectPermission()) {
+            Log.e(tag, "Missing BLUETOOTH_CONNECT permission to disconnect")
+            return
+        }
+        gatt?.disconnect()
+    }
+
+    override fun close() {
+        callback = null
+        resolved = null
+        gatt?.close()
+        gatt = null
+    }
+
+    private fun roleOf(characteristic: BluetoothGattCharacteristic): CharacteristicRole? =
+        resolved?.roleOf(characteristic)
+
+    private fun notify(characteristic: BluetoothGattCharacteristic, value: ByteArray?) {
+        if (value == null) {
+            Log.w(tag, "Characteristic ${characteristic.uuid} changed with null data")
+            return
+        }
+        val role = roleOf(characteristic)
+        if (role == null) {
+            Log.d(tag, "No specific parsing for UUID ${characteristic.uuid}")
+            return
+        }
+        callback?.onNotification(role, value)
+    }
+}
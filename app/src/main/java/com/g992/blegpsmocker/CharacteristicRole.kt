@@ -0,0 +1,17 @@
+package com.g992.blegpsmocker
+
+/**
+ * What a characteristic carries. The role selects the decoder in [PayloadDecoder] and is
+ * the characteristic's slot in [ResolvedProfile] (its ordinal).
+ */
+enum class CharacteristicRole {
+    COORDINATES,
+    STATUS,
+    BRIDGE_STREAM,
+    AP_CONTROL,
+    MODE_CONTROL,
+    GPS_BAUD,
+    KEEPALIVE,
+    PROTOCOL,
+    RPC
+}
@@ -4,12 +4,7 @@ import android.Manifest
 import android.annotation.SuppressLint
 import android.bluetooth.BluetoothAdapter
 import android.bluetooth.BluetoothDevice
-import android.bluetooth.BluetoothGatt
-import android.bluetooth.BluetoothGattCallback
-import android.bluetooth.BluetoothGattCharacteristic
-import android.bluetooth.BluetoothGattDescriptor
 import android.bluetooth.BluetoothManager
-import android.bluetooth.BluetoothProfile
 import android.bluetooth.le.ScanCallback
 import android.bluetooth.le.ScanFilter
 import android.bluetooth.le.ScanResult
@@ -18,14 +13,15 @@ import android.content.Context
 import android.content.pm.PackageManager
 import android.os.Build
 import android.os.Handler
+import android.os.HandlerThread
 import android.os.Looper
 import android.os.ParcelUuid
+import android.os.Process
+import android.os.SystemClock
 import android.util.Log
 import androidx.core.app.ActivityCompat
 import java.util.UUID
-import org.json.JSONArray
-import org.json.JSONObject
-import kotlin.text.Charsets
+import java.util.concurrent.atomic.AtomicBoolean
 
 object BleUuids {
     val GPS_SERVICE_UUID: UUID = UUID.fromString("14f0514a-e15f-4ad3-89a6-b4cb3ac86abe")
@@ -35,6 +31,11 @@ object BleUuids {
     val CHAR_MODE_CONTROL_UUID: UUID = UUID.fromString("d047f6b3-5f7c-4e5b-9c21-4c0f2b6a8f10")
     val CHAR_GPS_BAUD_UUID: UUID = UUID.fromString("f3a1a816-28f2-4b6d-9f76-6f7aa2d06123")
     val CHAR_KEEPALIVE_UUID: UUID = UUID.fromString("6b5d5304-4523-4db4-9a31-0f3d88c2ce11")
+    val CHAR_PROTOCOL_UUID: UUID = UUID.fromString("0c5e2d7a-9b41-4f63-8e1d-5a7c3b2f9e40")
+    val CHAR_NMEA_UUID: UUID = UUID.fromString("5b8e1f04-3c7a-4d92-a6e1-8f2b7c9d0e31")
+    val CHAR_RPC_UUID: UUID = UUID.fromString("9d4a7e12-6c3b-4f85-b2d1-7e0c5a8f3b64")
+    val NUS_SERVICE_UUID: UUID = UUID.fromString("6e400001-b5a3-f393-e0a9-e50e24dcca9e")
+    val NUS_TX_UUID: UUID = UUID.fromString("6e400003-b5a3-f393-e0a9-e50e24dcca9e")
     val CCCD_UUID: UUID = UUID.fromString("00002902-0000-1000-8000-00805f9b34fb")
 }
 
@@ -44,24 +45,12 @@ interface BleScanListener {
     fun onScanStopped(foundDevice: Boolean)
 }
 
-interface BleConnectionDataListener {
+/** Connection lifecycle of one receiver on top of its decoded data; see [GnssDataListener]. */
+interface BleConnectionDataListener : GnssDataListener {
     fun onConnecting(device: BluetoothDevice)
     fun onConnected(device: BluetoothDevice)
     fun onDisconnected(device: BluetoothDevice)
     fun onServicesDiscovered(device: BluetoothDevice)
-    fun onError(message: String)
-    fun onCoordinatesReceived(latitude: Double, longitude: Double)
-    fun onFixStatusReceived(status: String)
-    fun onHdopReceived(hdop: Double)
-    fun onSignalLevelsReceived(levels: String)
-    fun onAltitudeReceived(altitudeMeters: Double)
-    fun onSpeedReceived(speedMetersPerSecond: Double)
-    fun onHeadingReceived(headingDegrees: Double)
-    fun onDeviceStatusReceived(status: String)
-    fun onTtffReceived(ttffSeconds: Long)
-    fun onApControlChanged(enabled: Boolean)
-    fun onBridgeModeChanged(enabled: Boolean)
-    fun onGpsBaudRateChanged(baudRate: Int)
 }
 
 @SuppressLint("MissingPermission")
@@ -74,14 +63,44 @@ class ConnectionManager(
     private val bluetoothManager =
         context.getSystemService(Context.BLUETOOTH_SERVICE) as BluetoothManager
     private val bluetoothAdapter: BluetoothAdapter? = bluetoothManager.adapter
-    private var bluetoothGatt: BluetoothGatt? = null
+    @Volatile
+    private var session: GattSession? = null
     private val handler = Handler(Looper.getMainLooper())
+
+    // Decoding and listener data callbacks run here, never on the main looper. The decoder
+    // is owned by this thread; other threads reach it only by posting.
+    private val ingestThread =
+        HandlerThread("BleIngest", Process.THREAD_PRIORITY_FOREGROUND).apply { start() }
+    private val ingestHandler = Handler(ingestThread.looper)
+    private val ingestQueue = IngestQueue()
+    private val drainScheduled = AtomicBoolean(false)
+    private val ingestConsumer =
+        IngestQueue.Consumer { tag, data, length ->
+            parseAndNotify(CharacteristicRole.entries[tag], data, length)
+        }
+    private val drainRunnable =
+        Runnable {
+            // Cleared before draining so a value offered meanwhile schedules another pass.
+            drainScheduled.set(false)
+            ingestQueue.drain(ingestConsumer)
+        }
     private var isScanning = false
     private var foundDeviceDuringScan = false
     private val tag = "ConnectionManager"
-    private var gpsService: android.bluetooth.BluetoothGattService? = null
-    private var keepAliveRunnable: Runnable? = null
-    private var keepAliveFailCount = 0
+    private val mainScheduler =
+        object : GattOperationQueue.Scheduler {
+            override fun uptimeMillis(): Long = SystemClock.uptimeMillis()
+
+            override fun schedule(task: Runnable, delayMillis: Long) {
+                handler.postDelayed(task, delayMillis)
+            }
+
+            override fun cancel(task: Runnable) {
+                handler.removeCallbacks(task)
+            }
+        }
+    private val decoder =
+        PayloadDecoder(AndroidLogger) { hz -> onFixRateMeasured(hz) }.also { it.listener = connectionListener }
 
     private val scanCallback =
         object : ScanCallback() {
@@ -120,424 +139,189 @@ class ConnectionManager(
             }
         }
 
-    private val gattCallback =
-        object : BluetoothGattCallback() {
-            override fun onConnectionStateChange(
-                gatt: BluetoothGatt,
-                status: Int,
-                newState: Int
-            ) {
-                val device = gatt.device
-                when (newState) {
-                    BluetoothProfile.STATE_CONNECTED -> {
-                    Log.i(tag, "Connected to GATT server at ${device.address}")
-                        bluetoothGatt = gatt
-                        connectionListener?.onConnected(device)
-                        if (hasConnectPermission()) {
-                            handler.post { gatt.requestMtu(185) }
-                        } else {
-                            val message =
-                                "Missing BLUETOOTH_CONNECT permission for MTU request/discoverServices"
-                            Log.e(tag, message)
-                            connectionListener?.onError(message)
-                        }
-                    }
-
-                    BluetoothProfile.STATE_DISCONNECTED -> {
-                        Log.i(tag, "Disconnected from GATT server at ${device.address}")
-                        stopKeepAlive()
-                        connectionListener?.onDisconnected(device)
-                        closeGatt()
-                    }
-                }
-            }
-
-            override fun onMtuChanged(gatt: BluetoothGatt, mtu: Int, status: Int) {
-                super.onMtuChanged(gatt, mtu, status)
-                if (status == BluetoothGatt.GATT_SUCCESS) {
-                    Log.i(tag, "MTU changed to $mtu")
-                } else {
-                    Log.w(tag, "MTU change failed, status: $status, mtu: $mtu")
-                }
-                if (hasConnectPermission()) {
-                    handler.post { gatt.discoverServices() }
-                } else {
-                    val message = "Missing BLUETOOTH_CONNECT for discoverServices after MTU change"
-                    Log.e(tag, message)
-                    connectionListener?.onError(message)
-                }
-            }
-
-            override fun onServicesDiscovered(gatt: BluetoothGatt, status: Int) {
-                if (status == BluetoothGatt.GATT_SUCCESS) {
-                    Log.i(tag, "Services discovered for device ${gatt.device.address}")
-                    val service = gatt.getService(BleUuids.GPS_SERVICE_UUID)
-                    gpsService = service
-                    if (service == null) {
-                        val message = "GPS Service (${BleUuids.GPS_SERVICE_UUID}) not found"
-                        Log.e(tag, message)
-                        connectionListener?.onError(message)
-                        return
-                    }
-
-                    enableNotificationsInternal(gatt, service, BleUuids.CHAR_COORDINATES_UUID)
-                    handler.postDelayed(
-                        { enableNotificationsInternal(gatt, service, BleUuids.CHAR_STATUS_UUID) },
-                        100
-                    )
-
-                    connectionListener?.onServicesDiscovered(gatt.device)
-                } else {
-                    val message =
-                        "onServicesDiscovered received error: $status for device ${gatt.device.address}"
-                    Log.w(tag, message)
-                    connectionListener?.onError(message)
-                }
-            }
-
-            override fun onCharacteristicRead(
-                gatt: BluetoothGatt,
-                characteristic: BluetoothGattCharacteristic,
-                value: ByteArray,
-                status: Int
-            ) {
-                handleCharacteristicRead(characteristic, characteristic.value ?: value, status)
-            }
-
-            override fun onCharacteristicChanged(
-                gatt: BluetoothGatt,
-                characteristic: BluetoothGattCharacteristic,
-                value: ByteArray
-            ) {
-                handleCharacteristicChange(characteristic, characteristic.value ?: value)
-            }
+    /** Session callbacks for [device]: link events go to the listener, values to the ingest queue. */
+    private inner class SessionEvents(private val device: BluetoothDevice) : GattSession.Events {
+        override fun onConnected() {
+            connectionListener?.onConnected(device)
+        }
 
-            override fun onCharacteristicRead(
-                gatt: BluetoothGatt,
-                characteristic: BluetoothGattCharacteristic,
-                status: Int
-            ) {
-                handleCharacteristicRead(characteristic, characteristic.value, status)
-            }
+        override fun onServicesReady(profile: ReceiverProfile) {
+            val session = session ?: return
+            val maxBatchRecords =
+                (session.getMaxPayloadSize() - FixBatchDecoder.HEADER_SIZE) / FixBatchDecoder.RECORD_SIZE
+            ingestHandler.post { decoder.prepare(maxBatchRecords) }
+            requestBinaryProtocol(session)
+            connectionListener?.onServicesDiscovered(device)
+        }
 
-            override fun onCharacteristicChanged(
-                gatt: BluetoothGatt,
-                characteristic: BluetoothGattCharacteristic
-            ) {
-                handleCharacteristicChange(characteristic, characteristic.value)
-            }
+        override fun onDisconnected() {
+            connectionListener?.onDisconnected(device)
+            closeGatt()
+        }
 
-            override fun onCharacteristicWrite(
-                gatt: BluetoothGatt,
-                characteristic: BluetoothGattCharacteristic,
-                status: Int
-            ) {
-                handleCharacteristicWrite(characteristic, characteristic.value, status)
+        override fun onValue(role: CharacteristicRole, data: ByteArray) {
+            if (Log.isLoggable(tag, Log.VERBOSE)) {
+                Log.v(tag, "Value for $role (${data.size} bytes)")
             }
+            enqueue(role, data)
+        }
 
-
-            override fun onDescriptorWrite(
-                gatt: BluetoothGatt,
-                descriptor: BluetoothGattDescriptor,
-                status: Int
-            ) {
-                if (status == BluetoothGatt.GATT_SUCCESS) {
-                    Log.i(
-                        tag,
-                        "Descriptor ${descriptor.uuid} written for char ${descriptor.characteristic.uuid}"
-                    )
-                } else {
-                    val message = "Descriptor write failed for ${descriptor.uuid}, status: $status"
-                    Log.e(tag, message)
-                    connectionListener?.onError(message)
-                }
-            }
+        override fun onSettingApplied(
+            role: CharacteristicRole,
+            data: ByteArray,
+            offset: Int,
+            length: Int
+        ) {
+            decoder.decode(role, data, offset, length, SystemClock.elapsedRealtime())
         }
 
-    private fun handleCharacteristicRead(
-        characteristic: BluetoothGattCharacteristic,
-        data: ByteArray?,
-        status: Int
-    ) {
-        if (status == BluetoothGatt.GATT_SUCCESS && data != null) {
-            Log.i(
-                tag,
-                "Characteristic read ${characteristic.uuid}: ${data.toString(Charsets.UTF_8)}"
-            )
-            parseAndNotify(characteristic.uuid, data)
-        } else if (status != BluetoothGatt.GATT_SUCCESS) {
-            val message =
-                "Characteristic read failed for ${characteristic.uuid}, status: $status"
-            Log.e(tag, message)
+        override fun onError(message: String) {
             connectionListener?.onError(message)
         }
     }
 
-    private fun handleCharacteristicChange(
-        characteristic: BluetoothGattCharacteristic,
-        data: ByteArray?
-    ) {
-        if (data == null) {
-            Log.w(tag, "Characteristic ${characteristic.uuid} changed with null data")
-            return
+    /**
+     * Binder side: copies the value into the ingest queue and wakes the ingest thread, which
+     * is posted at most once per batch of queued values.
+     */
+    private fun enqueue(role: CharacteristicRole, data: ByteArray) {
+        if (!ingestQueue.offer(role.ordinal, data)) {
+            Log.w(tag, "Ingest queue full, dropped ${data.size} bytes from $role")
         }
-        Log.v(
-            tag,
-            "Characteristic ${characteristic.uuid} changed (${data.size} bytes)"
-        )
-        parseAndNotify(characteristic.uuid, data)
-    }
-
-    private fun handleCharacteristicWrite(
-        characteristic: BluetoothGattCharacteristic,
-        data: ByteArray?,
-        status: Int
-    ) {
-        val uuid = characteristic.uuid
-        if (status == BluetoothGatt.GATT_SUCCESS) {
-            Log.i(tag, "Characteristic $uuid written successfully")
-            if (data != null) {
-                if (uuid == BleUuids.CHAR_KEEPALIVE_UUID) {
-                    val stringValue = data.toString(Charsets.UTF_8).trim()
-                    Log.d(tag, "Keepalive write ack timestamp=$stringValue")
-                }
-                parseAndNotify(uuid, data)
-            } else {
-                Log.d(tag, "Characteristic $uuid write success with no value payload")
-            }
-        } else {
-            val message = "Characteristic write failed for $uuid, status: $status"
-            Log.e(tag, message)
-            connectionListener?.onError(message)
+        if (drainScheduled.compareAndSet(false, true)) {
+            ingestHandler.post(drainRunnable)
         }
     }
 
-    private fun parseAndNotify(uuid: UUID, data: ByteArray) {
-        val stringValue = data.toString(Charsets.UTF_8).trim()
-        Log.d(tag, "Incoming payload for $uuid: $stringValue")
-        try {
-            when (uuid) {
-                BleUuids.CHAR_COORDINATES_UUID -> handleCoordinatesPayload(stringValue)
-                BleUuids.CHAR_STATUS_UUID -> handleStatusPayload(stringValue)
-                BleUuids.CHAR_AP_CONTROL_UUID -> {
-                    val enabled = stringValue == "1"
-                    connectionListener?.onApControlChanged(enabled)
-                }
-                BleUuids.CHAR_MODE_CONTROL_UUID -> {
-                    val enabled = stringValue == "1"
-                    connectionListener?.onBridgeModeChanged(enabled)
-                }
-                BleUuids.CHAR_GPS_BAUD_UUID -> {
-                    val baudRate = stringValue.toIntOrNull()
-                    if (baudRate != null) {
-                        connectionListener?.onGpsBaudRateChanged(baudRate)
-                    } else {
-                        Log.w(tag, "Invalid GPS baud payload: $stringValue")
-                    }
-                }
-                else -> Log.d(tag, "No specific parsing for UUID $uuid")
+    /** Ingest thread: [data] is an ingest queue slot and only valid during the call. */
+    private fun parseAndNotify(role: CharacteristicRole, data: ByteArray, length: Int) {
+        if (role == CharacteristicRole.RPC) {
+            val session = session ?: return
+            if (!session.onRpcResponse(data, 0, length)) {
+                Log.w(tag, "Malformed RPC response (${length} bytes)")
             }
-        } catch (exception: Exception) {
-            Log.e(tag, "Error parsing data for UUID $uuid, value: $stringValue", exception)
-            connectionListener?.onError(
-                "Error parsing data for $uuid: ${exception.localizedMessage}"
-            )
+            return
         }
+        decoder.decode(role, data, 0, length, SystemClock.elapsedRealtime())
     }
 
-    private fun handleCoordinatesPayload(raw: String) {
-        try {
-            val payload = JSONObject(raw)
-            val lat = payload.optDouble("lt")
-            val lon = payload.optDouble("lg")
-            Log.i(
-                tag,
-                "Coordinates payload parsed lt=$lat lg=$lon spd=${payload.optDouble("spd")} alt=${payload.optDouble("alt")}"
-            )
-            if (!lat.isNaN() && !lon.isNaN()) {
-                connectionListener?.onCoordinatesReceived(lat, lon)
-            }
-            payload.optDouble("hd").takeIf { !it.isNaN() }?.let {
-                connectionListener?.onHeadingReceived(it)
-            }
-            payload.optDouble("spd").takeIf { !it.isNaN() }?.let {
-                connectionListener?.onSpeedReceived(it)
-            }
-            payload.optDouble("alt").takeIf { !it.isNaN() }?.let {
-                connectionListener?.onAltitudeReceived(it)
-            }
-        } catch (exception: Exception) {
-            Log.w(tag, "Invalid Navigation JSON: $raw", exception)
-        }
+    /**
+     * Ingest thread: applies a new measured fix rate to link tuning, and keeps it for the
+     * next connection, which picks its wire protocol from it.
+     */
+    private fun onFixRateMeasured(hz: Int) {
+        Log.i(tag, "Receiver fix rate measured at $hz Hz")
+        session?.updateFixRate(hz)
+        AppPrefs.setFixRateHz(context, hz)
     }
 
-    private fun handleStatusPayload(raw: String) {
-        try {
-            val payload = JSONObject(raw)
-            val fixValue = payload.optInt("fix", -1)
-            Log.d(
-                tag,
-                "Status payload parsed fix=$fixValue hdop=${payload.optDouble("hdop")} signals=${payload.optJSONArray("signals")}"
-            )
-            if (fixValue != -1) {
-                val type = if (fixValue == 1) 1 else 0
-                connectionListener?.onFixStatusReceived("$fixValue,$type")
-            }
-            payload.optDouble("hdop").takeIf { !it.isNaN() }?.let {
-                connectionListener?.onHdopReceived(it)
-            }
-            val signals = payload.optJSONArray("signals")
-            if (signals != null) {
-                val values = buildString {
-                    appendSignals(signals)
-                }
-                connectionListener?.onSignalLevelsReceived(values)
-            }
-            if (payload.has("ttff")) {
-                val ttff = payload.optLong("ttff")
-                Log.d(tag, "TTFF: $ttff")
-                try {
-                    connectionListener?.onTtffReceived(ttff)
-                } catch (_: Exception) {
-                }
-            }
-        } catch (exception: Exception) {
-            Log.w(tag, "Invalid Status JSON: $raw", exception)
+    /**
+     * Asks the receiver for binary v2 frames, or for the v3 keyframe/delta stream when it last
+     * streamed faster than [GattSession.BALANCED_MAX_FIX_RATE_HZ]: then several fixes share a
+     * connection event and deltas save most of the airtime. Older firmware has no protocol
+     * characteristic and keeps sending JSON; frames are decoded per notification either way.
+     * Queued as a control write, so it goes out right after the subscriptions.
+     */
+    private fun requestBinaryProtocol(session: GattSession) {
+        if (!session.hasCharacteristic(CharacteristicRole.PROTOCOL)) {
+            Log.i(tag, "Protocol characteristic absent, staying on JSON frames")
+            decoder.wireProtocolVersion = BinaryFrameCodec.PROTOCOL_VERSION_JSON
+            return
         }
+        val version =
+            if (session.fixRateHz > GattSession.BALANCED_MAX_FIX_RATE_HZ) {
+                BinaryFrameCodec.PROTOCOL_VERSION_DELTA_STREAM
+            } else {
+                BinaryFrameCodec.PROTOCOL_VERSION_BINARY
+            }
+        ingestHandler.post { decoder.resetDeltaStream() }
+        session.write(CharacteristicRole.PROTOCOL, version.toString())
     }
 
-    private fun StringBuilder.appendSignals(array: JSONArray) {
-        for (index in 0 until array.length()) {
-            if (index > 0) append(',')
-            val rawValue = array.opt(index)
-            val level =
-                when (rawValue) {
-                    is Number -> rawValue.toInt()
-                    is String -> rawValue.trim().toIntOrNull() ?: 0
-                    else -> 0
-                }
-            append(level)
-        }
-    }
+    /**
+     * Round trip of the fastest recent keepalive exchange in milliseconds, -1 until the receiver
+     * has answered one; see [LinkClockEstimator].
+     */
+    fun getLinkRttMillis(): Long = session?.getLinkRttMillis() ?: -1L
 
-    private fun enableNotificationsInternal(
-        gatt: BluetoothGatt,
-        service: android.bluetooth.BluetoothGattService,
-        characteristicUuid: UUID
-    ) {
-        val characteristic = service.getCharacteristic(characteristicUuid)
-        if (characteristic == null) {
-            Log.e(tag, "Characteristic $characteristicUuid not found in service ${service.uuid}")
-            return
-        }
-        if (!hasConnectPermission()) {
-            connectionListener?.onError(
-                "Missing BLUETOOTH_CONNECT permission to set characteristic notification"
-            )
-            return
-        }
-        val descriptor = characteristic.getDescriptor(BleUuids.CCCD_UUID)
-        if (descriptor == null) {
-            Log.e(tag, "CCCD not found for characteristic $characteristicUuid")
-            return
-        }
+    /** Receiver clock minus [SystemClock.elapsedRealtime], valid once [getLinkRttMillis] is. */
+    fun getReceiverClockOffsetMillis(): Long = session?.getReceiverClockOffsetMillis() ?: 0L
 
-        if (!gatt.setCharacteristicNotification(characteristic, true)) {
-            val message =
-                "Failed to enable client characteristic notification for $characteristicUuid"
-            Log.e(tag, message)
-            connectionListener?.onError(message)
-            return
-        }
+    fun getWireProtocolVersion(): Int = decoder.wireProtocolVersion
 
-        val value =
-            if ((characteristic.properties and BluetoothGattCharacteristic.PROPERTY_INDICATE) != 0) {
-                BluetoothGattDescriptor.ENABLE_INDICATION_VALUE
-            } else {
-                BluetoothGattDescriptor.ENABLE_NOTIFICATION_VALUE
-            }
+    fun getDeltaStreamGapCount(): Long = decoder.deltaStreamGaps
 
-        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.TIRAMISU) {
-            gatt.writeDescriptor(descriptor, value)
-        } else {
-            descriptor.setValue(value)
-            gatt.writeDescriptor(descriptor)
-        }
-        Log.i(tag, "Requested notifications/indications for $characteristicUuid")
-    }
+    fun getDroppedFragmentedPayloadCount(): Long = decoder.droppedFragmentedPayloads
 
-    private fun readCharacteristicInternal(
-        gatt: BluetoothGatt,
-        service: android.bluetooth.BluetoothGattService,
-        characteristicUuid: UUID
-    ) {
-        val characteristic = service.getCharacteristic(characteristicUuid)
-        if (characteristic == null) {
-            Log.e(tag, "Characteristic $characteristicUuid not found for read")
-            return
-        }
-        if (!hasConnectPermission()) {
-            connectionListener?.onError(
-                "Missing BLUETOOTH_CONNECT permission to read characteristic"
-            )
-            return
-        }
-        if (!gatt.readCharacteristic(characteristic)) {
-            Log.w(tag, "Failed to initiate read for characteristic $characteristicUuid")
-        } else {
-            Log.i(tag, "Requested read for characteristic $characteristicUuid")
-        }
-    }
+    fun getCoordinatesIntegrityStats(): StreamIntegrityStats = decoder.coordinatesIntegrityStats()
+
+    fun getStatusIntegrityStats(): StreamIntegrityStats = decoder.statusIntegrityStats()
 
+    fun getNmeaChecksumErrorCount(): Long = decoder.nmeaChecksumErrors
+
+    fun getUbxChecksumErrorCount(): Long = decoder.ubxChecksumErrors
+
+    /** Queues a read; the value arrives through the listener once the link gets to it. */
     fun readCharacteristic(uuid: UUID): Boolean {
-        val gatt = bluetoothGatt ?: run {
+        val session = session ?: run {
             Log.w(tag, "readCharacteristic($uuid) skipped: GATT not connected")
             return false
         }
-        val service = gpsService ?: run {
+        val profile = session.profile ?: run {
             Log.w(tag, "readCharacteristic($uuid) skipped: service unavailable")
             return false
         }
-        readCharacteristicInternal(gatt, service, uuid)
+        val role = profile.characteristics.firstOrNull { it.uuid == uuid }?.role
+        if (role == null || !session.hasCharacteristic(role)) {
+            Log.e(tag, "Characteristic $uuid not found for read")
+            return true
+        }
+        session.read(role)
         return true
     }
 
+    /** Queues a control write; returns false when it cannot be issued on this connection. */
     fun writeCharacteristic(uuid: UUID, payload: String): Boolean {
-        val gatt = bluetoothGatt ?: run {
+        val session = session ?: run {
             Log.w(tag, "writeCharacteristic($uuid) skipped: GATT not connected")
             return false
         }
-        val service = gpsService ?: run {
+        val profile = session.profile ?: run {
             Log.w(tag, "writeCharacteristic($uuid) skipped: service unavailable")
             return false
         }
-        val characteristic = service.getCharacteristic(uuid)
-        if (characteristic == null) {
+        val role = profile.characteristics.firstOrNull { it.uuid == uuid }?.role
+        if (role == null || !session.hasCharacteristic(role)) {
             Log.e(tag, "Characteristic $uuid not found for write")
             return false
         }
-        if (!hasConnectPermission()) {
-            connectionListener?.onError("Missing BLUETOOTH_CONNECT permission to write characteristic")
-            return false
-        }
-        val supportsWrite =
-            (characteristic.properties and BluetoothGattCharacteristic.PROPERTY_WRITE) != 0 ||
-                (characteristic.properties and BluetoothGattCharacteristic.PROPERTY_WRITE_NO_RESPONSE) != 0
-        if (!supportsWrite) {
-            Log.e(tag, "Characteristic $uuid is not writable (properties=${characteristic.properties})")
+        if (!session.isWritable(role)) {
+            Log.e(tag, "Characteristic $uuid is not writable (properties=${session.properties(role)})")
             return false
         }
+        session.write(role, payload)
+        return true
+    }
 
-        val data = payload.toByteArray(Charsets.UTF_8)
-        characteristic.writeType = BluetoothGattCharacteristic.WRITE_TYPE_DEFAULT
-        characteristic.value = data
-        val result = gatt.writeCharacteristic(characteristic)
-        if (!result) {
-            Log.e(tag, "writeCharacteristic($uuid) failed to enqueue GATT write")
-        } else {
-            Log.i(tag, "Enqueued write for $uuid payload=$payload")
+    /**
+     * Changes a receiver setting ([CharacteristicRole.AP_CONTROL], [CharacteristicRole.MODE_CONTROL]
+     * or [CharacteristicRole.GPS_BAUD]) and reports whether it took effect to [callback], on a
+     * binder or the ingest thread. The new state also reaches the listener as usual.
+     *
+     * Receivers with the RPC characteristic confirm with a correlated response. Older firmware
+     * gets the plain write followed by one read-back.
+     */
+    fun requestSettingChange(
+        role: CharacteristicRole,
+        value: String,
+        callback: SettingChangeCallback?
+    ): Boolean {
+        val session = session
+        if (session == null) {
+            Log.w(tag, "requestSettingChange($role) skipped: GATT not connected")
+            return false
         }
-        return result
+        return session.requestSettingChange(role, value, callback)
     }
 
     fun hasScanPermission(): Boolean {
@@ -653,26 +437,46 @@ class ConnectionManager(
             connectionListener?.onError(message)
             return
         }
-        if (bluetoothGatt != null && bluetoothGatt?.device?.address != device.address) {
+        val previous = session
+        if (previous != null && previous.address != device.address) {
             Log.w(
                 tag,
-                "New device connection requested. Closing previous GATT connection to ${bluetoothGatt?.device?.address}"
+                "New device connection requested. Closing previous GATT connection to ${previous.address}"
             )
-            bluetoothGatt?.disconnect()
+            previous.disconnect()
             closeGatt()
-        } else if (bluetoothGatt != null && bluetoothGatt?.device?.address == device.address) {
+        } else if (previous != null) {
             Log.i(
                 tag,
                 "Already connected or connecting to ${device.address}. Attempting to reconnect if necessary."
             )
+            previous.close()
         }
 
         Log.i(tag, "Connecting to device: ${device.address} - ${device.name ?: "Unknown"}")
         connectionListener?.onConnecting(device)
-        val gatt = device.connectGatt(context, false, gattCallback, BluetoothDevice.TRANSPORT_LE)
-        if (gatt != null) {
-            bluetoothGatt = gatt
-        } else {
+        val transport =
+            BluetoothGattTransport(context, device, bluetoothAdapter) {
+                hasConnectPermission().also { granted ->
+                    if (!granted) {
+                        connectionListener?.onError("Missing BLUETOOTH_CONNECT permission for GATT request")
+                    }
+                }
+            }
+        val fixRateHz = AppPrefs.getFixRateHz(context).coerceAtLeast(1)
+        decoder.setFixRateHz(fixRateHz)
+        val newSession =
+            GattSession(
+                transport,
+                mainScheduler,
+                GattSession.Clock { SystemClock.elapsedRealtime() },
+                AndroidLogger,
+                fixRateHz,
+                SessionEvents(device)
+            )
+        session = newSession
+        if (!newSession.connect()) {
+            session = null
             val message = "connectGatt returned null for ${device.address}"
             Log.e(tag, message)
             connectionListener?.onError(message)
@@ -686,118 +490,59 @@ class ConnectionManager(
             connectionListener?.onError(message)
             return
         }
-        if (bluetoothGatt == null) {
+        val session = session ?: run {
             Log.w(tag, "No active GATT connection to disconnect")
             return
         }
-        Log.i(tag, "Disconnecting from ${bluetoothGatt?.device?.address}")
-        stopKeepAlive()
-        bluetoothGatt?.disconnect()
+        Log.i(tag, "Disconnecting from ${session.address}")
+        session.disconnect()
     }
 
     fun closeGatt() {
-        stopKeepAlive()
-        bluetoothGatt?.close()
-        bluetoothGatt = null
-        gpsService = null
+        session?.close()
+        session = null
+        decoder.wireProtocolVersion = BinaryFrameCodec.PROTOCOL_VERSION_JSON
+        // Queued values from this connection drain first, then the decoder starts clean.
+        ingestHandler.post { decoder.reset() }
         Log.d(tag, "GATT client resources released")
     }
 
+    /** Closes the connection and stops the ingest thread once queued values are handled. */
+    fun release() {
+        closeGatt()
+        ingestThread.quitSafely()
+    }
+
     fun setScanListener(listener: BleScanListener?) {
         scanListener = listener
     }
 
     fun setConnectionDataListener(listener: BleConnectionDataListener?) {
         connectionListener = listener
+        decoder.listener = listener
     }
 
     fun pollTelemetry(): Boolean {
-        val gatt = bluetoothGatt ?: return false
-        val service = gpsService ?: return false
+        val session = session ?: return false
+        if (!session.hasCharacteristic(CharacteristicRole.STATUS)) return false
         if (!hasConnectPermission()) {
             connectionListener?.onError("Missing BLUETOOTH_CONNECT permission to poll telemetry")
             return false
         }
-        readCharacteristicInternal(gatt, service, BleUuids.CHAR_STATUS_UUID)
+        session.read(CharacteristicRole.STATUS)
         return true
     }
 
-    @Synchronized
+    /** Starts the adaptive keepalive loop of the current connection; see [KeepAlivePolicy]. */
     fun startKeepAlive(delayMillis: Long = 0L) {
-        if (keepAliveRunnable != null) {
-            Log.d(tag, "Keepalive loop already running, restarting")
-            stopKeepAlive()
-        }
-        keepAliveFailCount = 0
-        val service = gpsService ?: run {
-            Log.w(tag, "Cannot start keepalive: GPS service unavailable")
-            return
-        }
-        val characteristic = service.getCharacteristic(BleUuids.CHAR_KEEPALIVE_UUID)
-        if (characteristic == null) {
-            Log.w(tag, "Keepalive characteristic ${BleUuids.CHAR_KEEPALIVE_UUID} not found")
+        val session = session ?: run {
+            Log.w(tag, "Cannot start keepalive: GATT not connected")
             return
         }
-        val supportsWrite =
-            (characteristic.properties and BluetoothGattCharacteristic.PROPERTY_WRITE) != 0 ||
-                (characteristic.properties and BluetoothGattCharacteristic.PROPERTY_WRITE_NO_RESPONSE) != 0
-        if (!supportsWrite) {
-            Log.w(
-                tag,
-                "Keepalive characteristic ${BleUuids.CHAR_KEEPALIVE_UUID} is not writable (properties=${characteristic.properties})"
-            )
-            return
-        }
-
-        val runnable =
-            object : Runnable {
-                override fun run() {
-                    val timestampSeconds = (System.currentTimeMillis() / 1000L).toString()
-                    Log.d(tag, "Sending keepalive timestamp=$timestampSeconds")
-                    val enqueued = writeCharacteristic(BleUuids.CHAR_KEEPALIVE_UUID, timestampSeconds)
-                    if (!enqueued) {
-                        keepAliveFailCount += 1
-                        if (keepAliveFailCount < KEEPALIVE_MAX_RETRIES) {
-                            Log.w(
-                                tag,
-                                "Keepalive enqueue failed (attempt $keepAliveFailCount/$KEEPALIVE_MAX_RETRIES), retrying in ${KEEPALIVE_RETRY_INTERVAL_MS}ms"
-                            )
-                            handler.postDelayed(this, KEEPALIVE_RETRY_INTERVAL_MS)
-                        } else {
-                            Log.e(
-                                tag,
-                                "Keepalive enqueue failed $KEEPALIVE_MAX_RETRIES times, backing off for ${KEEPALIVE_INTERVAL_MS}ms"
-                            )
-                            keepAliveFailCount = 0
-                            handler.postDelayed(this, KEEPALIVE_INTERVAL_MS)
-                        }
-                        return
-                    }
-                    keepAliveFailCount = 0
-                    handler.postDelayed(this, KEEPALIVE_INTERVAL_MS)
-                }
-            }
-        keepAliveRunnable = runnable
-        if (delayMillis <= 0L) {
-            handler.post(runnable)
-        } else {
-            handler.postDelayed(runnable, delayMillis)
-        }
-        Log.d(tag, "Keepalive loop scheduled to start in ${delayMillis}ms")
-    }
-
-    @Synchronized
-    private fun stopKeepAlive() {
-        val runnable = keepAliveRunnable ?: return
-        handler.removeCallbacks(runnable)
-        keepAliveRunnable = null
-        keepAliveFailCount = 0
-        Log.d(tag, "Keepalive loop stopped")
+        session.startKeepAlive(delayMillis)
     }
 
     companion object {
-        private const val KEEPALIVE_INTERVAL_MS = 1_000L
-        private const val KEEPALIVE_RETRY_INTERVAL_MS = 1_000L
-        private const val KEEPALIVE_MAX_RETRIES = 3
+        const val DEFAULT_FIX_RATE_HZ = PayloadDecoder.DEFAULT_FIX_RATE_HZ
     }
 }
@@ -0,0 +1,100 @@
+package com.g992.blegpsmocker
+
+/**
+ * Fields of one coordinates notification. Absent values are NaN; [deviceTimeMillis] is -1
+ * unless the frame carried a receiver-side timestamp. The accuracy estimates (1-sigma, meters
+ * and m/s) are only reported by receivers that measure them, such as u-blox UBX output.
+ */
+class CoordinatesPayload {
+    var latitude = Double.NaN
+    var longitude = Double.NaN
+    var heading = Double.NaN
+    var speed = Double.NaN
+    var altitude = Double.NaN
+    var deviceTimeMillis = -1L
+    var horizontalAccuracy = Double.NaN
+    var verticalAccuracy = Double.NaN
+    var speedAccuracy = Double.NaN
+
+    fun clear() {
+        latitude = Double.NaN
+        longitude = Double.NaN
+        heading = Double.NaN
+        speed = Double.NaN
+        altitude = Double.NaN
+        deviceTimeMillis = -1L
+        horizontalAccuracy = Double.NaN
+        verticalAccuracy = Double.NaN
+        speedAccuracy = Double.NaN
+    }
+
+    fun hasPosition(): Boolean = !latitude.isNaN() && !longitude.isNaN()
+}
+
+/**
+ * Reads `{"lt":..,"lg":..,"hd":..,"spd":..,"alt":..}` straight from the notification bytes.
+ *
+ * Returns false for anything outside the strict format (escaped keys, quoted numbers,
+ * duplicate fields, trailing data); the caller then falls back to org.json.
+ */
+internal class CoordinatesPayloadParser {
+    private val reader = JsonByteReader()
+
+    fun parse(data: ByteArray, offset: Int, length: Int, out: CoordinatesPayload): Boolean {
+        out.clear()
+        reader.reset(data, offset, length)
+        try {
+            return parseObject(out)
+        } finally {
+            reader.release()
+        }
+    }
+
+    private fun parseObject(out: CoordinatesPayload): Boolean {
+        if (!reader.consume('{')) return false
+        if (reader.consume('}')) return reader.isAtEnd()
+        var seen = 0
+        do {
+            if (!reader.readKey()) return false
+            val field =
+                when {
+                    reader.keyEquals(KEY_LATITUDE) -> FIELD_LATITUDE
+                    reader.keyEquals(KEY_LONGITUDE) -> FIELD_LONGITUDE
+                    reader.keyEquals(KEY_HEADING) -> FIELD_HEADING
+                    reader.keyEquals(KEY_SPEED) -> FIELD_SPEED
+                    reader.keyEquals(KEY_ALTITUDE) -> FIELD_ALTITUDE
+                    else -> 0
+                }
+            if (field == 0) {
+                if (!reader.skipValue()) return false
+                continue
+            }
+            if ((seen and field) != 0) return false
+            seen = seen or field
+            val value = reader.readNumber()
+            if (value.isNaN()) return false
+            when (field) {
+                FIELD_LATITUDE -> out.latitude = value
+                FIELD_LONGITUDE -> out.longitude = value
+                FIELD_HEADING -> out.heading = value
+                FIELD_SPEED -> out.speed = value
+                FIELD_ALTITUDE -> out.altitude = value
+            }
+        } while (reader.consume(','))
+        return reader.consume('}') && reader.isAtEnd()
+    }
+
+    companion object {
+        const val KEY_LATITUDE = "lt"
+        const val KEY_LONGITUDE = "lg"
+        const val KEY_HEADING = "hd"
+        const val KEY_SPEED = "spd"
+        const val KEY_ALTITUDE = "alt"
+
+        private const val FIELD_LATITUDE = 1
+        private const val FIELD_LONGITUDE = 1 shl 1
+        private const val FIELD_HEADING = 1 shl 2
+        private const val FIELD_SPEED = 1 shl 3
+        private const val FIELD_ALTITUDE = 1 shl 4
+    }
+}
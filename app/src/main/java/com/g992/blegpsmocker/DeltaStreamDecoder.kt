@@ -0,0 +1,151 @@
+package com.g992.blegpsmocker
+
+/**
+ * Decoder for the keyframe + delta coordinate stream (wire protocol v3).
+ *
+ * Keyframe (type [BinaryFrameCodec.TYPE_KEYFRAME], 20 bytes): the v2 fix layout with a u8
+ * counter at offset 3, so every field after it moves one byte further.
+ *
+ * Delta (type [BinaryFrameCodec.TYPE_DELTA]): `counter:u8, count:u8` after the header, then
+ * `count` records of zigzag varints relative to the previous fix: latitude, longitude and,
+ * when the header flags announce them, speed, altitude and heading (heading wraps at 360 deg).
+ * The counter of a delta frame is the counter of its first record.
+ *
+ * A counter gap or a delta before any keyframe drops the stream until the next keyframe.
+ */
+internal class DeltaStreamDecoder {
+    private var fixes = Array(INITIAL_CAPACITY) { CoordinatesPayload() }
+    private var synced = false
+    private var expectedCounter = 0
+    private var latitude = 0
+    private var longitude = 0
+    private var speed = 0
+    private var altitude = 0
+    private var heading = 0
+    private var cursor = 0
+
+    var keyframes = 0L
+        private set
+    var deltaFixes = 0L
+        private set
+    var gaps = 0L
+        private set
+
+    fun fix(index: Int): CoordinatesPayload = fixes[index]
+
+    fun reset() {
+        synced = false
+    }
+
+    fun isStreamFrame(data: ByteArray, offset: Int, length: Int): Boolean {
+        if (!BinaryFrameCodec.isBinaryFrame(data, offset, length)) return false
+        val type = BinaryFrameCodec.frameType(data, offset)
+        return type == BinaryFrameCodec.TYPE_KEYFRAME || type == BinaryFrameCodec.TYPE_DELTA
+    }
+
+    /**
+     * Decodes one stream frame into [fix] slots and returns how many fixes it produced,
+     * or -1 when the frame is malformed.
+     */
+    fun decode(data: ByteArray, offset: Int, length: Int): Int =
+        when (BinaryFrameCodec.frameType(data, offset)) {
+            BinaryFrameCodec.TYPE_KEYFRAME -> decodeKeyframe(data, offset, length)
+            BinaryFrameCodec.TYPE_DELTA -> decodeDelta(data, offset, length)
+            else -> -1
+        }
+
+    private fun decodeKeyframe(data: ByteArray, offset: Int, length: Int): Int {
+        if (length < KEYFRAME_SIZE) return -1
+        val flags = BinaryFrameCodec.readUInt8(data, offset + 2)
+        expectedCounter = (BinaryFrameCodec.readUInt8(data, offset + 3) + 1) and 0xFF
+        latitude = BinaryFrameCodec.readInt32(data, offset + 4)
+        longitude = BinaryFrameCodec.readInt32(data, offset + 8)
+        speed = BinaryFrameCodec.readUInt16(data, offset + 12)
+        altitude = BinaryFrameCodec.readInt32(data, offset + 14)
+        heading = BinaryFrameCodec.readUInt16(data, offset + 18)
+        synced = true
+        keyframes++
+        emit(0, flags)
+        return 1
+    }
+
+    private fun decodeDelta(data: ByteArray, offset: Int, length: Int): Int {
+        if (length < DELTA_HEADER_SIZE) return -1
+        val flags = BinaryFrameCodec.readUInt8(data, offset + 2)
+        val counter = BinaryFrameCodec.readUInt8(data, offset + 3)
+        val count = BinaryFrameCodec.readUInt8(data, offset + 4)
+        if (!synced) return 0
+        if (counter != expectedCounter) {
+            gaps++
+            synced = false
+            return 0
+        }
+        ensureCapacity(count)
+        val end = offset + length
+        cursor = offset + DELTA_HEADER_SIZE
+        for (index in 0 until count) {
+            latitude += readZigZag(data, end)
+            longitude += readZigZag(data, end)
+            if ((flags and BinaryFrameCodec.FLAG_SPEED) != 0) speed += readZigZag(data, end)
+            if ((flags and BinaryFrameCodec.FLAG_ALTITUDE) != 0) altitude += readZigZag(data, end)
+            if ((flags and BinaryFrameCodec.FLAG_HEADING) != 0) {
+                heading = Math.floorMod(heading + readZigZag(data, end), HEADING_MODULO)
+            }
+            if (cursor > end) {
+                synced = false
+                return -1
+            }
+            emit(index, flags)
+        }
+        expectedCounter = (counter + count) and 0xFF
+        deltaFixes += count
+        return count
+    }
+
+    private fun emit(index: Int, flags: Int) {
+        val out = fixes[index]
+        out.clear()
+        out.latitude = latitude / BinaryFrameCodec.DEGREES_DIVISOR
+        out.longitude = longitude / BinaryFrameCodec.DEGREES_DIVISOR
+        if ((flags and BinaryFrameCodec.FLAG_SPEED) != 0) {
+            out.speed = speed / BinaryFrameCodec.CENTI_DIVISOR
+        }
+        if ((flags and BinaryFrameCodec.FLAG_ALTITUDE) != 0) {
+            out.altitude = altitude / BinaryFrameCodec.CENTI_DIVISOR
+        }
+        if ((flags and BinaryFrameCodec.FLAG_HEADING) != 0) {
+            out.heading = heading / BinaryFrameCodec.CENTI_DIVISOR
+        }
+    }
+
+    // Past-the-end reads return 0 and leave cursor > end so the caller can reject the frame.
+    private fun readZigZag(data: ByteArray, end: Int): Int {
+        var result = 0
+        var shift = 0
+        while (cursor < end && shift < 35) {
+            val current = data[cursor++].toInt()
+            result = result or ((current and 0x7F) shl shift)
+            if ((current and 0x80) == 0) {
+                return (result ushr 1) xor -(result and 1)
+            }
+            shift += 7
+        }
+        cursor = end + 1
+        return 0
+    }
+
+    private fun ensureCapacity(count: Int) {
+        if (count <= fixes.size) return
+        val grown = fixes.copyOf(maxOf(count, fixes.size * 2))
+        for (index in fixes.size until grown.size) grown[index] = CoordinatesPayload()
+        @Suppress("UNCHECKED_CAST")
+        fixes = grown as Array<CoordinatesPayload>
+    }
+
+    companion object {
+        const val KEYFRAME_SIZE = 20
+        const val DELTA_HEADER_SIZE = 5
+        private const val INITIAL_CAPACITY = 16
+        private const val HEADING_MODULO = 36_000
+    }
+}
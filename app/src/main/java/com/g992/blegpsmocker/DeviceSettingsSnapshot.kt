@@ -0,0 +1,55 @@
+package com.g992.blegpsmocker
+
+/**
+ * Last known settings of one receiver, kept per device address in [AppPrefs] so a reconnect
+ * can show them without reading the three setting characteristics again. [configRevision]
+ * is the receiver's settings revision the values belong to, -1 when the firmware does not
+ * report one. Without a revision, [MAX_AGE_MS] alone bounds how stale the values can get.
+ */
+internal class DeviceSettingsSnapshot(
+    val apControl: Boolean?,
+    val bridgeMode: Boolean?,
+    val gpsBaudRate: Int?,
+    val configRevision: Long,
+    val savedAtMillis: Long
+) {
+    fun isComplete(): Boolean = apControl != null && bridgeMode != null && gpsBaudRate != null
+
+    fun isFresh(nowMillis: Long): Boolean = nowMillis - savedAtMillis in 0L until MAX_AGE_MS
+
+    /** `ap;mode;baud;revision;savedAt`; unknown settings are empty. */
+    fun encode(): String =
+        listOf(
+            apControl?.let { if (it) "1" else "0" } ?: "",
+            bridgeMode?.let { if (it) "1" else "0" } ?: "",
+            gpsBaudRate?.toString() ?: "",
+            configRevision.toString(),
+            savedAtMillis.toString()
+        ).joinToString(SEPARATOR)
+
+    companion object {
+        const val MAX_AGE_MS = 24 * 60 * 60 * 1000L
+        private const val SEPARATOR = ";"
+        private const val FIELD_COUNT = 5
+
+        /** Returns null for a missing or unreadable entry. */
+        fun decode(raw: String?): DeviceSettingsSnapshot? {
+            val fields = raw?.split(SEPARATOR) ?: return null
+            if (fields.size != FIELD_COUNT) return null
+            return DeviceSettingsSnapshot(
+                flag(fields[0]),
+                flag(fields[1]),
+                fields[2].toIntOrNull(),
+                fields[3].toLongOrNull() ?: return null,
+                fields[4].toLongOrNull() ?: return null
+            )
+        }
+
+        private fun flag(field: String): Boolean? =
+            when (field) {
+                "1" -> true
+                "0" -> false
+                else -> null
+            }
+    }
+}
@@ -0,0 +1,209 @@
+package com.g992.blegpsmocker
+
+import java.math.BigInteger
+
+/**
+ * Decimal to double conversion over a byte range, bit-exact with [java.lang.Double.parseDouble].
+ *
+ * Uses the exact Clinger path for short inputs, then the Eisel–Lemire algorithm against a
+ * 128-bit power-of-ten table. The rare inputs Eisel–Lemire cannot decide (halfway cases,
+ * subnormals, huge exponents) go through the platform parser.
+ *
+ * Input must be a decimal number in JSON syntax, as validated by [JsonByteReader].
+ */
+internal object FastDoubleParser {
+    private const val MAX_MANTISSA_DIGITS = 19
+    private const val MAX_EXACT_MANTISSA = 1L shl 53
+    private const val MAX_EXACT_POWER = 22
+    private const val MIN_TABLE_EXPONENT = -348
+    private const val MAX_TABLE_EXPONENT = 347
+    private const val EXPONENT_BIAS = 1023
+    private const val MANTISSA_MASK = 0x000F_FFFF_FFFF_FFFFL
+    private const val LOW_32_MASK = 0xFFFF_FFFFL
+
+    // A NaN bit pattern; Eisel–Lemire never produces one, so it marks an undecided input.
+    private const val FAILED = -1L
+
+    private val EXACT_POWERS_OF_TEN =
+        doubleArrayOf(
+            1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+            1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+        )
+
+    // 128-bit mantissas of 10^e (rounded down), high word at 2*i, low word at 2*i+1.
+    private val POWERS_OF_TEN: LongArray = buildPowersOfTen()
+
+    fun parse(data: ByteArray, start: Int, end: Int): Double {
+        var index = start
+        var negative = false
+        if (index < end && data[index].toInt() == '-'.code) {
+            negative = true
+            index++
+        }
+
+        var mantissa = 0L
+        var digits = 0
+        var mantissaDigits = 0
+        var decimalPoint = 0
+        var sawDot = false
+        var truncated = false
+        while (index < end) {
+            val current = data[index].toInt()
+            if (current == '.'.code) {
+                if (sawDot) break
+                sawDot = true
+                decimalPoint = digits
+            } else if (current >= '0'.code && current <= '9'.code) {
+                if (current == '0'.code && digits == 0) {
+                    decimalPoint--
+                } else {
+                    digits++
+                    if (mantissaDigits < MAX_MANTISSA_DIGITS) {
+                        mantissa = mantissa * 10 + (current - '0'.code)
+                        mantissaDigits++
+                    } else if (current != '0'.code) {
+                        truncated = true
+                    }
+                }
+            } else {
+                break
+            }
+            index++
+        }
+        if (!sawDot) decimalPoint = digits
+
+        if (index < end && (data[index].toInt() or 0x20) == 'e'.code) {
+            index++
+            var exponentNegative = false
+            if (index < end && data[index].toInt() == '+'.code) {
+                index++
+            } else if (index < end && data[index].toInt() == '-'.code) {
+                exponentNegative = true
+                index++
+            }
+            var exponent = 0
+            while (index < end) {
+                val current = data[index].toInt()
+                if (current < '0'.code || current > '9'.code) break
+                if (exponent < 10_000) exponent = exponent * 10 + (current - '0'.code)
+                index++
+            }
+            decimalPoint += if (exponentNegative) -exponent else exponent
+        }
+        if (index != end) return slowPath(data, start, end)
+
+        if (mantissa == 0L) return if (negative) -0.0 else 0.0
+        val exponent10 = decimalPoint - mantissaDigits
+
+        if (!truncated &&
+            java.lang.Long.compareUnsigned(mantissa, MAX_EXACT_MANTISSA) <= 0 &&
+            exponent10 >= -MAX_EXACT_POWER &&
+            exponent10 <= MAX_EXACT_POWER
+        ) {
+            val magnitude =
+                if (exponent10 >= 0) mantissa.toDouble() * EXACT_POWERS_OF_TEN[exponent10]
+                else mantissa.toDouble() / EXACT_POWERS_OF_TEN[-exponent10]
+            return if (negative) -magnitude else magnitude
+        }
+
+        val bits = eiselLemire(mantissa, exponent10, negative)
+        if (bits != FAILED) {
+            if (!truncated) return java.lang.Double.longBitsToDouble(bits)
+            // Dropped digits put the true value between mantissa and mantissa + 1.
+            if (eiselLemire(mantissa + 1, exponent10, negative) == bits) {
+                return java.lang.Double.longBitsToDouble(bits)
+            }
+        }
+        return slowPath(data, start, end)
+    }
+
+    private fun slowPath(data: ByteArray, start: Int, end: Int): Double =
+        String(data, start, end - start, Charsets.US_ASCII).toDouble()
+
+    private fun eiselLemire(mantissa: Long, exponent10: Int, negative: Boolean): Long {
+        if (exponent10 < MIN_TABLE_EXPONENT || exponent10 > MAX_TABLE_EXPONENT) return FAILED
+
+        val leadingZeros = java.lang.Long.numberOfLeadingZeros(mantissa)
+        val normalized = mantissa shl leadingZeros
+        var exponent2 = ((217706L * exponent10) shr 16) + 64 + EXPONENT_BIAS - leadingZeros
+
+        val tableIndex = (exponent10 - MIN_TABLE_EXPONENT) * 2
+        val powerHigh = POWERS_OF_TEN[tableIndex]
+        val powerLow = POWERS_OF_TEN[tableIndex + 1]
+
+        var productHigh = multiplyHighUnsigned(normalized, powerHigh)
+        var productLow = normalized * powerHigh
+
+        if ((productHigh and 0x1FF) == 0x1FFL &&
+            java.lang.Long.compareUnsigned(productLow + normalized, normalized) < 0
+        ) {
+            val wideHigh = multiplyHighUnsigned(normalized, powerLow)
+            val wideLow = normalized * powerLow
+            var mergedHigh = productHigh
+            val mergedLow = productLow + wideHigh
+            if (java.lang.Long.compareUnsigned(mergedLow, productLow) < 0) mergedHigh++
+            if ((mergedHigh and 0x1FF) == 0x1FFL &&
+                mergedLow == -1L &&
+                java.lang.Long.compareUnsigned(wideLow + normalized, normalized) < 0
+            ) {
+                return FAILED
+            }
+            productHigh = mergedHigh
+            productLow = mergedLow
+        }
+
+        val topBit = (productHigh ushr 63).toInt()
+        var result = productHigh ushr (topBit + 9)
+        exponent2 -= (1 xor topBit).toLong()
+
+        if (productLow == 0L && (productHigh and 0x1FF) == 0L && (result and 3) == 1L) {
+            return FAILED
+        }
+
+        result += result and 1
+        result = result ushr 1
+        if ((result ushr 53) > 0) {
+            result = result ushr 1
+            exponent2++
+        }
+        if (exponent2 <= 0 || exponent2 >= 0x7FF) return FAILED
+
+        var bits = (exponent2 shl 52) or (result and MANTISSA_MASK)
+        if (negative) bits = bits or Long.MIN_VALUE
+        return bits
+    }
+
+    // Math.multiplyHigh needs API 31 and is signed; this is the unsigned variant.
+    private fun multiplyHighUnsigned(x: Long, y: Long): Long {
+        val x0 = x and LOW_32_MASK
+        val x1 = x ushr 32
+        val y0 = y and LOW_32_MASK
+        val y1 = y ushr 32
+        val low = x0 * y0
+        val middle = x1 * y0 + (low ushr 32)
+        val cross = (middle and LOW_32_MASK) + x0 * y1
+        return x1 * y1 + (middle ushr 32) + (cross ushr 32)
+    }
+
+    private fun buildPowersOfTen(): LongArray {
+        val table = LongArray((MAX_TABLE_EXPONENT - MIN_TABLE_EXPONENT + 1) * 2)
+        val mask64 = BigInteger.ONE.shiftLeft(64).subtract(BigInteger.ONE)
+        for (exponent in MIN_TABLE_EXPONENT..MAX_TABLE_EXPONENT) {
+            val mantissa =
+                if (exponent >= 0) {
+                    val power = BigInteger.TEN.pow(exponent)
+                    val shift = power.bitLength() - 128
+                    if (shift >= 0) power.shiftRight(shift) else power.shiftLeft(-shift)
+                } else {
+                    val divisor = BigInteger.TEN.pow(-exponent)
+                    val quotient =
+                        BigInteger.ONE.shiftLeft(divisor.bitLength() + 127).divide(divisor)
+                    quotient.shiftRight(quotient.bitLength() - 128)
+                }
+            val index = (exponent - MIN_TABLE_EXPONENT) * 2
+            table[index] = mantissa.shiftRight(64).toLong()
+            table[index + 1] = mantissa.and(mask64).toLong()
+        }
+        return table
+    }
+}
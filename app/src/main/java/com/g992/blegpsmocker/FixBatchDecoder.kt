@@ -0,0 +1,86 @@
+package com.g992.blegpsmocker
+
+/**
+ * Decoder for batched coordinate frames (type [BinaryFrameCodec.TYPE_BATCH]).
+ *
+ * Layout after the header: `count:u8, baseTime:u32` (device milliseconds), then `count`
+ * records of 18 bytes: `offset:u16` milliseconds after baseTime followed by the v2 fix body
+ * (latitude, longitude, speed, altitude, heading). Header flags apply to every record.
+ *
+ * Fixes are returned sorted by device time, oldest first.
+ */
+internal class FixBatchDecoder {
+    private var fixes = Array(INITIAL_CAPACITY) { CoordinatesPayload() }
+
+    var batches = 0L
+        private set
+
+    fun fix(index: Int): CoordinatesPayload = fixes[index]
+
+    fun isBatchFrame(data: ByteArray, offset: Int, length: Int): Boolean =
+        BinaryFrameCodec.isBinaryFrame(data, offset, length) &&
+            BinaryFrameCodec.frameType(data, offset) == BinaryFrameCodec.TYPE_BATCH
+
+    /** Returns the number of decoded fixes, or -1 when the frame is malformed. */
+    fun decode(data: ByteArray, offset: Int, length: Int): Int {
+        if (length < HEADER_SIZE) return -1
+        val flags = BinaryFrameCodec.readUInt8(data, offset + 2)
+        val count = BinaryFrameCodec.readUInt8(data, offset + 3)
+        if (HEADER_SIZE + count * RECORD_SIZE > length) return -1
+        val baseTime = BinaryFrameCodec.readUInt32(data, offset + 4)
+        ensureCapacity(count)
+        var position = offset + HEADER_SIZE
+        for (index in 0 until count) {
+            val out = fixes[index]
+            out.clear()
+            out.deviceTimeMillis = baseTime + BinaryFrameCodec.readUInt16(data, position)
+            out.latitude = BinaryFrameCodec.readInt32(data, position + 2) / BinaryFrameCodec.DEGREES_DIVISOR
+            out.longitude = BinaryFrameCodec.readInt32(data, position + 6) / BinaryFrameCodec.DEGREES_DIVISOR
+            if ((flags and BinaryFrameCodec.FLAG_SPEED) != 0) {
+                out.speed = BinaryFrameCodec.readUInt16(data, position + 10) / BinaryFrameCodec.CENTI_DIVISOR
+            }
+            if ((flags and BinaryFrameCodec.FLAG_ALTITUDE) != 0) {
+                out.altitude = BinaryFrameCodec.readInt32(data, position + 12) / BinaryFrameCodec.CENTI_DIVISOR
+            }
+            if ((flags and BinaryFrameCodec.FLAG_HEADING) != 0) {
+                out.heading = BinaryFrameCodec.readUInt16(data, position + 16) / BinaryFrameCodec.CENTI_DIVISOR
+            }
+            position += RECORD_SIZE
+        }
+        sortByDeviceTime(count)
+        batches++
+        return count
+    }
+
+    // Firmware sends records in order; the insertion sort is a no-op pass in that case.
+    private fun sortByDeviceTime(count: Int) {
+        for (index in 1 until count) {
+            val current = fixes[index]
+            var target = index - 1
+            while (target >= 0 && fixes[target].deviceTimeMillis > current.deviceTimeMillis) {
+                fixes[target + 1] = fixes[target]
+                target--
+            }
+            fixes[target + 1] = current
+        }
+    }
+
+    /** Preallocates records for batches of up to [count] fixes. */
+    fun reserve(count: Int) {
+        ensureCapacity(count)
+    }
+
+    private fun ensureCapacity(count: Int) {
+        if (count <= fixes.size) return
+        val grown = fixes.copyOf(maxOf(count, fixes.size * 2))
+        for (index in fixes.size until grown.size) grown[index] = CoordinatesPayload()
+        @Suppress("UNCHECKED_CAST")
+        fixes = grown as Array<CoordinatesPayload>
+    }
+
+    companion object {
+        const val HEADER_SIZE = 8
+        const val RECORD_SIZE = 18
+        private const val INITIAL_CAPACITY = 16
+    }
+}
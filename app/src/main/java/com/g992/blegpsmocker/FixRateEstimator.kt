@@ -0,0 +1,48 @@
+package com.g992.blegpsmocker
+
+/**
+ * Measures the receiver's fix rate from the fixes that reach the mock provider, counted over
+ * windows of [windowMillis] and rounded to whole hertz. Fixes of batches and delta frames
+ * count one by one, so the result is the rate the receiver measures at, not the rate it
+ * notifies at.
+ *
+ * The window starts at the first fix; a window without fixes is only closed by the next one,
+ * so a stalled link reads as a slow rate rather than none. Not thread-safe.
+ */
+internal class FixRateEstimator(private val windowMillis: Long = DEFAULT_WINDOW_MS) {
+    private var windowStart = NOT_STARTED
+    private var fixes = 0
+
+    /** Last measured rate, 0 until the first window is complete. */
+    var rateHz = 0
+        private set
+
+    /** Counts one fix received at [nowMillis]; returns true when [rateHz] changed. */
+    fun onFix(nowMillis: Long): Boolean {
+        if (windowStart == NOT_STARTED) {
+            windowStart = nowMillis
+            return false
+        }
+        fixes++
+        val elapsed = nowMillis - windowStart
+        if (elapsed < windowMillis) return false
+        val measured = ((fixes * MILLIS_PER_SECOND + elapsed / 2) / elapsed).toInt().coerceAtLeast(1)
+        windowStart = nowMillis
+        fixes = 0
+        if (measured == rateHz) return false
+        rateHz = measured
+        return true
+    }
+
+    fun reset() {
+        windowStart = NOT_STARTED
+        fixes = 0
+        rateHz = 0
+    }
+
+    companion object {
+        const val DEFAULT_WINDOW_MS = 5_000L
+        private const val MILLIS_PER_SECOND = 1_000L
+        private const val NOT_STARTED = Long.MIN_VALUE
+    }
+}
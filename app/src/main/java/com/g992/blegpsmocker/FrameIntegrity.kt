@@ -0,0 +1,117 @@
+package com.g992.blegpsmocker
+
+/**
+ * Optional integrity envelope around coordinates and status payloads (JSON or binary):
+ * `0xFD, sequence:u16, payload..., crc:u16`, all little-endian. The CRC is CRC-16/CCITT-FALSE
+ * over the sequence and payload bytes. Payloads without the marker are passed through.
+ */
+internal object FrameEnvelope {
+    const val ENVELOPE_MARKER = 0xFD
+    const val HEADER_SIZE = 3
+    const val TRAILER_SIZE = 2
+    const val OVERHEAD = HEADER_SIZE + TRAILER_SIZE
+
+    fun isEnveloped(data: ByteArray, offset: Int, length: Int): Boolean =
+        length > OVERHEAD && (data[offset].toInt() and 0xFF) == ENVELOPE_MARKER
+
+    fun sequence(data: ByteArray, offset: Int): Int = BinaryFrameCodec.readUInt16(data, offset + 1)
+
+    fun isCrcValid(data: ByteArray, offset: Int, length: Int): Boolean {
+        val crcOffset = offset + length - TRAILER_SIZE
+        val expected = BinaryFrameCodec.readUInt16(data, crcOffset)
+        return Crc16.compute(data, offset + 1, crcOffset) == expected
+    }
+}
+
+/** Table-driven CRC-16/CCITT-FALSE (poly 0x1021, init 0xFFFF, no reflection). */
+internal object Crc16 {
+    private val TABLE =
+        IntArray(256) { index ->
+            var crc = index shl 8
+            repeat(8) {
+                crc = if ((crc and 0x8000) != 0) (crc shl 1) xor 0x1021 else crc shl 1
+            }
+            crc and 0xFFFF
+        }
+
+    fun compute(data: ByteArray, start: Int, end: Int): Int {
+        var crc = 0xFFFF
+        for (index in start until end) {
+            crc = ((crc shl 8) xor TABLE[((crc ushr 8) xor data[index].toInt()) and 0xFF]) and 0xFFFF
+        }
+        return crc
+    }
+}
+
+/**
+ * Classifies u16 sequence numbers of one characteristic's stream.
+ *
+ * The last sequence survives reconnects so notifications the stack replays from before the
+ * drop are recognised as stale; a receiver reboot that restarts its counter is accepted
+ * after [resyncThreshold] consecutive stale frames.
+ */
+internal class SequenceTracker(private val resyncThreshold: Int = DEFAULT_RESYNC_THRESHOLD) {
+    private var lastSequence = -1
+    private var consecutiveStale = 0
+
+    var received = 0L
+        private set
+    var lost = 0L
+        private set
+    var duplicates = 0L
+        private set
+    var reordered = 0L
+        private set
+    var crcErrors = 0L
+        private set
+
+    fun recordCrcError() {
+        crcErrors++
+    }
+
+    /** Returns true when the frame is new and should be dispatched. */
+    fun accept(sequence: Int): Boolean {
+        if (lastSequence < 0) {
+            return acceptAt(sequence)
+        }
+        val distance = (sequence - lastSequence) and 0xFFFF
+        return when {
+            distance == 0 -> {
+                duplicates++
+                false
+            }
+            distance < HALF_RANGE -> {
+                lost += distance - 1
+                acceptAt(sequence)
+            }
+            else -> {
+                reordered++
+                consecutiveStale++
+                if (consecutiveStale >= resyncThreshold) acceptAt(sequence) else false
+            }
+        }
+    }
+
+    fun snapshot(): StreamIntegrityStats =
+        StreamIntegrityStats(received, lost, duplicates, reordered, crcErrors)
+
+    private fun acceptAt(sequence: Int): Boolean {
+        lastSequence = sequence
+        consecutiveStale = 0
+        received++
+        return true
+    }
+
+    companion object {
+        const val DEFAULT_RESYNC_THRESHOLD = 8
+        private const val HALF_RANGE = 0x8000
+    }
+}
+
+data class StreamIntegrityStats(
+    val received: Long = 0L,
+    val lost: Long = 0L,
+    val duplicates: Long = 0L,
+    val reordered: Long = 0L,
+    val crcErrors: Long = 0L
+)
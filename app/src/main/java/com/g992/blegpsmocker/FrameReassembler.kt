@@ -0,0 +1,118 @@
+package com.g992.blegpsmocker
+
+/**
+ * Reassembles payloads the receiver splits across notifications when they do not fit the MTU.
+ *
+ * A fragment starts with [FRAGMENT_MARKER], then a control byte: bit0 start, bit1 end and a
+ * 4-bit rolling fragment index in the high nibble. Start fragments carry the total payload
+ * length as u16 little-endian before their data. Neither JSON (`{`) nor binary frames
+ * (version byte) begin with the marker, so unfragmented payloads pass through untouched.
+ *
+ * A missing or reordered fragment drops the partial payload; the next start fragment begins
+ * a fresh one. A partial payload whose next fragment is more than [timeoutMillis] late is
+ * dropped too, so a lost end fragment cannot be completed by fragments of a later payload
+ * that happen to carry the expected index.
+ */
+internal class FrameReassembler(
+    private val maxPayloadSize: Int = DEFAULT_MAX_PAYLOAD_SIZE,
+    private val timeoutMillis: Long = DEFAULT_TIMEOUT_MS
+) {
+    private var buffer = ByteArray(INITIAL_CAPACITY)
+    private var expectedLength = 0
+    private var received = 0
+    private var nextIndex = 0
+    private var assembling = false
+    private var lastFragmentMillis = 0L
+
+    var completed = 0L
+        private set
+    var dropped = 0L
+        private set
+
+    /** Valid after [accept] returned true, until the next call. */
+    val payload: ByteArray
+        get() = buffer
+
+    val payloadLength: Int
+        get() = received
+
+    fun isFragment(data: ByteArray, offset: Int, length: Int): Boolean =
+        length >= 2 && (data[offset].toInt() and 0xFF) == FRAGMENT_MARKER
+
+    fun reset() {
+        assembling = false
+        received = 0
+        expectedLength = 0
+    }
+
+    /**
+     * Consumes one fragment received at [nowMillis] (any monotonic clock) and returns true
+     * once a whole payload is available.
+     */
+    fun accept(data: ByteArray, offset: Int, length: Int, nowMillis: Long): Boolean {
+        if (assembling && nowMillis - lastFragmentMillis > timeoutMillis) {
+            dropped++
+            reset()
+        }
+        lastFragmentMillis = nowMillis
+        val control = data[offset + 1].toInt() and 0xFF
+        val index = control ushr 4
+        var position = offset + 2
+        val end = offset + length
+
+        if ((control and FLAG_START) != 0) {
+            if (assembling) dropped++
+            if (length < START_HEADER_SIZE) {
+                reset()
+                return false
+            }
+            val total = BinaryFrameCodec.readUInt16(data, position)
+            position += 2
+            if (total > maxPayloadSize) {
+                dropped++
+                reset()
+                return false
+            }
+            if (buffer.size < total) buffer = ByteArray(maxOf(total, buffer.size * 2))
+            expectedLength = total
+            received = 0
+            assembling = true
+        } else if (!assembling || index != nextIndex) {
+            if (assembling) dropped++
+            reset()
+            return false
+        }
+
+        val chunk = end - position
+        if (received + chunk > expectedLength) {
+            dropped++
+            reset()
+            return false
+        }
+        System.arraycopy(data, position, buffer, received, chunk)
+        received += chunk
+        nextIndex = (index + 1) and 0x0F
+
+        if ((control and FLAG_END) == 0) return false
+        assembling = false
+        if (received != expectedLength) {
+            dropped++
+            received = 0
+            return false
+        }
+        completed++
+        return true
+    }
+
+    companion object {
+        const val FRAGMENT_MARKER = 0xFE
+        const val FLAG_START = 1
+        const val FLAG_END = 1 shl 1
+        const val START_HEADER_SIZE = 4
+        const val DEFAULT_MAX_PAYLOAD_SIZE = 4_096
+
+        /** Fragments of one payload go out back to back, well within a few connection events. */
+        const val DEFAULT_TIMEOUT_MS = 500L
+        private const val INITIAL_CAPACITY = 512
+    }
+}
@@ -11,7 +11,6 @@ import android.location.Location
 import android.location.LocationManager
 import android.location.provider.ProviderProperties
 import android.os.Binder
-import android.os.Build
 import android.os.Handler
 import android.os.IBinder
 import android.os.Looper
@@ -21,22 +20,23 @@ import android.provider.Settings
 import android.util.Log
 import androidx.core.content.ContextCompat
 import java.util.concurrent.atomic.AtomicBoolean
-import java.util.UUID
 
 private const val TAG = "GNSSClientService"
-private const val DEFAULT_HDOP_FALLBACK = 1.5
-private const val HDOP_TO_ACCURACY_METERS = 5.0
-private const val MIN_ACCURACY_METERS = 3f
-private const val MAX_ACCURACY_METERS = 50f
-private const val MIN_MOVEMENT_THRESHOLD_METERS = 0.1
 private const val SATELLITE_SIGNAL_STRONG_THRESHOLD = 35
 private const val SATELLITE_SIGNAL_MEDIUM_THRESHOLD = 20
 private const val RESCAN_DELAY_MS = 3_000L
 private const val STATIC_AP_SSID = "GPS-C3-xxxxxx"
 private const val GPS_BAUD_MIN = 4_800
 private const val GPS_BAUD_MAX = 921_600
-private const val DEVICE_SETTING_READ_RETRY_MAX = 3
-private const val DEVICE_SETTING_READ_RETRY_DELAY_MS = 300L
+private const val MOCK_UPDATE_MIN_INTERVAL_MS = 200L
+private const val PROVIDER_CHECK_INTERVAL_NS = 5_000_000_000L
+private const val NOTIFICATION_UPDATE_INTERVAL_MS = 5_000L
+private val DEVICE_SETTING_UUIDS =
+    arrayOf(
+        BleUuids.CHAR_AP_CONTROL_UUID,
+        BleUuids.CHAR_MODE_CONTROL_UUID,
+        BleUuids.CHAR_GPS_BAUD_UUID
+    )
 
 class GNSSClientService :
     Service(),
@@ -49,6 +49,8 @@ class GNSSClientService :
     private var wakeLock: PowerManager.WakeLock? = null
 
     private val handler = Handler(Looper.getMainLooper())
+    private val settingCoalescer =
+        SettingCoalescer { role, payload, callback -> sendSettingChange(role, payload, callback) }
     private val rescanRunnable =
         Runnable {
             if (!isConnected && AppPrefs.isMockEnabled(this)) {
@@ -56,25 +58,60 @@ class GNSSClientService :
             }
         }
     private val isReceivingUpdates = AtomicBoolean(false)
+
+    // Service state lives on the main thread. Fix callbacks arrive on ConnectionManager's
+    // ingest thread, which only composes the fix and pushes it to the providers in
+    // [activeProviders]; everything else it needs is posted here.
     private val registeredProviders = mutableSetOf<String>()
     private val mockProvidersConfigured = AtomicBoolean(false)
 
+    /** Immutable copy of [registeredProviders], republished whenever the main thread changes it. */
+    @Volatile
+    private var activeProviders: List<String> = emptyList()
+    @Volatile
     private var isConnected = false
-    private var lastReceivedLocation: Location? = null
+    private val fixComposer = MockFixComposer(MOCK_UPDATE_MIN_INTERVAL_MS)
+    private val lastLocation = Location(LocationManager.GPS_PROVIDER)
+    // Main thread's copy of [lastLocation] for the UI broadcast, refilled on each publish.
+    private val publishedLocation = Location(LocationManager.GPS_PROVIDER)
+    @Volatile
+    private var hasLastLocation = false
+    private val providerLocations = HashMap<String, Location>()
+    private val locationIntent = Intent(ACTION_LOCATION_UPDATE)
+    @Volatile
     private var lastUpdateTime: Long = 0L
     private var lastCoordinatesTimestamp: Long = 0L
-    private var lastProvider: String? = null
-
-    private var hdop: Double? = null
-    private var signalLevels: String? = null
-    private var altitudeMeters: Double? = null
-    private var speedMetersPerSecond: Double? = null
-    private var headingDegrees: Double? = null
-    private var ttffSeconds: Long? = null
+    private var lastProviderCheckElapsedNanos = 0L
+    private var lastNotificationUpdateTime = 0L
+    private val startUpdatesScheduled = AtomicBoolean(false)
+    private val startUpdatesRunnable =
+        Runnable {
+            startUpdatesScheduled.set(false)
+            startReceivingLocationUpdates()
+        }
+    private val providerCheckRunnable = Runnable { ensureMockProvidersActive() }
+    private val publishScheduled = AtomicBoolean(false)
+    private val publishRunnable =
+        Runnable {
+            // Cleared first, so a fix pushed meanwhile schedules another pass.
+            publishScheduled.set(false)
+            publishLocation()
+        }
+
+    @Volatile
+    private var satelliteBreakdown = SatelliteSignalBreakdown()
+    private var signalScratch = IntArray(64)
+    // -1 until the receiver reports one; primitive so a status frame does not box it.
+    private var ttffSeconds = -1L
     private var apControlEnabled: Boolean? = null
     private var bridgeModeEnabled: Boolean? = null
     private var gpsBaudRate: Int? = null
 
+    // Settings cache state of the current connection; main thread only.
+    private var settingsDeviceAddress: String? = null
+    private var settingsRevision = -1L
+    private var settingsFromCache = false
+
     override fun onCreate() {
         super.onCreate()
         locationManager = getSystemService(Context.LOCATION_SERVICE) as LocationManager
@@ -112,6 +149,7 @@ class GNSSClientService :
         super.onDestroy()
         stopReceivingLocationUpdates()
         stopBleWorkflow()
+        connectionManager?.release()
         connectionManager = null
         handler.removeCallbacksAndMessages(null)
         handler.removeCallbacks(rescanRunnable)
@@ -138,27 +176,44 @@ class GNSSClientService :
 
     fun getGpsBaudRate(): Int? = gpsBaudRate
 
-    fun requestApControlChange(enabled: Boolean): Boolean {
+    /** Round trip over the BLE link in milliseconds, null until the receiver answered a keepalive. */
+    fun getLinkRttMillis(): Long? = connectionManager?.getLinkRttMillis()?.takeIf { it >= 0L }
+
+    /**
+     * Receiver clock minus [android.os.SystemClock.elapsedRealtime] in milliseconds, null while
+     * [getLinkRttMillis] is.
+     */
+    fun getReceiverClockOffsetMillis(): Long? =
+        connectionManager?.takeIf { it.getLinkRttMillis() >= 0L }?.getReceiverClockOffsetMillis()
+
+    /**
+     * Setting changes are made on the main thread and return false when they could not be sent.
+     * A change requested while the previous one is still in flight replaces it; see
+     * [SettingCoalescer]. [callback] runs on the main thread once the receiver confirmed or
+     * refused the change, or the request timed out.
+     */
+    @JvmOverloads
+    fun requestApControlChange(enabled: Boolean, callback: SettingChangeCallback? = null): Boolean {
         if (!isConnected) {
             Log.w(TAG, "requestApControlChange skipped: not connected")
             return false
         }
         val payload = if (enabled) "1" else "0"
-        return connectionManager?.writeCharacteristic(BleUuids.CHAR_AP_CONTROL_UUID, payload)
-            ?: false
+        return requestSettingChange(CharacteristicRole.AP_CONTROL, payload, callback)
     }
 
-    fun requestBridgeModeChange(enabled: Boolean): Boolean {
+    @JvmOverloads
+    fun requestBridgeModeChange(enabled: Boolean, callback: SettingChangeCallback? = null): Boolean {
         if (!isConnected) {
             Log.w(TAG, "requestBridgeModeChange skipped: not connected")
             return false
         }
         val payload = if (enabled) "1" else "0"
-        return connectionManager?.writeCharacteristic(BleUuids.CHAR_MODE_CONTROL_UUID, payload)
-            ?: false
+        return requestSettingChange(CharacteristicRole.MODE_CONTROL, payload, callback)
     }
 
-    fun requestGpsBaudRateChange(baudRate: Int): Boolean {
+    @JvmOverloads
+    fun requestGpsBaudRateChange(baudRate: Int, callback: SettingChangeCallback? = null): Boolean {
         if (!isConnected) {
             Log.w(TAG, "requestGpsBaudRateChange skipped: not connected")
             return false
@@ -168,11 +223,30 @@ class GNSSClientService :
             Log.w(TAG, "GPS baud rate $baudRate clamped to $sanitized")
         }
         val payload = sanitized.toString()
-        return connectionManager?.writeCharacteristic(BleUuids.CHAR_GPS_BAUD_UUID, payload)
-            ?: false
+        return requestSettingChange(CharacteristicRole.GPS_BAUD, payload, callback)
+    }
+
+    private fun requestSettingChange(
+        role: CharacteristicRole,
+        payload: String,
+        callback: SettingChangeCallback?
+    ): Boolean = settingCoalescer.submit(role, payload, callback)
+
+    /** Results are posted to the main thread, where [settingCoalescer] lives. */
+    private fun sendSettingChange(
+        role: CharacteristicRole,
+        payload: String,
+        callback: SettingChangeCallback
+    ): Boolean {
+        val mainThreadCallback =
+            SettingChangeCallback { success, value ->
+                handler.post { callback.onSettingChangeResult(success, value) }
+            }
+        return connectionManager?.requestSettingChange(role, payload, mainThreadCallback) ?: false
     }
 
     fun refreshDeviceSettings() {
+        settingsFromCache = false
         requestDeviceSettingsRead()
     }
 
@@ -288,11 +362,14 @@ class GNSSClientService :
                 registeredProviders.remove(provider)
             }
         }
+        activeProviders = registeredProviders.toList()
         mockProvidersConfigured.set(registeredProviders.isNotEmpty())
         return anyEnabled
     }
 
     private fun disableTestProviders() {
+        // Unpublished first, so the ingest thread stops pushing before they are disabled.
+        activeProviders = emptyList()
         registeredProviders.forEach { provider ->
             runCatching { locationManager.setTestProviderEnabled(provider, false) }
         }
@@ -329,6 +406,7 @@ class GNSSClientService :
             runCatching { locationManager.setTestProviderEnabled(provider, true) }
         return if (enableResult.isSuccess) {
             registeredProviders.add(provider)
+            activeProviders = registeredProviders.toList()
             true
         } else {
             val reason = enableResult.exceptionOrNull()?.message ?: "unknown error"
@@ -338,194 +416,156 @@ class GNSSClientService :
         }
     }
 
-    private fun handleLocationUpdate(latitude: Double, longitude: Double) {
+    /**
+     * Ingest thread: pushes one fix to the mock providers. Live fixes go through the rate
+     * limiter; batched fixes carry their own [ageNanos] and are only dropped when older than
+     * the last push.
+     *
+     * Runs for every fix, so it reuses its `Location` objects and keeps log formatting behind
+     * [Log.isLoggable]. Provider setup, the broadcast and the notification are posted to the
+     * main thread, at most one pending pass each.
+     */
+    private fun handleLocationUpdate(
+        latitude: Double,
+        longitude: Double,
+        ageNanos: Long = 0L,
+        rateLimited: Boolean = true
+    ) {
         if (!isReceivingUpdates.get()) {
-            startReceivingLocationUpdates()
-            if (!isReceivingUpdates.get()) {
-                return
+            if (startUpdatesScheduled.compareAndSet(false, true)) {
+                handler.post(startUpdatesRunnable)
             }
+            return
         }
 
-        ensureMockProvidersActive()
+        val nowElapsedNanos = SystemClock.elapsedRealtimeNanos()
+        if (nowElapsedNanos - lastProviderCheckElapsedNanos >= PROVIDER_CHECK_INTERVAL_NS) {
+            lastProviderCheckElapsedNanos = nowElapsedNanos
+            handler.post(providerCheckRunnable)
+        }
 
         val now = System.currentTimeMillis()
-        if (lastUpdateTime > 0 && now - lastUpdateTime < 200) {
-            Log.v(TAG, "Skipping mock update due to rate limit: ${now - lastUpdateTime}ms since last")
+        val previousUpdateTime = fixComposer.lastTimeMillis
+        val result =
+            fixComposer.compose(latitude, longitude, now, nowElapsedNanos, ageNanos, rateLimited)
+        if (result != MockFixComposer.RESULT_PUSH) {
+            if (Log.isLoggable(TAG, Log.VERBOSE)) {
+                Log.v(TAG, "Skipping mock update (result=$result, ${now - previousUpdateTime}ms since last)")
+            }
             return
         }
-
-        if (lastUpdateTime > 0L) {
-            Log.d(TAG, "handleLocationUpdate deltaMillis=${now - lastUpdateTime}")
-        } else {
-            Log.d(TAG, "handleLocationUpdate first update")
+        val fix = fixComposer.fix
+        if (Log.isLoggable(TAG, Log.DEBUG)) {
+            Log.d(
+                TAG,
+                "Resolved location data deltaMillis=${fix.timeMillis - previousUpdateTime} accuracy=${fix.accuracy} altitude=${fix.altitude} speed=${fix.speed} hdop=${fixComposer.hdop}"
+            )
         }
 
-        val timestamp = now
-        val elapsedNanos =
-            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR1) {
-                SystemClock.elapsedRealtimeNanos()
-            } else {
-                0L
-            }
-
-        val accuracy = computeAccuracyMeters()
-        val altitude = resolveAltitudeMeters()
-        val speed = resolveSpeedMetersPerSecond(latitude, longitude, timestamp)
-        Log.d(
-            TAG,
-            "Resolved location data accuracy=$accuracy altitude=${altitude ?: "n/a"} speed=${speed ?: "n/a"} hdop=$hdop"
-        )
-
-        val baseLocation = Location(LocationManager.GPS_PROVIDER).apply {
-            this.latitude = latitude
-            this.longitude = longitude
-            this.time = timestamp
-            this.accuracy = accuracy
-            if (altitude != null) {
-                this.altitude = altitude
-            }
-            if (speed != null) {
-                this.speed = speed.toFloat()
-            }
-            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR1) {
-                this.elapsedRealtimeNanos = elapsedNanos
-            }
-            // Do not set bearing – BLE heading is not forwarded to Android location.
-        }
-
-        val providers = registeredProviders.ifEmpty { providerCandidates }
-        providers.forEach { provider ->
-            val providerLocation = Location(provider).apply {
-                this.latitude = baseLocation.latitude
-                this.longitude = baseLocation.longitude
-                this.accuracy = baseLocation.accuracy
-                this.time = baseLocation.time
-                if (baseLocation.hasAltitude()) {
-                    this.altitude = baseLocation.altitude
-                }
-                if (baseLocation.hasSpeed()) {
-                    this.speed = baseLocation.speed
-                }
-                if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR1) {
-                    this.elapsedRealtimeNanos = baseLocation.elapsedRealtimeNanos
-                }
-            }
-            handler.post {
-                try {
-                    locationManager.setTestProviderLocation(provider, providerLocation)
-                    Log.d(
-                        TAG,
-                        "Mock location sent to $provider lat=${providerLocation.latitude} lon=${providerLocation.longitude}"
-                    )
-                } catch (error: IllegalArgumentException) {
-                    if (error.message?.contains("not a test provider") == true) {
-                        Log.w(TAG, "Provider $provider reverted to real source, re-enabling mock")
-                        registerTestProvider(provider)
-                    } else {
-                        Log.e(TAG, "Failed to push mock location to $provider", error)
-                    }
-                } catch (error: Exception) {
-                    Log.e(TAG, "Unexpected mock push error for provider $provider", error)
-                }
-            }
+        val baseLocation = lastLocation
+        synchronized(baseLocation) {
+            applyFix(baseLocation, LocationManager.GPS_PROVIDER, fix)
+        }
+        val providers = activeProviders.ifEmpty { providerCandidates }
+        for (index in providers.indices) {
+            val provider = providers[index]
+            val providerLocation = providerLocations.getOrPut(provider) { Location(provider) }
+            applyFix(providerLocation, provider, fix)
+            pushMockLocation(provider, providerLocation)
         }
 
-        lastReceivedLocation = baseLocation
-        lastUpdateTime = timestamp
-        lastCoordinatesTimestamp = timestamp
-        lastProvider = providers.firstOrNull()
-
-        val satelliteBreakdown = computeSatelliteSignalBreakdown()
-        val satellites = satelliteBreakdown.total
-        val locationAge = 0f
+        hasLastLocation = true
+        lastUpdateTime = fix.timeMillis
+        lastCoordinatesTimestamp = fix.timeMillis
 
-        broadcastLocation(baseLocation, satellites, lastProvider, locationAge, satelliteBreakdown)
-        updateNotification()
-        Log.d(
-            TAG,
-            "Location broadcast lat=${baseLocation.latitude} lon=${baseLocation.longitude} accuracy=${baseLocation.accuracy} satellites=$satellites providers=${providers.joinToString()}"
-        )
+        if (publishScheduled.compareAndSet(false, true)) {
+            handler.post(publishRunnable)
+        }
     }
 
-    private fun computeAccuracyMeters(): Float {
-        val hdopValue =
-            hdop?.takeIf { !it.isNaN() && !it.isInfinite() && it > 0.0 } ?: DEFAULT_HDOP_FALLBACK
-        val accuracy = (hdopValue * HDOP_TO_ACCURACY_METERS).toFloat()
-        return accuracy.coerceIn(MIN_ACCURACY_METERS, MAX_ACCURACY_METERS)
+    /** Main thread: shows the latest pushed fix in the UI and, now and then, the notification. */
+    private fun publishLocation() {
+        if (!hasLastLocation) return
+        val location = publishedLocation
+        synchronized(lastLocation) { location.set(lastLocation) }
+        val breakdown = satelliteBreakdown
+        broadcastLocation(location, breakdown.total, activeProviders.firstOrNull(), 0f, breakdown)
+        if (System.currentTimeMillis() - lastNotificationUpdateTime >= NOTIFICATION_UPDATE_INTERVAL_MS) {
+            updateNotification()
+        }
     }
 
-    private fun resolveAltitudeMeters(): Double? {
-        val altitudeFromBle = altitudeMeters
-        if (altitudeFromBle != null &&
-            !altitudeFromBle.isNaN() &&
-            !altitudeFromBle.isInfinite()
-        ) {
-            return altitudeFromBle
+    private fun applyFix(location: Location, provider: String, fix: MockFix) {
+        location.reset()
+        location.provider = provider
+        location.latitude = fix.latitude
+        location.longitude = fix.longitude
+        location.time = fix.timeMillis
+        location.elapsedRealtimeNanos = fix.elapsedRealtimeNanos
+        location.accuracy = fix.accuracy
+        if (!fix.altitude.isNaN()) {
+            location.altitude = fix.altitude
+        }
+        if (!fix.speed.isNaN()) {
+            location.speed = fix.speed.toFloat()
+        }
+        if (!fix.verticalAccuracy.isNaN()) {
+            location.verticalAccuracyMeters = fix.verticalAccuracy
         }
-        return lastReceivedLocation?.takeIf { it.hasAltitude() }?.altitude
+        if (!fix.speedAccuracy.isNaN()) {
+            location.speedAccuracyMetersPerSecond = fix.speedAccuracy
+        }
+        // Do not set bearing – BLE heading is not forwarded to Android location.
     }
 
-    private fun resolveSpeedMetersPerSecond(
-        latitude: Double,
-        longitude: Double,
-        timestampMillis: Long
-    ): Double? {
-        val direct =
-            speedMetersPerSecond?.takeIf {
-                !it.isNaN() && !it.isInfinite() && it >= 0.0
+    /**
+     * setTestProviderLocation copies the location synchronously, so the reused object can be
+     * refilled for the next fix as soon as this returns.
+     */
+    private fun pushMockLocation(provider: String, location: Location) {
+        try {
+            locationManager.setTestProviderLocation(provider, location)
+            if (Log.isLoggable(TAG, Log.DEBUG)) {
+                Log.d(TAG, "Mock location sent to $provider lat=${location.latitude} lon=${location.longitude}")
             }
-        if (direct != null) {
-            return direct
-        }
-        val previous = lastReceivedLocation ?: return null
-        val previousTimestamp = lastCoordinatesTimestamp
-        if (previousTimestamp <= 0L) {
-            return null
-        }
-        val deltaSeconds = (timestampMillis - previousTimestamp) / 1000.0
-        if (deltaSeconds <= 0.0) {
-            return null
-        }
-        val results = FloatArray(1)
-        Location.distanceBetween(
-            previous.latitude,
-            previous.longitude,
-            latitude,
-            longitude,
-            results
-        )
-        val distance = results[0].toDouble()
-        if (distance < MIN_MOVEMENT_THRESHOLD_METERS) {
-            return 0.0
+        } catch (error: IllegalArgumentException) {
+            if (error.message?.contains("not a test provider") == true) {
+                Log.w(TAG, "Provider $provider reverted to real source, re-enabling mock")
+                handler.post { registerTestProvider(provider) }
+            } else {
+                Log.e(TAG, "Failed to push mock location to $provider", error)
+            }
+        } catch (error: Exception) {
+            Log.e(TAG, "Unexpected mock push error for provider $provider", error)
         }
-        return (distance / deltaSeconds).takeIf { it.isFinite() && it >= 0.0 }
     }
 
-    private fun computeSatelliteSignalBreakdown(): SatelliteSignalBreakdown {
-        val rawLevels = signalLevels?.takeIf { it.isNotBlank() } ?: return SatelliteSignalBreakdown()
+    private fun computeSatelliteSignalBreakdown(
+        levels: IntArray,
+        count: Int
+    ): SatelliteSignalBreakdown {
         var strong = 0
         var medium = 0
         var weak = 0
-        rawLevels.split(',')
-            .map { it.trim() }
-            .forEach { token ->
-                val value = token.toIntOrNull() ?: return@forEach
-                when {
-                    value >= SATELLITE_SIGNAL_STRONG_THRESHOLD -> strong++
-                    value >= SATELLITE_SIGNAL_MEDIUM_THRESHOLD -> medium++
-                    value > 0 -> {
-                        when {
-                            value >= 3 -> strong++
-                            value == 2 -> medium++
-                            value == 1 -> weak++
-                            else -> weak++
-                        }
+        for (index in 0 until count) {
+            val value = levels[index]
+            when {
+                value >= SATELLITE_SIGNAL_STRONG_THRESHOLD -> strong++
+                value >= SATELLITE_SIGNAL_MEDIUM_THRESHOLD -> medium++
+                value > 0 -> {
+                    when {
+                        value >= 3 -> strong++
+                        value == 2 -> medium++
+                        value == 1 -> weak++
+                        else -> weak++
                     }
                 }
             }
+        }
         return SatelliteSignalBreakdown(strong, medium, weak)
     }
 
+    /** Main thread; reuses [locationIntent]: sendBroadcast parcels the extras before it returns. */
     private fun broadcastLocation(
         location: Location,
         satellites: Int,
@@ -534,7 +574,7 @@ class GNSSClientService :
         signalBreakdown: SatelliteSignalBreakdown
     ) {
         val intent =
-            Intent(ACTION_LOCATION_UPDATE).apply {
+            locationIntent.apply {
                 putExtra(EXTRA_LOCATION, location)
                 putExtra(EXTRA_SATELLITES, satellites)
                 putExtra(EXTRA_PROVIDER, provider ?: location.provider)
@@ -575,6 +615,7 @@ class GNSSClientService :
     }
 
     private fun updateNotification() {
+        lastNotificationUpdateTime = System.currentTimeMillis()
         val ageSeconds =
             if (lastUpdateTime > 0) {
                 (System.currentTimeMillis() - lastUpdateTime) / 1000.0
@@ -590,35 +631,66 @@ class GNSSClientService :
         notificationManager.notify(NotificationUtils.NOTIFICATION_ID, notification)
     }
 
-    private fun requestDeviceSettingsRead() {
-        if (!isConnected) {
-            Log.d(TAG, "Skipping device settings read: BLE not connected")
+    /**
+     * Shows the cached settings of [address] right away. A fresh, complete entry replaces the
+     * reads after service discovery; the settings revision in the next status frame then
+     * decides whether they are still current.
+     */
+    private fun restoreDeviceSettings(address: String) {
+        val cached = AppPrefs.getDeviceSettings(this, address)
+        if (cached == null || !cached.isComplete() || !cached.isFresh(System.currentTimeMillis())) {
+            settingsFromCache = false
+            settingsRevision = -1L
             return
         }
-        readDeviceSetting(BleUuids.CHAR_AP_CONTROL_UUID)
-        handler.postDelayed(
-            { readDeviceSetting(BleUuids.CHAR_MODE_CONTROL_UUID) },
-            200
-        )
-        handler.postDelayed(
-            { readDeviceSetting(BleUuids.CHAR_GPS_BAUD_UUID) },
-            400
+        apControlEnabled = cached.apControl
+        bridgeModeEnabled = cached.bridgeMode
+        gpsBaudRate = cached.gpsBaudRate
+        settingsRevision = cached.configRevision
+        settingsFromCache = true
+        Log.i(TAG, "Restored cached settings for $address (revision ${cached.configRevision})")
+    }
+
+    private fun handleConfigRevision(revision: Long) {
+        if (!isConnected || revision == settingsRevision) return
+        val known = settingsRevision
+        settingsRevision = revision
+        if (known < 0L && !settingsFromCache) {
+            // Values read on this connection; from now on they are tied to this revision.
+            saveDeviceSettings()
+            return
+        }
+        Log.i(TAG, "Receiver settings revision changed $known -> $revision, reading settings")
+        settingsFromCache = false
+        requestDeviceSettingsRead()
+    }
+
+    private fun saveDeviceSettings() {
+        val address = settingsDeviceAddress ?: return
+        AppPrefs.setDeviceSettings(
+            this,
+            address,
+            DeviceSettingsSnapshot(
+                apControlEnabled,
+                bridgeModeEnabled,
+                gpsBaudRate,
+                settingsRevision,
+                System.currentTimeMillis()
+            )
         )
     }
 
-    private fun readDeviceSetting(uuid: UUID, attempt: Int = 0) {
-        val manager = connectionManager ?: return
+    private fun requestDeviceSettingsRead() {
         if (!isConnected) {
+            Log.d(TAG, "Skipping device settings read: BLE not connected")
             return
         }
-        val success = manager.readCharacteristic(uuid)
-        if (!success && attempt < DEVICE_SETTING_READ_RETRY_MAX) {
-            handler.postDelayed(
-                { readDeviceSetting(uuid, attempt + 1) },
-                DEVICE_SETTING_READ_RETRY_DELAY_MS
-            )
-        } else if (!success) {
-            Log.w(TAG, "Failed to read $uuid after ${attempt + 1} attempts")
+        // Serialized by the connection manager's GATT queue; no spacing needed here.
+        val manager = connectionManager ?: return
+        for (uuid in DEVICE_SETTING_UUIDS) {
+            if (!manager.readCharacteristic(uuid)) {
+                Log.w(TAG, "Failed to queue read of $uuid")
+            }
         }
     }
 
@@ -634,7 +706,9 @@ class GNSSClientService :
 
     fun isConnectedToServer(): Boolean = isConnected
 
-    fun getLastReceivedLocation(): Location? = lastReceivedLocation
+    /** A copy: the service refills its own location object on every fix. */
+    fun getLastReceivedLocation(): Location? =
+        if (hasLastLocation) synchronized(lastLocation) { Location(lastLocation) } else null
 
     fun getLastUpdateTime(): Long = lastUpdateTime
 
@@ -673,7 +747,21 @@ class GNSSClientService :
         broadcastConnectionState(false)
     }
 
+    // Connection events come from GATT binder threads and setting values from the ingest
+    // thread; both are handled on the main thread with the rest of the service state.
     override fun onConnected(device: BluetoothDevice) {
+        handler.post { handleConnected(device) }
+    }
+
+    override fun onDisconnected(device: BluetoothDevice) {
+        handler.post { handleDisconnected(device) }
+    }
+
+    override fun onServicesDiscovered(device: BluetoothDevice) {
+        handler.post { handleServicesDiscovered(device) }
+    }
+
+    private fun handleConnected(device: BluetoothDevice) {
         Log.i(TAG, "Connected to BLE device ${device.address}")
         isConnected = true
         handler.removeCallbacks(rescanRunnable)
@@ -685,12 +773,13 @@ class GNSSClientService :
         connectionManager?.pollTelemetry()
         startReceivingLocationUpdates()
         broadcastConnectionState(true)
+        settingsDeviceAddress = device.address
+        restoreDeviceSettings(device.address)
         broadcastDeviceSettings()
-        requestDeviceSettingsRead()
         updateNotification()
     }
 
-    override fun onDisconnected(device: BluetoothDevice) {
+    private fun handleDisconnected(device: BluetoothDevice) {
         Log.i(TAG, "Disconnected from BLE device ${device.address}")
         isConnected = false
         wakeLock?.let {
@@ -703,6 +792,9 @@ class GNSSClientService :
         apControlEnabled = null
         bridgeModeEnabled = null
         gpsBaudRate = null
+        settingsDeviceAddress = null
+        settingsRevision = -1L
+        settingsFromCache = false
         broadcastDeviceSettings()
         updateNotification()
         if (AppPrefs.isMockEnabled(this)) {
@@ -710,53 +802,106 @@ class GNSSClientService :
         }
     }
 
-    override fun onServicesDiscovered(device: BluetoothDevice) {
+    private fun handleServicesDiscovered(device: BluetoothDevice) {
         Log.d(TAG, "Services discovered on ${device.address}")
         connectionManager?.startKeepAlive()
-        requestDeviceSettingsRead()
+        if (settingsFromCache) {
+            Log.i(TAG, "Using cached settings for ${device.address}, skipping reads")
+        } else {
+            requestDeviceSettingsRead()
+        }
     }
 
     override fun onError(message: String) {
         Log.e(TAG, "BLE error: $message")
     }
 
+    override fun onFix(fix: GnssFix) {
+        fixComposer.update(fix, SystemClock.elapsedRealtimeNanos())
+        if (fix.batched) {
+            onBatchedCoordinatesReceived(fix.latitude, fix.longitude, fix.ageNanos)
+        } else {
+            onCoordinatesReceived(fix.latitude, fix.longitude)
+        }
+    }
+
     override fun onCoordinatesReceived(latitude: Double, longitude: Double) {
-        val currentMillis = System.currentTimeMillis()
-        val deltaMillis =
-            if (lastCoordinatesTimestamp > 0L) {
-                currentMillis - lastCoordinatesTimestamp
-            } else {
-                null
-            }
-        Log.d(
-            TAG,
-            "BLE coordinates lat=$latitude lon=$longitude deltaMillis=${deltaMillis ?: "n/a"}"
-        )
+        if (Log.isLoggable(TAG, Log.DEBUG)) {
+            val deltaMillis =
+                if (lastCoordinatesTimestamp > 0L) {
+                    System.currentTimeMillis() - lastCoordinatesTimestamp
+                } else {
+                    null
+                }
+            Log.d(
+                TAG,
+                "BLE coordinates lat=$latitude lon=$longitude deltaMillis=${deltaMillis ?: "n/a"}"
+            )
+        }
         handleLocationUpdate(latitude, longitude)
     }
 
+    override fun onBatchedCoordinatesReceived(latitude: Double, longitude: Double, ageNanos: Long) {
+        handleLocationUpdate(latitude, longitude, ageNanos, rateLimited = false)
+    }
+
     override fun onFixStatusReceived(status: String) {
         Log.d(TAG, "Fix status: $status")
     }
 
+    override fun onFixStatusReceived(fix: Int, type: Int) {
+        if (Log.isLoggable(TAG, Log.DEBUG)) {
+            Log.d(TAG, "Fix status: $fix,$type")
+        }
+    }
+
     override fun onHdopReceived(hdop: Double) {
-        this.hdop = hdop
+        fixComposer.hdop = hdop
+    }
+
+    override fun onVdopReceived(vdop: Double) {
+        fixComposer.vdop = vdop
+    }
+
+    override fun onAccuracyReceived(
+        horizontalMeters: Double,
+        verticalMeters: Double,
+        speedMetersPerSecond: Double
+    ) {
+        fixComposer.setMeasuredAccuracy(
+            horizontalMeters,
+            verticalMeters,
+            speedMetersPerSecond,
+            SystemClock.elapsedRealtimeNanos()
+        )
     }
 
     override fun onSignalLevelsReceived(levels: String) {
-        signalLevels = levels
+        var count = 0
+        levels.split(',').forEach { token ->
+            val value = token.trim().toIntOrNull() ?: return@forEach
+            if (count == signalScratch.size) {
+                signalScratch = signalScratch.copyOf(count * 2)
+            }
+            signalScratch[count++] = value
+        }
+        onSignalLevelsReceived(signalScratch, count)
+    }
+
+    override fun onSignalLevelsReceived(levels: IntArray, count: Int) {
+        satelliteBreakdown = computeSatelliteSignalBreakdown(levels, count)
     }
 
     override fun onAltitudeReceived(altitudeMeters: Double) {
-        this.altitudeMeters = altitudeMeters
+        fixComposer.altitude = altitudeMeters
     }
 
     override fun onSpeedReceived(speedMetersPerSecond: Double) {
-        this.speedMetersPerSecond = speedMetersPerSecond
+        fixComposer.speed = speedMetersPerSecond
     }
 
     override fun onHeadingReceived(headingDegrees: Double) {
-        this.headingDegrees = headingDegrees
+        // Not forwarded: the mock locations carry no bearing.
     }
 
     override fun onDeviceStatusReceived(status: String) {
@@ -764,24 +909,38 @@ class GNSSClientService :
     }
 
     override fun onApControlChanged(enabled: Boolean) {
+        handler.post { handleApControlChanged(enabled) }
+    }
+
+    override fun onBridgeModeChanged(enabled: Boolean) {
+        handler.post { handleBridgeModeChanged(enabled) }
+    }
+
+    override fun onGpsBaudRateChanged(baudRate: Int) {
+        handler.post { handleGpsBaudRateChanged(baudRate) }
+    }
+
+    private fun handleApControlChanged(enabled: Boolean) {
         val previous = apControlEnabled
         apControlEnabled = enabled
         if (previous != enabled) {
             Log.i(TAG, "AP control state updated to $enabled")
+            saveDeviceSettings()
         }
         broadcastDeviceSettings()
     }
 
-    override fun onBridgeModeChanged(enabled: Boolean) {
+    private fun handleBridgeModeChanged(enabled: Boolean) {
         val previous = bridgeModeEnabled
         bridgeModeEnabled = enabled
         if (previous != enabled) {
             Log.i(TAG, "Bridge mode state updated to $enabled")
+            saveDeviceSettings()
         }
         broadcastDeviceSettings()
     }
 
-    override fun onGpsBaudRateChanged(baudRate: Int) {
+    private fun handleGpsBaudRateChanged(baudRate: Int) {
         val sanitized = baudRate.coerceIn(GPS_BAUD_MIN, GPS_BAUD_MAX)
         val previous = gpsBaudRate
         gpsBaudRate = sanitized
@@ -791,6 +950,7 @@ class GNSSClientService :
             } else {
                 Log.i(TAG, "GPS baud rate updated to $sanitized")
             }
+            saveDeviceSettings()
             broadcastDeviceSettings()
         } else if (previous == null) {
             broadcastDeviceSettings()
@@ -800,6 +960,10 @@ class GNSSClientService :
     override fun onTtffReceived(ttffSeconds: Long) {
         this.ttffSeconds = ttffSeconds
     }
+
+    override fun onConfigRevisionReceived(revision: Long) {
+        handler.post { handleConfigRevision(revision) }
+    }
     // endregion
 
     companion object {
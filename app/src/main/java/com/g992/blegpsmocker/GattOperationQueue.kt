@@ -0,0 +1,247 @@
+package com.g992.blegpsmocker
+
+import java.util.ArrayDeque
+
+/**
+ * One GATT request: a CCCD subscription, a characteristic write or a read on the
+ * characteristic in [role]'s slot. [completion] runs once with the GATT status, or with one
+ * of the negative STATUS_* codes when the operation never completed on the link. A completed
+ * read carries the value it returned in [result]. [generation] tags each start on the link,
+ * so logs and the queue tell one attempt from the next of the same kind and role.
+ */
+internal class GattOperation(
+    val kind: Int,
+    val role: CharacteristicRole,
+    val lane: GattOperationQueue.Lane,
+    val payload: ByteArray? = null,
+    val timeoutMillis: Long = DEFAULT_TIMEOUT_MS,
+    val completion: Completion? = null
+) {
+    fun interface Completion {
+        fun onComplete(operation: GattOperation, status: Int)
+    }
+
+    var startAttempts = 0
+
+    var generation = 0L
+
+    var result: ByteArray? = null
+
+    fun matches(kind: Int, role: CharacteristicRole): Boolean =
+        this.kind == kind && this.role == role
+
+    override fun toString(): String = "${kindName(kind)} $role #$generation"
+
+    companion object {
+        const val KIND_SUBSCRIBE = 0
+        const val KIND_WRITE = 1
+        const val KIND_READ = 2
+
+        const val STATUS_SUCCESS = 0
+        const val STATUS_TIMEOUT = -1
+        const val STATUS_NOT_STARTED = -2
+        const val STATUS_CANCELLED = -3
+
+        const val DEFAULT_TIMEOUT_MS = 2_000L
+
+        fun kindName(kind: Int): String =
+            when (kind) {
+                KIND_SUBSCRIBE -> "subscribe"
+                KIND_WRITE -> "write"
+                else -> "read"
+            }
+    }
+}
+
+/**
+ * Serializes GATT operations: Android runs one at a time and rejects a second request while
+ * one is outstanding. Operations wait in priority [Lane]s and start as soon as the previous
+ * one completes. Completion comes from [complete] (the descriptor write, read and write
+ * callbacks) or from its timeout, so setup runs as fast as the link allows instead of on
+ * fixed delays.
+ *
+ * A request the stack refuses to start is retried a few times after a short delay, since a
+ * timed-out operation can keep the stack busy for a moment. Reads and keepalive writes are
+ * coalesced: queuing one that is already waiting returns false and leaves the queue as is.
+ *
+ * The link's callbacks carry no request id, so a timed-out operation stays owed: the stack
+ * may still answer it after the next one has started. The first matching callback within
+ * the expired operation's timeout is taken as that late answer and ignored, instead of
+ * completing a following operation of the same kind and role. Any other callback settles the
+ * debt, since the stack answers requests in order.
+ *
+ * Thread-safe. [Starter] runs under the queue lock and must not block; completions run
+ * outside it and may enqueue further operations.
+ */
+internal class GattOperationQueue(
+    private val starter: Starter,
+    private val scheduler: Scheduler
+) {
+    /** Priority order: subscriptions, then control writes, then reads, then keepalive. */
+    enum class Lane {
+        SUBSCRIPTION,
+        CONTROL,
+        READ,
+        KEEPALIVE
+    }
+
+    fun interface Starter {
+        /** Issues [operation] on the link; false when the stack refused it. */
+        fun start(operation: GattOperation): Boolean
+    }
+
+    interface Scheduler {
+        fun uptimeMillis(): Long
+        fun schedule(task: Runnable, delayMillis: Long)
+        fun cancel(task: Runnable)
+    }
+
+    private val lock = Any()
+    private val lanes = Array(Lane.entries.size) { ArrayDeque<GattOperation>() }
+    private var current: GattOperation? = null
+    private var currentStartedAt = 0L
+    private var nextGeneration = 0L
+    // Timed out on our side; the link may still answer it once.
+    private var owed: GattOperation? = null
+    private var owedUntil = 0L
+    private var retryPending = false
+
+    private val timeoutTask = Runnable { checkTimeout() }
+    private val retryTask =
+        Runnable {
+            synchronized(lock) { retryPending = false }
+            advance()
+        }
+
+    /** Returns false when an equivalent coalescable operation is already waiting. */
+    fun enqueue(operation: GattOperation): Boolean {
+        synchronized(lock) {
+            val lane = lanes[operation.lane.ordinal]
+            if (isCoalesced(operation.lane)) {
+                for (queued in lane) {
+                    if (queued.matches(operation.kind, operation.role)) return false
+                }
+            }
+            lane.addLast(operation)
+        }
+        advance()
+        return true
+    }
+
+    /**
+     * Reports the link's completion of a [kind] operation on [role], with a read's [value].
+     * Returns false when the callback completed nothing, such as the late answer to an
+     * operation that already timed out.
+     */
+    fun complete(kind: Int, role: CharacteristicRole, status: Int, value: ByteArray? = null): Boolean {
+        val finished: GattOperation
+        synchronized(lock) {
+            val late = owed
+            if (late != null) {
+                owed = null
+                if (late.matches(kind, role) && scheduler.uptimeMillis() < owedUntil) {
+                    lateCallbacks++
+                    return false
+                }
+            }
+            val operation = current ?: return false
+            // Completions of requests issued outside the queue are not ours to consume.
+            if (!operation.matches(kind, role)) return false
+            current = null
+            scheduler.cancel(timeoutTask)
+            finished = operation
+        }
+        finished.result = value
+        finished.completion?.onComplete(finished, status)
+        advance()
+        return true
+    }
+
+    /** Drops the running and all waiting operations, reporting STATUS_CANCELLED. */
+    fun clear() {
+        val cancelled = ArrayList<GattOperation>()
+        synchronized(lock) {
+            current?.let { cancelled.add(it) }
+            current = null
+            owed = null
+            for (lane in lanes) {
+                cancelled.addAll(lane)
+                lane.clear()
+            }
+            retryPending = false
+            scheduler.cancel(timeoutTask)
+            scheduler.cancel(retryTask)
+        }
+        for (operation in cancelled) {
+            operation.completion?.onComplete(operation, GattOperation.STATUS_CANCELLED)
+        }
+    }
+
+    val pendingCount: Int
+        get() = synchronized(lock) { lanes.sumOf { it.size } + if (current != null) 1 else 0 }
+
+    /** Callbacks ignored as late answers to timed-out operations. */
+    @Volatile
+    var lateCallbacks = 0L
+        private set
+
+    private fun advance() {
+        while (true) {
+            val rejected: GattOperation
+            synchronized(lock) {
+                if (current != null || retryPending) return
+                val operation = pollNext() ?: return
+                operation.startAttempts++
+                operation.generation = ++nextGeneration
+                if (starter.start(operation)) {
+                    current = operation
+                    currentStartedAt = scheduler.uptimeMillis()
+                    scheduler.schedule(timeoutTask, operation.timeoutMillis)
+                    return
+                }
+                if (operation.startAttempts < MAX_START_ATTEMPTS) {
+                    lanes[operation.lane.ordinal].addFirst(operation)
+                    retryPending = true
+                    scheduler.schedule(retryTask, START_RETRY_DELAY_MS)
+                    return
+                }
+                rejected = operation
+            }
+            rejected.completion?.onComplete(rejected, GattOperation.STATUS_NOT_STARTED)
+        }
+    }
+
+    private fun checkTimeout() {
+        val expired: GattOperation
+        synchronized(lock) {
+            val operation = current ?: return
+            // A timeout posted for an earlier operation can still fire after it completed.
+            val remaining = currentStartedAt + operation.timeoutMillis - scheduler.uptimeMillis()
+            if (remaining > 0L) {
+                scheduler.schedule(timeoutTask, remaining)
+                return
+            }
+            current = null
+            owed = operation
+            owedUntil = scheduler.uptimeMillis() + operation.timeoutMillis
+            expired = operation
+        }
+        expired.completion?.onComplete(expired, GattOperation.STATUS_TIMEOUT)
+        advance()
+    }
+
+    private fun pollNext(): GattOperation? {
+        for (lane in lanes) {
+            val operation = lane.pollFirst()
+            if (operation != null) return operation
+        }
+        return null
+    }
+
+    private fun isCoalesced(lane: Lane): Boolean = lane == Lane.READ || lane == Lane.KEEPALIVE
+
+    companion object {
+        private const val MAX_START_ATTEMPTS = 3
+        private const val START_RETRY_DELAY_MS = 50L
+    }
+}
@@ -0,0 +1,604 @@
+package com.g992.blegpsmocker
+
+/**
+ * Link side of one receiver connection on a [GattTransport]: MTU, connection priority and PHY,
+ * subscriptions, the operation queue, settings RPC and the keepalive loop. Values worth
+ * decoding go to [Events.onValue]; decoding stays with the owner.
+ *
+ * Transport callbacks may arrive on any thread. Setup steps, queue timeouts and keepalive
+ * checks run on [scheduler]'s thread.
+ */
+internal class GattSession(
+    private val transport: GattTransport,
+    private val scheduler: GattOperationQueue.Scheduler,
+    private val clock: Clock,
+    private val logger: Logger,
+    fixRateHz: Int,
+    private val events: Events
+) {
+    /** Phone time for link clock samples, in [android.os.SystemClock.elapsedRealtime] millis. */
+    fun interface Clock {
+        fun elapsedRealtimeMillis(): Long
+    }
+
+    interface Events {
+        fun onConnected()
+
+        /** Services are resolved and the subscriptions are queued. */
+        fun onServicesReady(profile: ReceiverProfile)
+        fun onDisconnected()
+
+        /** A read result, write echo or notification to decode; keepalive answers excluded. */
+        fun onValue(role: CharacteristicRole, data: ByteArray)
+
+        /** A setting the receiver confirmed over RPC; runs on the thread of [onRpcResponse]. */
+        fun onSettingApplied(role: CharacteristicRole, data: ByteArray, offset: Int, length: Int)
+        fun onError(message: String)
+    }
+
+    private val tag = "GattSession"
+    private val gattQueue =
+        GattOperationQueue(
+            GattOperationQueue.Starter { operation -> startOperation(operation) },
+            scheduler
+        )
+    private val settingsRpc = SettingsRpc(scheduler)
+    private val settingAppliedListener =
+        SettingsRpc.ResponseListener { key, data, offset, length ->
+            val role = settingRole(key)
+            if (key == RPC_KEY_PAYLOAD) {
+                logger.d(tag, "Receiver acknowledged payload budget")
+            } else if (role == null) {
+                logger.w(tag, "RPC response for unknown setting '$key'")
+            } else {
+                events.onSettingApplied(role, data, offset, length)
+            }
+        }
+    private val keepAlivePolicy = KeepAlivePolicy(KEEPALIVE_MIN_INTERVAL_MS, KEEPALIVE_MAX_INTERVAL_MS)
+    private val linkClock = LinkClockEstimator()
+    private var keepAliveRunnable: Runnable? = null
+    private var keepAliveFailCount = 0
+    private val keepAliveCompletion =
+        GattOperation.Completion { _, status ->
+            keepAlivePolicy.onBeatResult(status == GattOperation.STATUS_SUCCESS)
+            if (status == GattOperation.STATUS_SUCCESS) {
+                keepAliveFailCount = 0
+            } else {
+                keepAliveFailCount += 1
+                logger.w(tag, "Keepalive write failed (status=$status, $keepAliveFailCount in a row)")
+            }
+        }
+
+    @Volatile
+    private var lastInboundAt = 0L
+    @Volatile
+    var profile: ReceiverProfile? = null
+        private set
+    @Volatile
+    var mtu = DEFAULT_ATT_MTU
+        private set
+    @Volatile
+    var txPhy = 0
+        private set
+    @Volatile
+    var rxPhy = 0
+        private set
+    @Volatile
+    var connectionPriority = -1
+        private set
+
+    /** Fix rate the link is tuned for; see [updateFixRate]. */
+    @Volatile
+    var fixRateHz = fixRateHz
+        private set
+
+    private val callback =
+        object : GattTransport.Callback {
+            override fun onConnectionStateChanged(connected: Boolean, status: Int) {
+                if (connected) {
+                    logger.i(tag, "Connected to GATT server at ${transport.address}")
+                    events.onConnected()
+                    scheduler.schedule(
+                        {
+                            tuneLink()
+                            if (!transport.requestMtu(MAX_ATT_MTU)) {
+                                logger.w(tag, "MTU request not started, discovering on the default MTU")
+                                discoverServices()
+                            }
+                        },
+                        0L
+                    )
+                } else {
+                    logger.i(tag, "Disconnected from GATT server at ${transport.address} (status=$status)")
+                    stopKeepAlive()
+                    events.onDisconnected()
+                }
+            }
+
+            override fun onMtuChanged(mtu: Int, status: Int) {
+                if (status == GattTransport.GATT_SUCCESS) {
+                    logger.i(tag, "MTU changed to $mtu")
+                    this@GattSession.mtu = mtu
+                } else {
+                    logger.w(
+                        tag,
+                        "MTU change failed, status: $status, mtu: $mtu; relying on fragmented payloads"
+                    )
+                }
+                scheduler.schedule({ discoverServices() }, 0L)
+            }
+
+            override fun onPhyChanged(txPhy: Int, rxPhy: Int, status: Int) {
+                if (status != GattTransport.GATT_SUCCESS) {
+                    logger.w(tag, "PHY update failed, status: $status")
+                    return
+                }
+                this@GattSession.txPhy = txPhy
+                this@GattSession.rxPhy = rxPhy
+                logger.i(tag, "PHY tx=${phyName(txPhy)}, rx=${phyName(rxPhy)}")
+            }
+
+            override fun onServicesResolved(profile: ReceiverProfile?, status: Int) {
+                if (status != GattTransport.GATT_SUCCESS) {
+                    val message =
+                        "onServicesDiscovered received error: $status for device ${transport.address}"
+                    logger.w(tag, message)
+                    events.onError(message)
+                    return
+                }
+                if (profile == null) {
+                    val message =
+                        "No supported receiver service found (${ReceiverProfiles.ALL.joinToString { it.name }})"
+                    logger.e(tag, message)
+                    events.onError(message)
+                    return
+                }
+                logger.i(tag, "Using receiver profile ${profile.name} on ${transport.address}")
+                this@GattSession.profile = profile
+                subscribe(profile)
+                events.onServicesReady(profile)
+                announcePayloadBudget()
+            }
+
+            override fun onSubscribed(role: CharacteristicRole, status: Int) {
+                if (status != GattTransport.GATT_SUCCESS) {
+                    val message = "Descriptor write failed for $role, status: $status"
+                    logger.e(tag, message)
+                    events.onError(message)
+                }
+                gattQueue.complete(GattOperation.KIND_SUBSCRIBE, role, status)
+            }
+
+            override fun onRead(role: CharacteristicRole, value: ByteArray?, status: Int) {
+                if (status == GattTransport.GATT_SUCCESS && value != null) {
+                    logger.i(tag, "Characteristic read $role: ${value.toString(Charsets.UTF_8)}")
+                    events.onValue(role, value)
+                } else if (status != GattTransport.GATT_SUCCESS) {
+                    val message = "Characteristic read failed for $role, status: $status"
+                    logger.e(tag, message)
+                    events.onError(message)
+                }
+                gattQueue.complete(GattOperation.KIND_READ, role, status, value)
+            }
+
+            override fun onWritten(role: CharacteristicRole, value: ByteArray?, status: Int) {
+                if (status == GattTransport.GATT_SUCCESS) {
+                    logger.i(tag, "Characteristic $role written successfully")
+                    // Neither an RPC request nor a keepalive beat carries state worth parsing
+                    // back; RPC responses arrive as notifications.
+                    if (value != null &&
+                        role != CharacteristicRole.RPC &&
+                        role != CharacteristicRole.KEEPALIVE
+                    ) {
+                        events.onValue(role, value)
+                    }
+                } else {
+                    val message = "Characteristic write failed for $role, status: $status"
+                    logger.e(tag, message)
+                    events.onError(message)
+                }
+                gattQueue.complete(GattOperation.KIND_WRITE, role, status)
+            }
+
+            override fun onNotification(role: CharacteristicRole, value: ByteArray) {
+                if (role == CharacteristicRole.KEEPALIVE) {
+                    // Timed here rather than after decoding, so queueing does not skew the RTT.
+                    // Not counted as traffic: the answer only exists because a beat went out.
+                    if (!linkClock.onResponse(value, 0, value.size, clock.elapsedRealtimeMillis())) {
+                        logger.w(tag, "Rejected keepalive answer (${value.size} bytes)")
+                    }
+                    return
+                }
+                lastInboundAt = scheduler.uptimeMillis()
+                events.onValue(role, value)
+            }
+        }
+
+    val address: String
+        get() = transport.address
+
+    /** Starts connecting; false when the transport could not even begin. */
+    fun connect(): Boolean = transport.connect(callback)
+
+    fun disconnect() {
+        stopKeepAlive()
+        transport.disconnect()
+    }
+
+    /** Fails everything pending and releases the transport; the session is not reusable. */
+    fun close() {
+        stopKeepAlive()
+        gattQueue.clear()
+        settingsRpc.clear()
+        transport.close()
+        profile = null
+        mtu = DEFAULT_ATT_MTU
+        linkClock.reset()
+        txPhy = 0
+        rxPhy = 0
+        connectionPriority = -1
+    }
+
+    /** Whether the resolved service has the characteristic in [role]'s slot. */
+    fun hasCharacteristic(role: CharacteristicRole): Boolean =
+        profile != null && transport.properties(role) != 0
+
+    /** Whether the profile declares [role] readable; reads it does not declare are skipped. */
+    fun isReadable(role: CharacteristicRole): Boolean = profile?.spec(role)?.readable == true
+
+    /** Whether the profile declares [role] writable and the characteristic accepts writes. */
+    fun isWritable(role: CharacteristicRole): Boolean =
+        profile?.spec(role)?.writable == true &&
+            (transport.properties(role) and WRITABLE_PROPERTIES) != 0
+
+    fun properties(role: CharacteristicRole): Int = transport.properties(role)
+
+    /** Queues a read; coalesced with one of the same characteristic that is still waiting. */
+    fun read(role: CharacteristicRole) {
+        if (!isReadable(role)) {
+            logger.w(tag, "read($role) skipped: not readable on this receiver")
+            return
+        }
+        gattQueue.enqueue(
+            GattOperation(GattOperation.KIND_READ, role, GattOperationQueue.Lane.READ)
+        )
+    }
+
+    /** Queues a control write. */
+    fun write(role: CharacteristicRole, payload: String) {
+        gattQueue.enqueue(
+            GattOperation(
+                GattOperation.KIND_WRITE,
+                role,
+                GattOperationQueue.Lane.CONTROL,
+                payload.toByteArray(Charsets.UTF_8)
+            )
+        )
+    }
+
+    /** See [ConnectionManager.requestSettingChange]. */
+    fun requestSettingChange(
+        role: CharacteristicRole,
+        value: String,
+        callback: SettingChangeCallback?
+    ): Boolean {
+        val key = settingKey(role) ?: throw IllegalArgumentException("$role is not a setting")
+        if (profile == null) {
+            logger.w(tag, "requestSettingChange($role) skipped: services not resolved")
+            return false
+        }
+        if (hasCharacteristic(CharacteristicRole.RPC)) {
+            val id = settingsRpc.begin(callback)
+            if (id < 0) {
+                logger.w(tag, "requestSettingChange($role) rejected: too many requests in flight")
+                return false
+            }
+            gattQueue.enqueue(
+                GattOperation(
+                    GattOperation.KIND_WRITE,
+                    CharacteristicRole.RPC,
+                    GattOperationQueue.Lane.CONTROL,
+                    SettingsRpc.encodeRequest(id, key, value),
+                    completion = { _, status ->
+                        if (status != GattOperation.STATUS_SUCCESS) settingsRpc.fail(id)
+                    }
+                )
+            )
+            return true
+        }
+        if (!isWritable(role)) {
+            logger.e(tag, "requestSettingChange($role) failed: characteristic missing or not writable")
+            return false
+        }
+        gattQueue.enqueue(
+            GattOperation(
+                GattOperation.KIND_WRITE,
+                role,
+                GattOperationQueue.Lane.CONTROL,
+                value.toByteArray(Charsets.UTF_8),
+                completion = { _, status ->
+                    if (status != GattOperation.STATUS_SUCCESS) {
+                        callback?.onSettingChangeResult(false, null)
+                    } else {
+                        confirmByReadBack(role, value, callback)
+                    }
+                }
+            )
+        )
+        return true
+    }
+
+    /** Parses one RPC notification; returns false when it is malformed. */
+    fun onRpcResponse(data: ByteArray, offset: Int, length: Int): Boolean =
+        settingsRpc.onResponse(data, offset, length, settingAppliedListener)
+
+    /**
+     * Largest value one notification can carry on this connection: the MTU minus the
+     * notification header, but never more than ATT's attribute limit.
+     */
+    fun getMaxPayloadSize(): Int =
+        minOf(mtu - ATT_NOTIFICATION_HEADER_SIZE, IngestQueue.MAX_ATTRIBUTE_SIZE)
+
+    /**
+     * Takes a measured fix rate. The link is tuned again when the rate crosses
+     * [BALANCED_MAX_FIX_RATE_HZ], since the connection interval and PHY only depend on that.
+     */
+    fun updateFixRate(hz: Int) {
+        val previous = fixRateHz
+        fixRateHz = hz
+        if ((hz > BALANCED_MAX_FIX_RATE_HZ) != (previous > BALANCED_MAX_FIX_RATE_HZ) && profile != null) {
+            scheduler.schedule({ tuneLink() }, 0L)
+        }
+    }
+
+    /** See [LinkClockEstimator.rttMillis]. */
+    fun getLinkRttMillis(): Long = linkClock.rttMillis
+
+    fun getReceiverClockOffsetMillis(): Long = linkClock.offsetMillis
+
+    fun getKeepAliveIntervalMillis(): Long = keepAlivePolicy.intervalMillis
+
+    @Synchronized
+    fun startKeepAlive(delayMillis: Long = 0L) {
+        if (keepAliveRunnable != null) {
+            logger.d(tag, "Keepalive loop already running, restarting")
+            stopKeepAlive()
+        }
+        keepAliveFailCount = 0
+        if (profile == null) {
+            logger.w(tag, "Cannot start keepalive: GPS service unavailable")
+            return
+        }
+        if (!hasCharacteristic(CharacteristicRole.KEEPALIVE)) {
+            logger.w(tag, "Keepalive characteristic ${BleUuids.CHAR_KEEPALIVE_UUID} not found")
+            return
+        }
+        if (!isWritable(CharacteristicRole.KEEPALIVE)) {
+            logger.w(
+                tag,
+                "Keepalive characteristic ${BleUuids.CHAR_KEEPALIVE_UUID} is not writable (properties=${properties(CharacteristicRole.KEEPALIVE)})"
+            )
+            return
+        }
+
+        keepAlivePolicy.reset(scheduler.uptimeMillis())
+        val runnable =
+            object : Runnable {
+                override fun run() {
+                    val now = scheduler.uptimeMillis()
+                    if (keepAlivePolicy.shouldBeat(now, lastInboundAt)) {
+                        val timestampSeconds = (System.currentTimeMillis() / 1000L).toString()
+                        logger.d(tag, "Sending keepalive timestamp=$timestampSeconds")
+                        keepAlivePolicy.onBeatSent(now)
+                        // Lowest lane and coalesced: a keepalive still waiting is not queued twice.
+                        gattQueue.enqueue(
+                            GattOperation(
+                                GattOperation.KIND_WRITE,
+                                CharacteristicRole.KEEPALIVE,
+                                GattOperationQueue.Lane.KEEPALIVE,
+                                timestampSeconds.toByteArray(Charsets.UTF_8),
+                                KEEPALIVE_MIN_INTERVAL_MS,
+                                keepAliveCompletion
+                            )
+                        )
+                    }
+                    scheduler.schedule(this, keepAlivePolicy.nextCheckDelay(now))
+                }
+            }
+        keepAliveRunnable = runnable
+        scheduler.schedule(runnable, delayMillis.coerceAtLeast(0L))
+        logger.d(tag, "Keepalive loop scheduled to start in ${delayMillis}ms")
+    }
+
+    @Synchronized
+    fun stopKeepAlive() {
+        val runnable = keepAliveRunnable ?: return
+        scheduler.cancel(runnable)
+        keepAliveRunnable = null
+        keepAliveFailCount = 0
+        logger.d(tag, "Keepalive loop stopped")
+    }
+
+    private fun discoverServices() {
+        if (!transport.discoverServices()) {
+            val message = "discoverServices failed to start for ${transport.address}"
+            logger.e(tag, message)
+            events.onError(message)
+        }
+    }
+
+    private fun subscribe(profile: ReceiverProfile) {
+        for (spec in profile.subscriptions) {
+            val properties = transport.properties(spec.role)
+            if (properties == 0) {
+                logger.w(tag, "Characteristic ${spec.uuid} (${spec.role}) not found, skipping")
+                continue
+            }
+            // Older firmware exposes some of these (e.g. keepalive) write-only.
+            if ((properties and NOTIFYING_PROPERTIES) == 0) {
+                logger.i(tag, "Characteristic ${spec.uuid} (${spec.role}) does not notify, skipping")
+                continue
+            }
+            gattQueue.enqueue(
+                GattOperation(
+                    GattOperation.KIND_SUBSCRIBE,
+                    spec.role,
+                    GattOperationQueue.Lane.SUBSCRIPTION
+                )
+            )
+        }
+    }
+
+    /**
+     * Picks the connection interval and PHY for the fix rate. Above
+     * [BALANCED_MAX_FIX_RATE_HZ] the link asks for the shortest interval (11.25-15 ms) and the
+     * 2M PHY, which halves airtime per notification. Slower receivers stay on the balanced
+     * interval (30-50 ms), which delivers a 1 Hz fix well within its period at lower power.
+     * Either way the PHY in use is read back through [GattTransport.Callback.onPhyChanged].
+     */
+    private fun tuneLink() {
+        val highRate = fixRateHz > BALANCED_MAX_FIX_RATE_HZ
+        val priority =
+            if (highRate) {
+                GattTransport.CONNECTION_PRIORITY_HIGH
+            } else {
+                GattTransport.CONNECTION_PRIORITY_BALANCED
+            }
+        if (transport.requestConnectionPriority(priority)) {
+            connectionPriority = priority
+        } else {
+            logger.w(tag, "Connection priority $priority request rejected")
+        }
+        transport.requestPhy(highRate && transport.supportsLe2MPhy)
+        logger.i(tag, "Link tuned for $fixRateHz Hz: priority=$priority, 2M requested=$highRate")
+    }
+
+    /**
+     * Tells receivers with the RPC characteristic the usable notification payload, so they
+     * can pick frame size, batch depth and status detail for it; Android's view of the MTU is
+     * the one that matters for delivery. The budget is not a setting, so nothing waits for
+     * the response.
+     */
+    private fun announcePayloadBudget() {
+        if (!hasCharacteristic(CharacteristicRole.RPC)) return
+        val budget = getMaxPayloadSize()
+        val id = settingsRpc.begin(null)
+        if (id < 0) return
+        gattQueue.enqueue(
+            GattOperation(
+                GattOperation.KIND_WRITE,
+                CharacteristicRole.RPC,
+                GattOperationQueue.Lane.CONTROL,
+                SettingsRpc.encodeRequest(id, RPC_KEY_PAYLOAD, budget.toString()),
+                completion = { _, status ->
+                    if (status != GattOperation.STATUS_SUCCESS) settingsRpc.fail(id)
+                }
+            )
+        )
+        logger.i(tag, "Payload budget $budget bytes (MTU $mtu)")
+    }
+
+    /**
+     * Reads [role] back after a plain write and reports the value the receiver holds: success
+     * only when it is [requested], otherwise a failure carrying the value it kept. Control
+     * lane, so the confirming read is not coalesced away or overtaken by reads.
+     */
+    private fun confirmByReadBack(
+        role: CharacteristicRole,
+        requested: String,
+        callback: SettingChangeCallback?
+    ) {
+        gattQueue.enqueue(
+            GattOperation(
+                GattOperation.KIND_READ,
+                role,
+                GattOperationQueue.Lane.CONTROL,
+                completion = { operation, status ->
+                    val applied = operation.result?.toString(Charsets.UTF_8)?.trim()
+                    when {
+                        status != GattOperation.STATUS_SUCCESS ->
+                            callback?.onSettingChangeResult(false, null)
+                        applied == requested -> callback?.onSettingChangeResult(true, applied)
+                        else -> {
+                            logger.w(tag, "Setting $role reads back as $applied, requested $requested")
+                            callback?.onSettingChangeResult(false, applied)
+                        }
+                    }
+                }
+            )
+        )
+    }
+
+    /** [GattOperationQueue.Starter]: issues one queued operation on the transport. */
+    private fun startOperation(operation: GattOperation): Boolean =
+        when (operation.kind) {
+            GattOperation.KIND_SUBSCRIBE -> transport.subscribe(operation.role)
+            GattOperation.KIND_WRITE -> {
+                val properties = transport.properties(operation.role)
+                if ((properties and WRITABLE_PROPERTIES) == 0) {
+                    logger.e(tag, "Characteristic ${operation.role} is not writable (properties=$properties)")
+                    false
+                } else {
+                    if (operation.role == CharacteristicRole.KEEPALIVE) {
+                        linkClock.onBeatSent(clock.elapsedRealtimeMillis())
+                    }
+                    transport.write(
+                        operation.role,
+                        operation.payload ?: ByteArray(0),
+                        withoutResponse =
+                            operation.lane == GattOperationQueue.Lane.KEEPALIVE &&
+                                (properties and GattTransport.PROPERTY_WRITE_NO_RESPONSE) != 0
+                    )
+                }
+            }
+            else -> transport.read(operation.role)
+        }
+
+    private fun phyName(phy: Int): String =
+        when (phy) {
+            GattTransport.PHY_LE_1M -> "1M"
+            GattTransport.PHY_LE_2M -> "2M"
+            GattTransport.PHY_LE_CODED -> "Coded"
+            else -> phy.toString()
+        }
+
+    private fun settingKey(role: CharacteristicRole): String? =
+        when (role) {
+            CharacteristicRole.AP_CONTROL -> RPC_KEY_AP
+            CharacteristicRole.MODE_CONTROL -> RPC_KEY_MODE
+            CharacteristicRole.GPS_BAUD -> RPC_KEY_BAUD
+            else -> null
+        }
+
+    private fun settingRole(key: String): CharacteristicRole? =
+        when (key) {
+            RPC_KEY_AP -> CharacteristicRole.AP_CONTROL
+            RPC_KEY_MODE -> CharacteristicRole.MODE_CONTROL
+            RPC_KEY_BAUD -> CharacteristicRole.GPS_BAUD
+            else -> null
+        }
+
+    companion object {
+        const val DEFAULT_ATT_MTU = 23
+
+        /**
+         * Largest ATT MTU Android requests. A 512-byte value plus the 3-byte notification
+         * header only needs 515, so [getMaxPayloadSize] caps the payload at that limit.
+         */
+        const val MAX_ATT_MTU = 517
+        const val ATT_NOTIFICATION_HEADER_SIZE = 3
+        const val KEEPALIVE_MIN_INTERVAL_MS = 1_000L
+
+        /** Longest gap between beats; must stay below the firmware's keepalive timeout. */
+        const val KEEPALIVE_MAX_INTERVAL_MS = 4_000L
+        const val BALANCED_MAX_FIX_RATE_HZ = 1
+        private const val NOTIFYING_PROPERTIES =
+            GattTransport.PROPERTY_NOTIFY or GattTransport.PROPERTY_INDICATE
+        private const val WRITABLE_PROPERTIES =
+            GattTransport.PROPERTY_WRITE or GattTransport.PROPERTY_WRITE_NO_RESPONSE
+        private const val RPC_KEY_AP = "ap"
+        private const val RPC_KEY_MODE = "mode"
+        private const val RPC_KEY_BAUD = "baud"
+        private const val RPC_KEY_PAYLOAD = "payload"
+    }
+}
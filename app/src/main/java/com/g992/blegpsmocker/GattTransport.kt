@@ -0,0 +1,70 @@
+package com.g992.blegpsmocker
+
+/**
+ * One GATT client connection to a receiver, addressed by [CharacteristicRole] once services
+ * are resolved. [BluetoothGattTransport] runs it on the Android stack; JVM tests put a
+ * scripted peripheral in its place, so everything above it runs without a phone.
+ *
+ * Requests return false when they could not be started; otherwise their outcome arrives
+ * through [Callback], on whatever thread the implementation uses (binder threads on
+ * Android). Like the Android stack, a transport runs one characteristic or descriptor
+ * operation at a time; [GattSession] queues them.
+ */
+internal interface GattTransport {
+    interface Callback {
+        fun onConnectionStateChanged(connected: Boolean, status: Int)
+        fun onMtuChanged(mtu: Int, status: Int)
+
+        /** Result of [requestPhy], and of PHY changes the peripheral initiates. */
+        fun onPhyChanged(txPhy: Int, rxPhy: Int, status: Int)
+
+        /** [profile] is null when discovery failed or no supported service was found. */
+        fun onServicesResolved(profile: ReceiverProfile?, status: Int)
+        fun onSubscribed(role: CharacteristicRole, status: Int)
+        fun onRead(role: CharacteristicRole, value: ByteArray?, status: Int)
+        fun onWritten(role: CharacteristicRole, value: ByteArray?, status: Int)
+        fun onNotification(role: CharacteristicRole, value: ByteArray)
+    }
+
+    val address: String
+
+    /** Whether the local controller can run the LE 2M PHY. */
+    val supportsLe2MPhy: Boolean
+
+    fun connect(callback: Callback): Boolean
+
+    /** PROPERTY_* bits of the characteristic in [role]'s slot, 0 when it is absent. */
+    fun properties(role: CharacteristicRole): Int
+
+    fun requestMtu(mtu: Int): Boolean
+    fun discoverServices(): Boolean
+    fun requestConnectionPriority(priority: Int): Boolean
+
+    /** Asks for the 2M PHY when [prefer2M] is set, otherwise reads the current one. */
+    fun requestPhy(prefer2M: Boolean)
+
+    fun subscribe(role: CharacteristicRole): Boolean
+    fun read(role: CharacteristicRole): Boolean
+    fun write(role: CharacteristicRole, value: ByteArray, withoutResponse: Boolean): Boolean
+    fun disconnect()
+    fun close()
+
+    companion object {
+        // Same values as the Android constants, so the Bluetooth transport passes them through.
+        const val GATT_SUCCESS = 0
+        const val GATT_FAILURE = 0x101
+
+        const val PROPERTY_READ = 0x02
+        const val PROPERTY_WRITE_NO_RESPONSE = 0x04
+        const val PROPERTY_WRITE = 0x08
+        const val PROPERTY_NOTIFY = 0x10
+        const val PROPERTY_INDICATE = 0x20
+
+        const val CONNECTION_PRIORITY_BALANCED = 0
+        const val CONNECTION_PRIORITY_HIGH = 1
+
+        const val PHY_LE_1M = 1
+        const val PHY_LE_2M = 2
+        const val PHY_LE_CODED = 3
+    }
+}
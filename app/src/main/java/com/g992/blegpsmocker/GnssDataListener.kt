@@ -0,0 +1,77 @@
+package com.g992.blegpsmocker
+
+/**
+ * Decoded receiver data, delivered by [PayloadDecoder] on the thread that feeds it. Free of
+ * Android types so the decode chain runs in unit tests and benchmarks.
+ */
+interface GnssDataListener {
+    fun onError(message: String)
+    fun onCoordinatesReceived(latitude: Double, longitude: Double)
+
+    /**
+     * One complete fix; [fix] is reused and only valid during the call. The default forwards
+     * to the per-field callbacks, with accuracy, heading, speed and altitude ahead of the
+     * position so the position callback sees this fix's values.
+     */
+    fun onFix(fix: GnssFix) {
+        if (fix.hasAccuracy()) {
+            onAccuracyReceived(fix.horizontalAccuracy, fix.verticalAccuracy, fix.speedAccuracy)
+        }
+        if (!fix.heading.isNaN()) onHeadingReceived(fix.heading)
+        if (!fix.speed.isNaN()) onSpeedReceived(fix.speed)
+        if (!fix.altitude.isNaN()) onAltitudeReceived(fix.altitude)
+        if (fix.batched) {
+            onBatchedCoordinatesReceived(fix.latitude, fix.longitude, fix.ageNanos)
+        } else {
+            onCoordinatesReceived(fix.latitude, fix.longitude)
+        }
+    }
+
+    /** A fix from a batched notification, measured [ageNanos] before it was received. */
+    fun onBatchedCoordinatesReceived(latitude: Double, longitude: Double, ageNanos: Long) {
+        onCoordinatesReceived(latitude, longitude)
+    }
+    fun onFixStatusReceived(status: String)
+
+    /** Primitive variant; [type] is 1 for a 3D fix and 0 otherwise. */
+    fun onFixStatusReceived(fix: Int, type: Int) {
+        onFixStatusReceived("$fix,$type")
+    }
+    fun onHdopReceived(hdop: Double)
+    fun onVdopReceived(vdop: Double) {}
+
+    /**
+     * Receiver-measured 1-sigma accuracy, delivered before the fix it belongs to.
+     * Components the receiver did not report are NaN.
+     */
+    fun onAccuracyReceived(
+        horizontalMeters: Double,
+        verticalMeters: Double,
+        speedMetersPerSecond: Double
+    ) {}
+    fun onSignalLevelsReceived(levels: String)
+
+    /** Primitive variant; [levels] is reused by the caller and only valid during the call. */
+    fun onSignalLevelsReceived(levels: IntArray, count: Int) {
+        onSignalLevelsReceived(
+            buildString {
+                for (index in 0 until count) {
+                    if (index > 0) append(',')
+                    append(levels[index])
+                }
+            }
+        )
+    }
+    fun onAltitudeReceived(altitudeMeters: Double)
+    fun onSpeedReceived(speedMetersPerSecond: Double)
+    fun onHeadingReceived(headingDegrees: Double)
+    fun onDeviceStatusReceived(status: String)
+    fun onTtffReceived(ttffSeconds: Long)
+    fun onApControlChanged(enabled: Boolean)
+    fun onBridgeModeChanged(enabled: Boolean)
+    fun onGpsBaudRateChanged(baudRate: Int)
+
+    /** The receiver's settings revision, once per change; see [StatusPayload.configRevision]. */
+    fun onConfigRevisionReceived(revision: Long) {}
+}
+
@@ -0,0 +1,91 @@
+package com.g992.blegpsmocker
+
+/**
+ * One fix as a single snapshot. It holds the position and the speed, altitude, heading and
+ * accuracy from the same notification, plus the DOP of the status epoch the fix belongs to.
+ * Absent values are NaN.
+ *
+ * Listeners only read it. [PayloadDecoder] reuses the instance, so it is valid only
+ * during [GnssDataListener.onFix]; copy what you need to keep.
+ */
+class GnssFix {
+    var latitude = Double.NaN
+        internal set
+    var longitude = Double.NaN
+        internal set
+    var speed = Double.NaN
+        internal set
+    var altitude = Double.NaN
+        internal set
+    var heading = Double.NaN
+        internal set
+    var hdop = Double.NaN
+        internal set
+    var vdop = Double.NaN
+        internal set
+    var horizontalAccuracy = Double.NaN
+        internal set
+    var verticalAccuracy = Double.NaN
+        internal set
+    var speedAccuracy = Double.NaN
+        internal set
+
+    /** Receiver-side timestamp, -1 unless the frame carried one. */
+    var deviceTimeMillis = -1L
+        internal set
+
+    /** How long before reception the fix was measured; non-zero only for batched fixes. */
+    var ageNanos = 0L
+        internal set
+
+    /** True for fixes replayed from a batch, which bypass the live rate limiter. */
+    var batched = false
+        internal set
+
+    fun hasAccuracy(): Boolean =
+        !horizontalAccuracy.isNaN() || !verticalAccuracy.isNaN() || !speedAccuracy.isNaN()
+}
+
+/**
+ * Fuses status values into fixes. A DOP reported between two fixes belongs to the epoch of
+ * the next fix, because NMEA GGA and UBX NAV-PVT report it just before the position.
+ * Receivers that report DOP less often than position keep their last value until a new one
+ * arrives.
+ */
+internal class GnssFixFuser {
+    private var hdop = Double.NaN
+    private var vdop = Double.NaN
+
+    fun updateStatus(payload: StatusPayload) {
+        if (!payload.hdop.isNaN()) hdop = payload.hdop
+        if (!payload.vdop.isNaN()) vdop = payload.vdop
+    }
+
+    /** Fills [fix] in place from [payload] and the current status epoch. */
+    fun fuse(
+        payload: CoordinatesPayload,
+        fix: GnssFix,
+        ageNanos: Long = 0L,
+        batched: Boolean = false
+    ): GnssFix {
+        fix.latitude = payload.latitude
+        fix.longitude = payload.longitude
+        fix.speed = payload.speed
+        fix.altitude = payload.altitude
+        fix.heading = payload.heading
+        fix.horizontalAccuracy = payload.horizontalAccuracy
+        fix.verticalAccuracy = payload.verticalAccuracy
+        fix.speedAccuracy = payload.speedAccuracy
+        fix.deviceTimeMillis = payload.deviceTimeMillis
+        fix.hdop = hdop
+        fix.vdop = vdop
+        fix.ageNanos = ageNanos
+        fix.batched = batched
+        return fix
+    }
+
+    fun reset() {
+        hdop = Double.NaN
+        vdop = Double.NaN
+    }
+}
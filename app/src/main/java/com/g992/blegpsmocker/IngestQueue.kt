@@ -0,0 +1,79 @@
+package com.g992.blegpsmocker
+
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * Lock-free single-producer/single-consumer queue of characteristic values, from the GATT
+ * binder callbacks to the ingest thread.
+ *
+ * Each slot owns a preallocated buffer of [slotSize] bytes. [offer] copies the value in and
+ * [drain] hands it to the consumer in place, so nothing is allocated per notification.
+ * GATT callbacks arrive serialized through one-way binder calls, so successive [offer] calls
+ * are ordered even when they run on different binder threads.
+ *
+ * A full queue rejects the new value and counts it in [dropped]. Only the consumer may
+ * advance the head, so the producer cannot drop the oldest entry. The ingest thread drains
+ * far faster than a BLE link fills 64 slots, so a full queue means the consumer is stuck.
+ */
+internal class IngestQueue(
+    slotCount: Int = DEFAULT_SLOT_COUNT,
+    private val slotSize: Int = MAX_ATTRIBUTE_SIZE
+) {
+    fun interface Consumer {
+        /** [data] is the slot buffer and is only valid during the call. */
+        fun accept(tag: Int, data: ByteArray, length: Int)
+    }
+
+    private val capacity = Integer.highestOneBit(slotCount.coerceAtLeast(2))
+    private val mask = capacity - 1L
+    private val buffers = Array(capacity) { ByteArray(slotSize) }
+    private val lengths = IntArray(capacity)
+    private val tags = IntArray(capacity)
+    private val head = AtomicLong()
+    private val tail = AtomicLong()
+
+    /** Values rejected because the queue was full or they exceeded [slotSize]. Producer-written. */
+    @Volatile
+    var dropped = 0L
+        private set
+
+    /** Producer side. Returns false when the value was dropped. */
+    fun offer(tag: Int, data: ByteArray): Boolean {
+        val position = tail.get()
+        if (data.size > slotSize || position - head.get() == capacity.toLong()) {
+            dropped++
+            return false
+        }
+        val slot = (position and mask).toInt()
+        System.arraycopy(data, 0, buffers[slot], 0, data.size)
+        lengths[slot] = data.size
+        tags[slot] = tag
+        // Ordered store: the slot contents become visible to the consumer before the new tail.
+        tail.lazySet(position + 1)
+        return true
+    }
+
+    /** Consumer side. Hands every queued value to [consumer]; returns how many there were. */
+    fun drain(consumer: Consumer): Int {
+        var position = head.get()
+        val end = tail.get()
+        val count = (end - position).toInt()
+        while (position < end) {
+            val slot = (position and mask).toInt()
+            consumer.accept(tags[slot], buffers[slot], lengths[slot])
+            position++
+            // Publish each freed slot so the producer can reuse it while the rest drain.
+            head.lazySet(position)
+        }
+        return count
+    }
+
+    fun isEmpty(): Boolean = head.get() == tail.get()
+
+    companion object {
+        const val DEFAULT_SLOT_COUNT = 64
+
+        /** Longest attribute value ATT allows. */
+        const val MAX_ATTRIBUTE_SIZE = 512
+    }
+}
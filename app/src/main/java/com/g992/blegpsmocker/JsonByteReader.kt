@@ -0,0 +1,173 @@
+package com.g992.blegpsmocker
+
+/**
+ * Minimal forward-only JSON cursor over a byte range.
+ *
+ * Only understands the flat objects the receiver firmware emits: keys without escapes,
+ * plain JSON numbers and values we can skip. Anything else makes the caller bail out so the
+ * lenient org.json path can take over.
+ */
+internal class JsonByteReader {
+    private var data: ByteArray = EMPTY
+    private var position = 0
+    private var limit = 0
+    private var keyStart = 0
+    private var keyEnd = 0
+
+    fun reset(data: ByteArray, offset: Int, length: Int) {
+        this.data = data
+        position = offset
+        limit = offset + length
+        keyStart = 0
+        keyEnd = 0
+    }
+
+    fun release() {
+        data = EMPTY
+        position = 0
+        limit = 0
+    }
+
+    fun skipWhitespace() {
+        while (position < limit) {
+            when (data[position].toInt()) {
+                ' '.code, '\t'.code, '\n'.code, '\r'.code, 0 -> position++
+                else -> return
+            }
+        }
+    }
+
+    fun consume(expected: Char): Boolean {
+        skipWhitespace()
+        if (position < limit && data[position].toInt() == expected.code) {
+            position++
+            return true
+        }
+        return false
+    }
+
+    fun isAtEnd(): Boolean {
+        skipWhitespace()
+        return position >= limit
+    }
+
+    /** Reads `"key":` and remembers the key bounds for [keyEquals]. */
+    fun readKey(): Boolean {
+        if (!consume('"')) return false
+        val start = position
+        while (position < limit) {
+            val current = data[position].toInt()
+            if (current == '"'.code) {
+                keyStart = start
+                keyEnd = position
+                position++
+                return consume(':')
+            }
+            if (current == '\\'.code) return false
+            position++
+        }
+        return false
+    }
+
+    fun keyEquals(name: String): Boolean {
+        if (keyEnd - keyStart != name.length) return false
+        for (index in name.indices) {
+            if (data[keyStart + index].toInt() != name[index].code) return false
+        }
+        return true
+    }
+
+    /** Returns the parsed number or NaN when the next value is not a plain JSON number. */
+    fun readNumber(): Double {
+        skipWhitespace()
+        val start = position
+        if (position < limit && data[position].toInt() == '-'.code) position++
+        val integerStart = position
+        while (position < limit && isDigit(data[position])) position++
+        if (position == integerStart) return Double.NaN
+        if (position < limit && data[position].toInt() == '.'.code) {
+            position++
+            val fractionStart = position
+            while (position < limit && isDigit(data[position])) position++
+            if (position == fractionStart) return Double.NaN
+        }
+        if (position < limit && (data[position].toInt() or 0x20) == 'e'.code) {
+            position++
+            if (position < limit &&
+                (data[position].toInt() == '+'.code || data[position].toInt() == '-'.code)
+            ) {
+                position++
+            }
+            val exponentStart = position
+            while (position < limit && isDigit(data[position])) position++
+            if (position == exponentStart) return Double.NaN
+        }
+        return FastDoubleParser.parse(data, start, position)
+    }
+
+    /** Skips one value of any type, including nested containers. */
+    fun skipValue(): Boolean {
+        skipWhitespace()
+        if (position >= limit) return false
+        return when (data[position].toInt()) {
+            '"'.code -> skipString()
+            '{'.code, '['.code -> skipContainer()
+            't'.code -> skipLiteral("true")
+            'f'.code -> skipLiteral("false")
+            'n'.code -> skipLiteral("null")
+            else -> !readNumber().isNaN()
+        }
+    }
+
+    private fun skipString(): Boolean {
+        position++
+        while (position < limit) {
+            when (data[position].toInt()) {
+                '"'.code -> {
+                    position++
+                    return true
+                }
+                '\\'.code -> position += 2
+                else -> position++
+            }
+        }
+        return false
+    }
+
+    private fun skipContainer(): Boolean {
+        var depth = 0
+        while (position < limit) {
+            when (data[position].toInt()) {
+                '"'.code -> {
+                    if (!skipString()) return false
+                    continue
+                }
+                '{'.code, '['.code -> depth++
+                '}'.code, ']'.code -> {
+                    depth--
+                    if (depth == 0) {
+                        position++
+                        return true
+                    }
+                }
+            }
+            position++
+        }
+        return false
+    }
+
+    private fun skipLiteral(literal: String): Boolean {
+        if (limit - position < literal.length) return false
+        for (index in literal.indices) {
+            if (data[position + index].toInt() != literal[index].code) return false
+        }
+        position += literal.length
+        return true
+    }
+
+    companion object {
+        private val EMPTY = ByteArray(0)
+
+        private fun isDigit(value: Byte): Boolean = value >= '0'.code.toByte() && value <= '9'.code.toByte()
+    }
+}
@@ -0,0 +1,50 @@
+package com.g992.blegpsmocker
+
+import org.json.JSONArray
+import org.json.JSONObject
+
+/**
+ * org.json readers for payloads the strict byte parsers reject (escaped keys, quoted numbers,
+ * string signal levels). They fill the same holders; malformed JSON throws
+ * [org.json.JSONException].
+ */
+internal object JsonPayloadFallback {
+    fun readCoordinates(raw: String, out: CoordinatesPayload) {
+        val payload = JSONObject(raw)
+        out.clear()
+        out.latitude = payload.optDouble(CoordinatesPayloadParser.KEY_LATITUDE)
+        out.longitude = payload.optDouble(CoordinatesPayloadParser.KEY_LONGITUDE)
+        out.heading = payload.optDouble(CoordinatesPayloadParser.KEY_HEADING)
+        out.speed = payload.optDouble(CoordinatesPayloadParser.KEY_SPEED)
+        out.altitude = payload.optDouble(CoordinatesPayloadParser.KEY_ALTITUDE)
+    }
+
+    fun readStatus(raw: String, out: StatusPayload) {
+        val payload = JSONObject(raw)
+        out.clear()
+        out.fix = payload.optInt(StatusPayloadParser.KEY_FIX, -1)
+        out.hdop = payload.optDouble(StatusPayloadParser.KEY_HDOP)
+        payload.optJSONArray(StatusPayloadParser.KEY_SIGNALS)?.let { signals ->
+            out.hasSignals = true
+            addSignals(signals, out)
+        }
+        if (payload.has(StatusPayloadParser.KEY_TTFF)) {
+            out.ttffSeconds = payload.optLong(StatusPayloadParser.KEY_TTFF)
+            out.hasTtff = true
+        }
+        out.configRevision = payload.optLong(StatusPayloadParser.KEY_CONFIG, -1L)
+    }
+
+    private fun addSignals(array: JSONArray, out: StatusPayload) {
+        for (index in 0 until array.length()) {
+            val rawValue = array.opt(index)
+            val level =
+                when (rawValue) {
+                    is Number -> rawValue.toInt()
+                    is String -> rawValue.trim().toIntOrNull() ?: 0
+                    else -> 0
+                }
+            out.addSignal(level)
+        }
+    }
+}
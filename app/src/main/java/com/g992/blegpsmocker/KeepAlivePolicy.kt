@@ -0,0 +1,43 @@
+package com.g992.blegpsmocker
+
+/**
+ * Decides when the keepalive beat goes out. Notifications already prove the link is alive,
+ * so a beat is skipped while inbound traffic arrived within the current interval. Each
+ * acknowledged beat doubles the interval up to [maxIntervalMillis]; a failed one drops it
+ * back to [minIntervalMillis]. However busy the link, a beat still goes out at least every
+ * [maxIntervalMillis], so [maxIntervalMillis] must stay below the receiver's keepalive
+ * timeout.
+ *
+ * Times are uptime milliseconds. Checks run on one thread; results may arrive on another.
+ */
+internal class KeepAlivePolicy(
+    private val minIntervalMillis: Long,
+    private val maxIntervalMillis: Long
+) {
+    @Volatile
+    var intervalMillis = minIntervalMillis
+        private set
+    private var lastBeatAt = 0L
+
+    /** Starts over; the first check sends a beat. */
+    fun reset(now: Long) {
+        intervalMillis = minIntervalMillis
+        lastBeatAt = now - maxIntervalMillis
+    }
+
+    fun shouldBeat(now: Long, lastInboundAt: Long): Boolean =
+        now - lastInboundAt >= intervalMillis || now - lastBeatAt >= maxIntervalMillis
+
+    fun onBeatSent(now: Long) {
+        lastBeatAt = now
+    }
+
+    fun onBeatResult(success: Boolean) {
+        intervalMillis =
+            if (success) minOf(intervalMillis * 2, maxIntervalMillis) else minIntervalMillis
+    }
+
+    /** Delay until the next check: one interval, but never past the forced beat. */
+    fun nextCheckDelay(now: Long): Long =
+        minOf(intervalMillis, lastBeatAt + maxIntervalMillis - now).coerceAtLeast(1L)
+}
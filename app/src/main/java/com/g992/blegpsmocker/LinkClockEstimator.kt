@@ -0,0 +1,128 @@
+package com.g992.blegpsmocker
+
+/**
+ * NTP-style estimate of the link round trip and of the receiver's clock against the phone's,
+ * from keepalive exchanges. The phone notes when a beat leaves (t1). The receiver answers on
+ * the keepalive characteristic with `<t2>,<t3>`, its clock in milliseconds when the beat
+ * arrived and when the answer left; a single value stands for both. The phone notes when the
+ * answer arrives (t4). Then
+ *
+ *     rtt = (t4 - t1) - (t3 - t2)
+ *     offset = ((t2 - t1) + (t3 - t4)) / 2   (receiver clock minus phone clock)
+ *
+ * The offset error is bounded by half the path asymmetry, which grows with the round trip. So
+ * like NTP's clock filter the estimate is the sample with the shortest round trip among the
+ * last [windowSize], which drops samples delayed by retransmissions or a busy connection event.
+ *
+ * Phone times are [android.os.SystemClock.elapsedRealtime] milliseconds. One exchange is in
+ * flight at a time; [onBeatSent] and [onResponse] may run on different threads.
+ */
+internal class LinkClockEstimator(private val windowSize: Int = DEFAULT_WINDOW_SIZE) {
+    private val offsets = LongArray(windowSize)
+    private val rtts = LongArray(windowSize)
+    private var count = 0
+    private var next = 0
+
+    @Volatile
+    private var sentAt = NOT_SENT
+
+    @Volatile
+    var offsetMillis = 0L
+        private set
+
+    @Volatile
+    var rttMillis = -1L
+        private set
+
+    /** Accepted exchanges since the last [reset]. */
+    @Volatile
+    var samples = 0L
+        private set
+
+    /** Answers that were malformed, unsolicited or implausible. */
+    @Volatile
+    var rejected = 0L
+        private set
+
+    fun hasEstimate(): Boolean = rttMillis >= 0L
+
+    fun onBeatSent(phoneMillis: Long) {
+        sentAt = phoneMillis
+    }
+
+    /** Parses one answer received at [phoneMillis]; returns false when it was rejected. */
+    fun onResponse(data: ByteArray, offset: Int, length: Int, phoneMillis: Long): Boolean {
+        val t1 = sentAt
+        sentAt = NOT_SENT
+        val end = offset + length
+        var index = offset
+        var t2 = 0L
+        while (index < end && data[index] in DIGIT_0..DIGIT_9) {
+            t2 = t2 * 10 + (data[index] - DIGIT_0)
+            index++
+        }
+        var t3 = t2
+        if (index < end && data[index] == COMMA) {
+            val start = ++index
+            t3 = 0L
+            while (index < end && data[index] in DIGIT_0..DIGIT_9) {
+                t3 = t3 * 10 + (data[index] - DIGIT_0)
+                index++
+            }
+            if (index == start) index = -1
+        }
+        if (index <= offset || index != end || t1 == NOT_SENT || t3 < t2) {
+            rejected++
+            return false
+        }
+        val rtt = (phoneMillis - t1) - (t3 - t2)
+        if (rtt < 0L || rtt > MAX_RTT_MS) {
+            rejected++
+            return false
+        }
+        record(((t2 - t1) + (t3 - phoneMillis)) / 2, rtt)
+        return true
+    }
+
+    /** Receiver clock reading [receiverMillis] expressed on the phone's clock. */
+    fun toPhoneMillis(receiverMillis: Long): Long = receiverMillis - offsetMillis
+
+    fun reset() {
+        synchronized(this) {
+            count = 0
+            next = 0
+            sentAt = NOT_SENT
+            offsetMillis = 0L
+            rttMillis = -1L
+            samples = 0L
+            rejected = 0L
+        }
+    }
+
+    private fun record(offset: Long, rtt: Long) {
+        synchronized(this) {
+            offsets[next] = offset
+            rtts[next] = rtt
+            next = (next + 1) % windowSize
+            if (count < windowSize) count++
+            var best = 0
+            for (index in 1 until count) {
+                if (rtts[index] < rtts[best]) best = index
+            }
+            offsetMillis = offsets[best]
+            rttMillis = rtts[best]
+            samples++
+        }
+    }
+
+    companion object {
+        const val DEFAULT_WINDOW_SIZE = 8
+
+        /** Answers later than this belong to a lost exchange or a stalled link. */
+        const val MAX_RTT_MS = 2_000L
+        private const val NOT_SENT = Long.MIN_VALUE
+        private const val DIGIT_0 = '0'.code.toByte()
+        private const val DIGIT_9 = '9'.code.toByte()
+        private const val COMMA = ','.code.toByte()
+    }
+}
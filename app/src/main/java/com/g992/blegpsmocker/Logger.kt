@@ -0,0 +1,40 @@
+package com.g992.blegpsmocker
+
+/**
+ * Log sink for link and decoding code, so that code also runs in unit tests and benchmarks.
+ * Levels follow android.util.Log; on the device [AndroidLogger] forwards there.
+ */
+internal interface Logger {
+    fun isLoggable(tag: String, level: Int): Boolean
+
+    fun v(tag: String, message: String)
+
+    fun d(tag: String, message: String)
+
+    fun i(tag: String, message: String)
+
+    fun w(tag: String, message: String, throwable: Throwable? = null)
+
+    fun e(tag: String, message: String, throwable: Throwable? = null)
+
+    companion object {
+        const val VERBOSE = 2
+        const val DEBUG = 3
+
+        /** Drops everything. */
+        val NONE: Logger =
+            object : Logger {
+                override fun isLoggable(tag: String, level: Int): Boolean = false
+
+                override fun v(tag: String, message: String) {}
+
+                override fun d(tag: String, message: String) {}
+
+                override fun i(tag: String, message: String) {}
+
+                override fun w(tag: String, message: String, throwable: Throwable?) {}
+
+                override fun e(tag: String, message: String, throwable: Throwable?) {}
+            }
+    }
+}
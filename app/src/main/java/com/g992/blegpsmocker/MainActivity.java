@@ -700,6 +700,16 @@ public class MainActivity extends AppCompatActivity {
         );
     }
 
+    private void onSettingChangeResult(boolean success, @Nullable String value) {
+        if (isDestroyed()) {
+            return;
+        }
+        if (!success) {
+            Toast.makeText(this, R.string.settings_write_failed, Toast.LENGTH_LONG).show();
+        }
+        updateDeviceSettingsUi();
+    }
+
     private boolean isServiceReadyForSettings() {
         return serviceBound && clientService != null && clientService.isConnectedToServer();
     }
@@ -743,41 +753,21 @@ public class MainActivity extends AppCompatActivity {
                                     updateDeviceSettingsUi();
                                     return;
                                 }
-                                boolean accepted = clientService.requestApControlChange(true);
+                                boolean accepted = clientService.requestApControlChange(true, this::onSettingChangeResult);
                                 if (!accepted) {
                                     Toast.makeText(this, R.string.settings_write_failed, Toast.LENGTH_LONG).show();
                                     updateDeviceSettingsUi();
-                                    return;
                                 }
-                                uiHandler.postDelayed(
-                                        () -> {
-                                            if (clientService != null) {
-                                                clientService.refreshDeviceSettings();
-                                            }
-                                            updateDeviceSettingsUi();
-                                        },
-                                        500
-                                );
                             })
                     .setNegativeButton(R.string.dialog_cancel, (dialog, which) -> updateDeviceSettingsUi())
                     .setOnCancelListener(dialog -> updateDeviceSettingsUi())
                     .show();
         } else {
-            boolean accepted = clientService != null && clientService.requestApControlChange(false);
+            boolean accepted = clientService != null && clientService.requestApControlChange(false, this::onSettingChangeResult);
             if (!accepted) {
                 Toast.makeText(this, R.string.settings_write_failed, Toast.LENGTH_LONG).show();
                 updateDeviceSettingsUi();
-                return;
             }
-            uiHandler.postDelayed(
-                    () -> {
-                        if (clientService != null) {
-                            clientService.refreshDeviceSettings();
-                        }
-                        updateDeviceSettingsUi();
-                    },
-                    500
-            );
         }
     }
 
@@ -806,41 +796,21 @@ public class MainActivity extends AppCompatActivity {
                                     updateDeviceSettingsUi();
                                     return;
                                 }
-                                boolean accepted = clientService.requestBridgeModeChange(true);
+                                boolean accepted = clientService.requestBridgeModeChange(true, this::onSettingChangeResult);
                                 if (!accepted) {
                                     Toast.makeText(this, R.string.settings_write_failed, Toast.LENGTH_LONG).show();
                                     updateDeviceSettingsUi();
-                                    return;
                                 }
-                                uiHandler.postDelayed(
-                                        () -> {
-                                            if (clientService != null) {
-                                                clientService.refreshDeviceSettings();
-                                            }
-                                            updateDeviceSettingsUi();
-                                        },
-                                        500
-                                );
                             })
                     .setNegativeButton(R.string.dialog_cancel, (dialog, which) -> updateDeviceSettingsUi())
                     .setOnCancelListener(dialog -> updateDeviceSettingsUi())
                     .show();
         } else {
-            boolean accepted = clientService != null && clientService.requestBridgeModeChange(false);
+            boolean accepted = clientService != null && clientService.requestBridgeModeChange(false, this::onSettingChangeResult);
             if (!accepted) {
                 Toast.makeText(this, R.string.settings_write_failed, Toast.LENGTH_LONG).show();
                 updateDeviceSettingsUi();
-                return;
             }
-            uiHandler.postDelayed(
-                    () -> {
-                        if (clientService != null) {
-                            clientService.refreshDeviceSettings();
-                        }
-                        updateDeviceSettingsUi();
-                    },
-                    500
-            );
         }
     }
 
@@ -870,20 +840,11 @@ public class MainActivity extends AppCompatActivity {
                                 updateDeviceSettingsUi();
                                 return;
                             }
-                            boolean accepted = clientService.requestGpsBaudRateChange(desiredBaudRate);
+                            boolean accepted = clientService.requestGpsBaudRateChange(desiredBaudRate, this::onSettingChangeResult);
                             if (!accepted) {
                                 Toast.makeText(this, R.string.settings_write_failed, Toast.LENGTH_LONG).show();
                                 updateDeviceSettingsUi();
-                                return;
                             }
-                            uiHandler.postDelayed(
-                                    () -> {
-                                        if (clientService != null) {
-                                            clientService.refreshDeviceSettings();
-                                        }
-                                    },
-                                    500
-                            );
                         })
                 .setNegativeButton(R.string.dialog_cancel, (dialog, which) -> updateDeviceSettingsUi())
                 .setOnCancelListener(dialog -> updateDeviceSettingsUi())
@@ -0,0 +1,187 @@
+package com.g992.blegpsmocker
+
+/**
+ * One mock fix ready to be copied into `Location` objects. Reused between fixes; absent
+ * values are NaN.
+ */
+class MockFix {
+    var latitude = Double.NaN
+    var longitude = Double.NaN
+    var timeMillis = 0L
+    var elapsedRealtimeNanos = 0L
+    var accuracy = 0f
+    var verticalAccuracy = Float.NaN
+    var speedAccuracy = Float.NaN
+    var altitude = Double.NaN
+    var speed = Double.NaN
+}
+
+/**
+ * Turns receiver values into mock fixes: rate limiting, ordering of batched fixes, accuracy
+ * from measured values or DOP, and speed from the receiver or from the distance between fixes.
+ *
+ * Kept free of Android types and of per-fix allocation; the service copies [fix] into its
+ * reused `Location` objects.
+ */
+internal class MockFixComposer(private val minIntervalMillis: Long = DEFAULT_MIN_INTERVAL_MS) {
+    val fix = MockFix()
+
+    var hdop = Double.NaN
+    var vdop = Double.NaN
+    var altitude = Double.NaN
+    var speed = Double.NaN
+
+    private var measuredHorizontalAccuracy = Double.NaN
+    private var measuredVerticalAccuracy = Double.NaN
+    private var measuredSpeedAccuracy = Double.NaN
+    private var measuredAccuracyElapsedNanos = 0L
+
+    /** Device time of the last pushed fix (age-corrected), 0 before the first one. */
+    var lastTimeMillis = 0L
+        private set
+    var lastElapsedRealtimeNanos = 0L
+        private set
+
+    fun setMeasuredAccuracy(
+        horizontalMeters: Double,
+        verticalMeters: Double,
+        speedMetersPerSecond: Double,
+        elapsedRealtimeNanos: Long
+    ) {
+        measuredHorizontalAccuracy = horizontalMeters
+        measuredVerticalAccuracy = verticalMeters
+        measuredSpeedAccuracy = speedMetersPerSecond
+        measuredAccuracyElapsedNanos = elapsedRealtimeNanos
+    }
+
+    /**
+     * Takes DOP, speed, altitude and measured accuracy from one [GnssFix] snapshot received at
+     * [elapsedRealtimeNanos]. Values the snapshot lacks keep their last known value.
+     */
+    fun update(source: GnssFix, elapsedRealtimeNanos: Long) {
+        if (!source.hdop.isNaN()) hdop = source.hdop
+        if (!source.vdop.isNaN()) vdop = source.vdop
+        if (!source.speed.isNaN()) speed = source.speed
+        if (!source.altitude.isNaN()) altitude = source.altitude
+        if (source.hasAccuracy()) {
+            setMeasuredAccuracy(
+                source.horizontalAccuracy,
+                source.verticalAccuracy,
+                source.speedAccuracy,
+                elapsedRealtimeNanos
+            )
+        }
+    }
+
+    /**
+     * Fills [fix] for a position received at [nowMillis]/[nowElapsedNanos], measured
+     * [ageNanos] earlier. Returns [RESULT_PUSH], or why the fix should be skipped.
+     */
+    fun compose(
+        latitude: Double,
+        longitude: Double,
+        nowMillis: Long,
+        nowElapsedNanos: Long,
+        ageNanos: Long = 0L,
+        rateLimited: Boolean = true
+    ): Int {
+        if (rateLimited && lastTimeMillis > 0L && nowMillis - lastTimeMillis < minIntervalMillis) {
+            return RESULT_RATE_LIMITED
+        }
+        val elapsedNanos = nowElapsedNanos - ageNanos
+        if (elapsedNanos <= lastElapsedRealtimeNanos) {
+            return RESULT_STALE
+        }
+        val timeMillis = nowMillis - ageNanos / NANOS_PER_MILLI
+        val measured =
+            measuredAccuracyElapsedNanos > 0L &&
+                nowElapsedNanos - measuredAccuracyElapsedNanos <= MEASURED_ACCURACY_MAX_AGE_NS
+
+        val resolvedSpeed = resolveSpeed(latitude, longitude, timeMillis)
+        fix.accuracy = horizontalAccuracy(measured)
+        fix.verticalAccuracy = verticalAccuracy(measured)
+        fix.speedAccuracy =
+            if (measured && !measuredSpeedAccuracy.isNaN()) measuredSpeedAccuracy.toFloat() else Float.NaN
+        if (altitude.isFinite()) fix.altitude = altitude
+        fix.speed = resolvedSpeed
+        fix.latitude = latitude
+        fix.longitude = longitude
+        fix.timeMillis = timeMillis
+        fix.elapsedRealtimeNanos = elapsedNanos
+
+        lastTimeMillis = timeMillis
+        lastElapsedRealtimeNanos = elapsedNanos
+        return RESULT_PUSH
+    }
+
+    fun reset() {
+        fix.latitude = Double.NaN
+        fix.longitude = Double.NaN
+        fix.altitude = Double.NaN
+        lastTimeMillis = 0L
+        lastElapsedRealtimeNanos = 0L
+    }
+
+    private fun horizontalAccuracy(measured: Boolean): Float {
+        if (measured && !measuredHorizontalAccuracy.isNaN()) {
+            return measuredHorizontalAccuracy.toFloat().coerceAtLeast(MIN_MEASURED_ACCURACY_METERS)
+        }
+        val dop = if (hdop.isFinite() && hdop > 0.0) hdop else DEFAULT_HDOP_FALLBACK
+        return (dop * DOP_TO_ACCURACY_METERS).toFloat().coerceIn(MIN_ACCURACY_METERS, MAX_ACCURACY_METERS)
+    }
+
+    private fun verticalAccuracy(measured: Boolean): Float {
+        if (measured && !measuredVerticalAccuracy.isNaN()) {
+            return measuredVerticalAccuracy.toFloat().coerceAtLeast(MIN_MEASURED_ACCURACY_METERS)
+        }
+        if (!vdop.isFinite() || vdop <= 0.0) return Float.NaN
+        return (vdop * DOP_TO_ACCURACY_METERS).toFloat().coerceIn(MIN_ACCURACY_METERS, MAX_ACCURACY_METERS)
+    }
+
+    private fun resolveSpeed(latitude: Double, longitude: Double, timeMillis: Long): Double {
+        if (speed.isFinite() && speed >= 0.0) return speed
+        if (lastTimeMillis <= 0L || !fix.latitude.isFinite() || !fix.longitude.isFinite()) {
+            return Double.NaN
+        }
+        val deltaSeconds = (timeMillis - lastTimeMillis) / 1000.0
+        if (deltaSeconds <= 0.0) return Double.NaN
+        val distance = distanceMeters(fix.latitude, fix.longitude, latitude, longitude)
+        if (distance < MIN_MOVEMENT_THRESHOLD_METERS) return 0.0
+        val estimate = distance / deltaSeconds
+        return if (estimate.isFinite() && estimate >= 0.0) estimate else Double.NaN
+    }
+
+    companion object {
+        const val RESULT_PUSH = 0
+        const val RESULT_RATE_LIMITED = 1
+        const val RESULT_STALE = 2
+
+        const val DEFAULT_MIN_INTERVAL_MS = 200L
+        private const val NANOS_PER_MILLI = 1_000_000L
+        private const val MEASURED_ACCURACY_MAX_AGE_NS = 5_000_000_000L
+        private const val DEFAULT_HDOP_FALLBACK = 1.5
+        private const val DOP_TO_ACCURACY_METERS = 5.0
+        private const val MIN_ACCURACY_METERS = 3f
+        private const val MAX_ACCURACY_METERS = 50f
+        private const val MIN_MEASURED_ACCURACY_METERS = 0.01f
+        private const val MIN_MOVEMENT_THRESHOLD_METERS = 0.1
+        private const val EARTH_RADIUS_METERS = 6_371_008.8
+
+        /** Spherical (haversine) distance, within about 0.5% of Location.distanceBetween. */
+        fun distanceMeters(
+            fromLatitude: Double,
+            fromLongitude: Double,
+            toLatitude: Double,
+            toLongitude: Double
+        ): Double {
+            val dLat = Math.toRadians(toLatitude - fromLatitude)
+            val dLon = Math.toRadians(toLongitude - fromLongitude)
+            val sinLat = Math.sin(dLat / 2)
+            val sinLon = Math.sin(dLon / 2)
+            val a =
+                sinLat * sinLat +
+                    Math.cos(Math.toRadians(fromLatitude)) * Math.cos(Math.toRadians(toLatitude)) * sinLon * sinLon
+            return 2 * EARTH_RADIUS_METERS * Math.asin(Math.min(1.0, Math.sqrt(a)))
+        }
+    }
+}
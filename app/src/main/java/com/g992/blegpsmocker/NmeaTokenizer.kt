@@ -0,0 +1,332 @@
+package com.g992.blegpsmocker
+
+/**
+ * Resumable NMEA 0183 tokenizer for the raw stream a receiver forwards in bridge mode.
+ *
+ * Bytes can be fed in chunks split anywhere; sentence state survives between [feed] calls.
+ * Checksums are computed while bytes arrive and verified at the line end; sentences without
+ * a `*hh` checksum are rejected like corrupted ones, since bridge mode runs over a lossy
+ * link and an unverified sentence can carry a truncated coordinate. Recognised
+ * sentences (GGA, RMC, GSA, GSV, VTG from any talker) are decoded into reused
+ * [CoordinatesPayload]/[StatusPayload] holders, so the listener sees the same shapes as the
+ * JSON and binary paths.
+ *
+ * Fixes are emitted on GGA with speed/course from the RMC/VTG of the same epoch; streams
+ * without GGA emit on RMC instead. GSV levels accumulate per epoch across talkers and are
+ * published when each GSV group completes.
+ */
+internal class NmeaTokenizer(private val listener: Listener) {
+    interface Listener {
+        fun onNmeaFix(payload: CoordinatesPayload)
+        fun onNmeaStatus(payload: StatusPayload)
+    }
+
+    private val sentence = ByteArray(MAX_SENTENCE_LENGTH)
+    private var sentenceLength = 0
+    private var state = STATE_IDLE
+    private var checksum = 0
+    private var expectedChecksum = 0
+    private var hasChecksum = false
+
+    private val fieldStart = IntArray(MAX_FIELDS)
+    private val fieldEnd = IntArray(MAX_FIELDS)
+    private var fieldCount = 0
+
+    private val fix = CoordinatesPayload()
+    private val status = StatusPayload()
+    private val epochSignals = StatusPayload()
+    private var epochTime = Double.NaN
+    private var epochSpeed = Double.NaN
+    private var epochHeading = Double.NaN
+    private var sawGga = false
+    private val completedTalkers = IntArray(MAX_TALKERS)
+    private var completedTalkerCount = 0
+
+    var sentences = 0L
+        private set
+    /** Sentences dropped because the checksum was missing or did not match. */
+    var checksumErrors = 0L
+        private set
+
+    fun reset() {
+        state = STATE_IDLE
+        sentenceLength = 0
+        epochTime = Double.NaN
+        epochSpeed = Double.NaN
+        epochHeading = Double.NaN
+        epochSignals.clear()
+        completedTalkerCount = 0
+        sawGga = false
+    }
+
+    fun feed(data: ByteArray, offset: Int, length: Int) {
+        for (index in offset until offset + length) {
+            val current = data[index].toInt() and 0xFF
+            if (current == '$'.code || current == '!'.code) {
+                startSentence()
+                continue
+            }
+            when (state) {
+                STATE_IDLE -> Unit
+                STATE_BODY -> when (current) {
+                    '*'.code -> state = STATE_CHECKSUM_HIGH
+                    '\r'.code, '\n'.code -> finishSentence()
+                    else -> {
+                        if (sentenceLength == sentence.size) {
+                            state = STATE_IDLE
+                        } else {
+                            sentence[sentenceLength++] = current.toByte()
+                            checksum = checksum xor current
+                        }
+                    }
+                }
+                STATE_CHECKSUM_HIGH -> {
+                    val nibble = hexValue(current)
+                    if (nibble < 0) {
+                        state = STATE_IDLE
+                    } else {
+                        expectedChecksum = nibble shl 4
+                        state = STATE_CHECKSUM_LOW
+                    }
+                }
+                STATE_CHECKSUM_LOW -> {
+                    val nibble = hexValue(current)
+                    if (nibble < 0) {
+                        state = STATE_IDLE
+                    } else {
+                        expectedChecksum = expectedChecksum or nibble
+                        hasChecksum = true
+                        state = STATE_END
+                    }
+                }
+                STATE_END -> if (current == '\r'.code || current == '\n'.code) finishSentence()
+            }
+        }
+    }
+
+    private fun startSentence() {
+        state = STATE_BODY
+        sentenceLength = 0
+        checksum = 0
+        expectedChecksum = 0
+        hasChecksum = false
+    }
+
+    private fun finishSentence() {
+        state = STATE_IDLE
+        if (!hasChecksum || checksum != expectedChecksum) {
+            checksumErrors++
+            return
+        }
+        splitFields()
+        if (fieldCount == 0 || fieldEnd[0] - fieldStart[0] < 5) return
+        sentences++
+        val type = fieldEnd[0] - 3
+        when {
+            typeEquals(type, 'G', 'G', 'A') -> handleGga()
+            typeEquals(type, 'R', 'M', 'C') -> handleRmc()
+            typeEquals(type, 'V', 'T', 'G') -> handleVtg()
+            typeEquals(type, 'G', 'S', 'A') -> handleGsa()
+            typeEquals(type, 'G', 'S', 'V') -> handleGsv()
+        }
+    }
+
+    private fun splitFields() {
+        fieldCount = 0
+        var start = 0
+        for (index in 0..sentenceLength) {
+            if (index == sentenceLength || sentence[index].toInt() == ','.code) {
+                if (fieldCount == MAX_FIELDS) return
+                fieldStart[fieldCount] = start
+                fieldEnd[fieldCount] = index
+                fieldCount++
+                start = index + 1
+            }
+        }
+    }
+
+    // $xxGGA,time,lat,N,lon,E,quality,satellites,hdop,altitude,M,...
+    private fun handleGga() {
+        if (fieldCount < 10) return
+        sawGga = true
+        beginEpoch(number(1))
+        val quality = integer(6)
+        status.clear()
+        if (quality >= 0) status.fix = if (quality > 0) 1 else 0
+        status.hdop = number(8)
+        listener.onNmeaStatus(status)
+        if (quality <= 0) return
+
+        fix.clear()
+        fix.latitude = coordinate(2, 3)
+        fix.longitude = coordinate(4, 5)
+        fix.altitude = number(9)
+        fix.speed = epochSpeed
+        fix.heading = epochHeading
+        if (fix.hasPosition()) listener.onNmeaFix(fix)
+    }
+
+    // $xxRMC,time,status,lat,N,lon,E,speedKnots,course,date,...
+    private fun handleRmc() {
+        if (fieldCount < 9) return
+        beginEpoch(number(1))
+        val speedKnots = number(7)
+        if (!speedKnots.isNaN()) epochSpeed = speedKnots * KNOTS_TO_METERS_PER_SECOND
+        val course = number(8)
+        if (!course.isNaN()) epochHeading = course
+        if (sawGga || !fieldEquals(2, 'A')) return
+
+        fix.clear()
+        fix.latitude = coordinate(3, 4)
+        fix.longitude = coordinate(5, 6)
+        fix.speed = epochSpeed
+        fix.heading = epochHeading
+        if (fix.hasPosition()) listener.onNmeaFix(fix)
+    }
+
+    // $xxVTG,courseTrue,T,courseMagnetic,M,speedKnots,N,speedKmh,K,...
+    private fun handleVtg() {
+        if (fieldCount < 8) return
+        val course = number(1)
+        if (!course.isNaN()) epochHeading = course
+        val speedKmh = number(7)
+        if (!speedKmh.isNaN()) epochSpeed = speedKmh / KMH_PER_METER_PER_SECOND
+    }
+
+    // $xxGSA,mode,fixType,sv1..sv12,pdop,hdop,vdop
+    private fun handleGsa() {
+        if (fieldCount < 18) return
+        status.clear()
+        val fixType = integer(2)
+        if (fixType > 0) status.fix = if (fixType >= 2) 1 else 0
+        status.hdop = number(16)
+        status.vdop = number(17)
+        listener.onNmeaStatus(status)
+    }
+
+    // $xxGSV,totalMessages,messageNumber,inView,(prn,elevation,azimuth,snr)x1..4
+    private fun handleGsv() {
+        if (fieldCount < 4) return
+        val total = integer(1)
+        val number = integer(2)
+        val talker = (sentence[fieldStart[0]].toInt() shl 8) or sentence[fieldStart[0] + 1].toInt()
+        if (number == 1 && isTalkerCompleted(talker)) {
+            // The same constellation again without a time-bearing sentence: a new epoch.
+            epochSignals.clear()
+            completedTalkerCount = 0
+        }
+        var field = 4
+        while (field + 3 < fieldCount) {
+            if (fieldEnd[field] > fieldStart[field]) {
+                val snr = integer(field + 3)
+                epochSignals.addSignal(if (snr < 0) 0 else snr)
+            }
+            field += 4
+        }
+        if (total > 0 && number == total) {
+            if (completedTalkerCount < completedTalkers.size) {
+                completedTalkers[completedTalkerCount++] = talker
+            }
+            status.clear()
+            status.hasSignals = true
+            for (index in 0 until epochSignals.signalCount) {
+                status.addSignal(epochSignals.signals[index])
+            }
+            listener.onNmeaStatus(status)
+        }
+    }
+
+    private fun beginEpoch(time: Double) {
+        if (time.isNaN() || time == epochTime) return
+        epochTime = time
+        epochSpeed = Double.NaN
+        epochHeading = Double.NaN
+        epochSignals.clear()
+        completedTalkerCount = 0
+    }
+
+    private fun isTalkerCompleted(talker: Int): Boolean {
+        for (index in 0 until completedTalkerCount) {
+            if (completedTalkers[index] == talker) return true
+        }
+        return false
+    }
+
+    private fun typeEquals(start: Int, first: Char, second: Char, third: Char): Boolean =
+        sentence[start].toInt() == first.code &&
+            sentence[start + 1].toInt() == second.code &&
+            sentence[start + 2].toInt() == third.code
+
+    private fun fieldEquals(field: Int, value: Char): Boolean =
+        field < fieldCount &&
+            fieldEnd[field] - fieldStart[field] == 1 &&
+            sentence[fieldStart[field]].toInt() == value.code
+
+    private fun number(field: Int): Double {
+        if (field >= fieldCount) return Double.NaN
+        val start = fieldStart[field]
+        val end = fieldEnd[field]
+        if (start == end) return Double.NaN
+        var hasDigit = false
+        for (index in start until end) {
+            val current = sentence[index].toInt()
+            if (current in '0'.code..'9'.code) {
+                hasDigit = true
+            } else if (current != '.'.code && current != '-'.code) {
+                return Double.NaN
+            }
+        }
+        // A lone "." or "-" is an empty field, not zero.
+        if (!hasDigit) return Double.NaN
+        return try {
+            FastDoubleParser.parse(sentence, start, end)
+        } catch (_: NumberFormatException) {
+            Double.NaN
+        }
+    }
+
+    private fun integer(field: Int): Int {
+        if (field >= fieldCount) return -1
+        val start = fieldStart[field]
+        val end = fieldEnd[field]
+        if (start == end) return -1
+        var value = 0
+        for (index in start until end) {
+            val digit = sentence[index] - '0'.code.toByte()
+            if (digit < 0 || digit > 9) return -1
+            value = value * 10 + digit
+        }
+        return value
+    }
+
+    /** `ddmm.mmmm` / `dddmm.mmmm` plus hemisphere letter to signed decimal degrees. */
+    private fun coordinate(valueField: Int, hemisphereField: Int): Double {
+        val raw = number(valueField)
+        if (raw.isNaN()) return Double.NaN
+        val degrees = Math.floor(raw / 100.0)
+        val value = degrees + (raw - degrees * 100.0) / 60.0
+        return if (fieldEquals(hemisphereField, 'S') || fieldEquals(hemisphereField, 'W')) -value else value
+    }
+
+    private fun hexValue(value: Int): Int =
+        when (value) {
+            in '0'.code..'9'.code -> value - '0'.code
+            in 'A'.code..'F'.code -> value - 'A'.code + 10
+            in 'a'.code..'f'.code -> value - 'a'.code + 10
+            else -> -1
+        }
+
+    companion object {
+        private const val MAX_SENTENCE_LENGTH = 128
+        private const val MAX_FIELDS = 40
+        private const val MAX_TALKERS = 8
+        private const val KNOTS_TO_METERS_PER_SECOND = 0.514444
+        private const val KMH_PER_METER_PER_SECOND = 3.6
+
+        private const val STATE_IDLE = 0
+        private const val STATE_BODY = 1
+        private const val STATE_CHECKSUM_HIGH = 2
+        private const val STATE_CHECKSUM_LOW = 3
+        private const val STATE_END = 4
+    }
+}
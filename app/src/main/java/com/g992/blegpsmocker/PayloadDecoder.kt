@@ -0,0 +1,407 @@
+package com.g992.blegpsmocker
+
+/**
+ * Turns the receiver's values into [listener] calls. Coordinates and status go through
+ * fragment reassembly and the optional sequence/CRC envelope, then batch, delta, binary and
+ * strict JSON frames, with org.json as the last resort. The bridge stream goes to the UBX and
+ * NMEA decoders, and setting values are read as plain text. Fixes are fused with the latest
+ * status into one reused [GnssFix] before the listener sees them.
+ *
+ * Free of Android so unit tests and the benchmarks run the decode chain the app ships. Not
+ * thread-safe: [ConnectionManager] feeds it from its ingest thread only; [listener],
+ * [wireProtocolVersion] and the fix rate may be set from any thread.
+ */
+internal class PayloadDecoder(
+    private val logger: Logger,
+    private val fixRateListener: FixRateListener
+) {
+    fun interface FixRateListener {
+        /** The fix rate measured from the stream changed to [hz]. */
+        fun onFixRateMeasured(hz: Int)
+    }
+
+    @Volatile
+    var listener: GnssDataListener? = null
+
+    /** Wire protocol the receiver last confirmed on its protocol characteristic. */
+    @Volatile
+    var wireProtocolVersion = BinaryFrameCodec.PROTOCOL_VERSION_JSON
+
+    private val tag = "PayloadDecoder"
+    private val coordinatesParser = CoordinatesPayloadParser()
+    private val coordinatesPayload = CoordinatesPayload()
+    private val statusParser = StatusPayloadParser()
+    private val statusPayload = StatusPayload()
+    private val fixFuser = GnssFixFuser()
+    // The listener is done with it when onFix returns.
+    private val fix = GnssFix()
+
+    /** Spacing of the records in a delta frame; from the last measured fix rate. */
+    @Volatile
+    private var fixIntervalNanos = NANOS_PER_SECOND / DEFAULT_FIX_RATE_HZ
+    private val fixRate = FixRateEstimator()
+    // Status repeats the revision; the listener hears only changes.
+    private var lastConfigRevision = -1L
+    // Time of the value being decoded, for fragment timeouts and the fix rate.
+    private var nowMillis = 0L
+    private val deltaDecoder = DeltaStreamDecoder()
+    private val batchDecoder = FixBatchDecoder()
+    private val coordinatesReassembler = FrameReassembler()
+    private val statusReassembler = FrameReassembler()
+    private val coordinatesSequence = SequenceTracker()
+    private val statusSequence = SequenceTracker()
+    private val nmeaTokenizer =
+        NmeaTokenizer(
+            object : NmeaTokenizer.Listener {
+                override fun onNmeaFix(payload: CoordinatesPayload) = dispatchCoordinates(payload)
+
+                override fun onNmeaStatus(payload: StatusPayload) = dispatchStatus(payload)
+            }
+        )
+    private val ubxDecoder =
+        UbxDecoder(
+            object : UbxDecoder.Listener {
+                override fun onUbxFix(payload: CoordinatesPayload) = dispatchCoordinates(payload)
+
+                override fun onUbxStatus(payload: StatusPayload) = dispatchStatus(payload)
+            },
+            nmeaTokenizer::feed
+        )
+
+    val deltaStreamGaps: Long
+        get() = deltaDecoder.gaps
+
+    val droppedFragmentedPayloads: Long
+        get() = coordinatesReassembler.dropped + statusReassembler.dropped
+
+    val nmeaChecksumErrors: Long
+        get() = nmeaTokenizer.checksumErrors
+
+    val ubxChecksumErrors: Long
+        get() = ubxDecoder.checksumErrors
+
+    fun coordinatesIntegrityStats(): StreamIntegrityStats = coordinatesSequence.snapshot()
+
+    fun statusIntegrityStats(): StreamIntegrityStats = statusSequence.snapshot()
+
+    /** Seeds the delta frame spacing until the stream has been measured. */
+    fun setFixRateHz(hz: Int) {
+        fixIntervalNanos = NANOS_PER_SECOND / hz
+    }
+
+    /**
+     * Decodes one value of [role] received at [nowMillis], on the
+     * [android.os.SystemClock.elapsedRealtime] clock. [data] is only read during the call.
+     */
+    fun decode(role: CharacteristicRole, data: ByteArray, offset: Int, length: Int, nowMillis: Long) {
+        this.nowMillis = nowMillis
+        val reassembler =
+            when (role) {
+                CharacteristicRole.BRIDGE_STREAM -> {
+                    ubxDecoder.feed(data, offset, length)
+                    return
+                }
+                CharacteristicRole.COORDINATES -> coordinatesReassembler
+                CharacteristicRole.STATUS -> statusReassembler
+                else -> {
+                    parsePayload(role, data, offset, length)
+                    return
+                }
+            }
+        if (reassembler.isFragment(data, offset, length)) {
+            if (reassembler.accept(data, offset, length, nowMillis)) {
+                parseStreamPayload(role, reassembler.payload, 0, reassembler.payloadLength)
+            }
+            return
+        }
+        parseStreamPayload(role, data, offset, length)
+    }
+
+    /**
+     * A new connection is ready: drops bridge stream and fusion state and grows the batch
+     * decoder up front to the [maxBatchRecords] one notification can carry.
+     */
+    fun prepare(maxBatchRecords: Int) {
+        ubxDecoder.reset()
+        nmeaTokenizer.reset()
+        fixFuser.reset()
+        batchDecoder.reserve(maxBatchRecords)
+    }
+
+    /** The next delta frame starts a new stream; sent before asking for a new protocol. */
+    fun resetDeltaStream() {
+        deltaDecoder.reset()
+    }
+
+    /** Forgets everything of the previous connection. */
+    fun reset() {
+        deltaDecoder.reset()
+        coordinatesReassembler.reset()
+        statusReassembler.reset()
+        ubxDecoder.reset()
+        nmeaTokenizer.reset()
+        fixFuser.reset()
+        fixRate.reset()
+        lastConfigRevision = -1L
+    }
+
+    /**
+     * Checks the optional sequence/CRC envelope of coordinates and status payloads.
+     * Corrupt, duplicate and stale frames are dropped here, before any listener sees them.
+     */
+    private fun parseStreamPayload(
+        role: CharacteristicRole,
+        data: ByteArray,
+        offset: Int,
+        length: Int
+    ) {
+        if (!FrameEnvelope.isEnveloped(data, offset, length)) {
+            parsePayload(role, data, offset, length)
+            return
+        }
+        val tracker =
+            if (role == CharacteristicRole.COORDINATES) coordinatesSequence else statusSequence
+        if (!FrameEnvelope.isCrcValid(data, offset, length)) {
+            tracker.recordCrcError()
+            logger.w(tag, "CRC mismatch on $role frame ($length bytes), dropping")
+            return
+        }
+        if (!tracker.accept(FrameEnvelope.sequence(data, offset))) {
+            return
+        }
+        parsePayload(
+            role,
+            data,
+            offset + FrameEnvelope.HEADER_SIZE,
+            length - FrameEnvelope.OVERHEAD
+        )
+    }
+
+    private fun parsePayload(role: CharacteristicRole, data: ByteArray, offset: Int, length: Int) {
+        when (role) {
+            CharacteristicRole.COORDINATES -> if (decodeCoordinatesFrame(data, offset, length)) return
+            CharacteristicRole.STATUS -> if (decodeStatusFrame(data, offset, length)) return
+            else -> Unit
+        }
+        val stringValue = String(data, offset, length, Charsets.UTF_8).trim()
+        logger.d(tag, "Incoming payload for $role: $stringValue")
+        try {
+            when (role) {
+                CharacteristicRole.COORDINATES -> handleCoordinatesPayload(stringValue)
+                CharacteristicRole.STATUS -> handleStatusPayload(stringValue)
+                CharacteristicRole.AP_CONTROL -> {
+                    val enabled = stringValue == "1"
+                    listener?.onApControlChanged(enabled)
+                }
+                CharacteristicRole.MODE_CONTROL -> {
+                    val enabled = stringValue == "1"
+                    listener?.onBridgeModeChanged(enabled)
+                }
+                CharacteristicRole.GPS_BAUD -> {
+                    val baudRate = stringValue.toIntOrNull()
+                    if (baudRate != null) {
+                        listener?.onGpsBaudRateChanged(baudRate)
+                    } else {
+                        logger.w(tag, "Invalid GPS baud payload: $stringValue")
+                    }
+                }
+                CharacteristicRole.PROTOCOL -> {
+                    val version = stringValue.toIntOrNull()
+                    if (version != null) {
+                        wireProtocolVersion = version
+                        logger.i(tag, "Receiver wire protocol set to v$version")
+                    } else {
+                        logger.w(tag, "Invalid protocol payload: $stringValue")
+                    }
+                }
+                else -> logger.d(tag, "No specific parsing for $role")
+            }
+        } catch (exception: Exception) {
+            logger.e(tag, "Error parsing data for $role, value: $stringValue", exception)
+            listener?.onError("Error parsing data for $role: ${exception.localizedMessage}")
+        }
+    }
+
+    /** Returns false when the frame is neither binary nor strict JSON and needs org.json. */
+    private fun decodeCoordinatesFrame(data: ByteArray, offset: Int, length: Int): Boolean {
+        if (batchDecoder.isBatchFrame(data, offset, length)) {
+            val count = batchDecoder.decode(data, offset, length)
+            if (count < 0) {
+                logger.w(tag, "Invalid coordinate batch frame ($length bytes)")
+            } else if (count > 0) {
+                dispatchBatch(count)
+            }
+            return true
+        }
+        if (deltaDecoder.isStreamFrame(data, offset, length)) {
+            val count = deltaDecoder.decode(data, offset, length)
+            if (count < 0) {
+                logger.w(tag, "Invalid coordinate stream frame ($length bytes)")
+            } else if (count == 1) {
+                dispatchCoordinates(deltaDecoder.fix(0))
+            } else if (count > 1) {
+                dispatchDeltas(count)
+            }
+            return true
+        }
+        if (BinaryFrameCodec.isBinaryFrame(data, offset, length)) {
+            if (BinaryFrameCodec.decodeCoordinates(data, offset, length, coordinatesPayload)) {
+                dispatchCoordinates(coordinatesPayload)
+            } else {
+                logger.w(tag, "Invalid binary coordinates frame ($length bytes)")
+            }
+            return true
+        }
+        if (!coordinatesParser.parse(data, offset, length, coordinatesPayload)) return false
+        dispatchCoordinates(coordinatesPayload)
+        return true
+    }
+
+    private fun decodeStatusFrame(data: ByteArray, offset: Int, length: Int): Boolean {
+        if (BinaryFrameCodec.isBinaryFrame(data, offset, length)) {
+            if (BinaryFrameCodec.decodeStatus(data, offset, length, statusPayload)) {
+                dispatchStatus(statusPayload)
+            } else {
+                logger.w(tag, "Invalid binary status frame ($length bytes)")
+            }
+            return true
+        }
+        if (!statusParser.parse(data, offset, length, statusPayload)) return false
+        dispatchStatus(statusPayload)
+        return true
+    }
+
+    /**
+     * Dispatches a batch oldest first. The newest fix is taken as received now and earlier
+     * ones are aged by their device-time distance to it.
+     */
+    private fun dispatchBatch(count: Int) {
+        val listener = listener ?: return
+        val newestTime = batchDecoder.fix(count - 1).deviceTimeMillis
+        for (index in 0 until count) {
+            val payload = batchDecoder.fix(index)
+            if (!payload.hasPosition()) continue
+            val ageNanos = (newestTime - payload.deviceTimeMillis) * NANOS_PER_MILLI
+            publishFix(listener, payload, ageNanos, batched = true)
+        }
+    }
+
+    /**
+     * Dispatches the records of one delta frame oldest first. They arrive together but were
+     * measured one fix interval apart, so each is aged by its distance to the newest record
+     * and passed on as batched: live fixes this close together would all but the first be
+     * dropped by the mock rate limit.
+     */
+    private fun dispatchDeltas(count: Int) {
+        val listener = listener ?: return
+        val interval = fixIntervalNanos
+        for (index in 0 until count) {
+            val ageNanos = (count - 1 - index) * interval
+            publishFix(listener, deltaDecoder.fix(index), ageNanos, batched = true)
+        }
+    }
+
+    /**
+     * Fuses [payload] into the reused [fix] record. The listener pushes the fix to the mock
+     * providers before onFix returns, so the record is free again right after the call.
+     */
+    private fun publishFix(
+        listener: GnssDataListener,
+        payload: CoordinatesPayload,
+        ageNanos: Long = 0L,
+        batched: Boolean = false
+    ) {
+        fixFuser.fuse(payload, fix, ageNanos, batched)
+        listener.onFix(fix)
+        if (fixRate.onFix(nowMillis)) {
+            val hz = fixRate.rateHz
+            fixIntervalNanos = NANOS_PER_SECOND / hz
+            fixRateListener.onFixRateMeasured(hz)
+        }
+    }
+
+    private fun handleCoordinatesPayload(raw: String) {
+        try {
+            JsonPayloadFallback.readCoordinates(raw, coordinatesPayload)
+            dispatchCoordinates(coordinatesPayload)
+        } catch (exception: Exception) {
+            logger.w(tag, "Invalid Navigation JSON: $raw", exception)
+        }
+    }
+
+    private fun dispatchCoordinates(payload: CoordinatesPayload) {
+        if (logger.isLoggable(tag, Logger.VERBOSE)) {
+            logger.v(
+                tag,
+                "Coordinates payload parsed lt=${payload.latitude} lg=${payload.longitude} spd=${payload.speed} alt=${payload.altitude}"
+            )
+        }
+        val listener = listener ?: return
+        if (payload.hasPosition()) {
+            publishFix(listener, payload)
+            return
+        }
+        // Frames without a position still carry values the next fix may fall back on.
+        if (!payload.heading.isNaN()) {
+            listener.onHeadingReceived(payload.heading)
+        }
+        if (!payload.speed.isNaN()) {
+            listener.onSpeedReceived(payload.speed)
+        }
+        if (!payload.altitude.isNaN()) {
+            listener.onAltitudeReceived(payload.altitude)
+        }
+    }
+
+    private fun handleStatusPayload(raw: String) {
+        try {
+            JsonPayloadFallback.readStatus(raw, statusPayload)
+            dispatchStatus(statusPayload)
+        } catch (exception: Exception) {
+            logger.w(tag, "Invalid Status JSON: $raw", exception)
+        }
+    }
+
+    private fun dispatchStatus(payload: StatusPayload) {
+        if (logger.isLoggable(tag, Logger.DEBUG)) {
+            logger.d(
+                tag,
+                "Status payload parsed fix=${payload.fix} hdop=${payload.hdop} signals=${payload.signalCount}"
+            )
+        }
+        fixFuser.updateStatus(payload)
+        val listener = listener ?: return
+        val fixValue = payload.fix
+        if (fixValue != -1) {
+            listener.onFixStatusReceived(fixValue, if (fixValue == 1) 1 else 0)
+        }
+        if (!payload.hdop.isNaN()) {
+            listener.onHdopReceived(payload.hdop)
+        }
+        if (!payload.vdop.isNaN()) {
+            listener.onVdopReceived(payload.vdop)
+        }
+        if (payload.hasSignals) {
+            listener.onSignalLevelsReceived(payload.signals, payload.signalCount)
+        }
+        if (payload.configRevision >= 0L && payload.configRevision != lastConfigRevision) {
+            lastConfigRevision = payload.configRevision
+            listener.onConfigRevisionReceived(payload.configRevision)
+        }
+        if (payload.hasTtff) {
+            if (logger.isLoggable(tag, Logger.DEBUG)) {
+                logger.d(tag, "TTFF: ${payload.ttffSeconds}")
+            }
+            try {
+                listener.onTtffReceived(payload.ttffSeconds)
+            } catch (_: Exception) {
+            }
+        }
+    }
+
+    companion object {
+        const val DEFAULT_FIX_RATE_HZ = 1
+        private const val NANOS_PER_MILLI = 1_000_000L
+        private const val NANOS_PER_SECOND = 1_000_000_000L
+    }
+}
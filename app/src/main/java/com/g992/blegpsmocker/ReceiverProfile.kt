@@ -0,0 +1,191 @@
+package com.g992.blegpsmocker
+
+import android.bluetooth.BluetoothGatt
+import android.bluetooth.BluetoothGattCharacteristic
+import android.bluetooth.BluetoothGattService
+import java.util.UUID
+
+/**
+ * One characteristic of a receiver profile. [access] is a mask of the ACCESS_* flags and
+ * bounds what [GattSession] issues on it; notifying characteristics are subscribed in
+ * ascending [subscribePriority] order.
+ */
+class CharacteristicSpec(
+    val uuid: UUID,
+    val role: CharacteristicRole,
+    val access: Int,
+    val subscribePriority: Int = NO_SUBSCRIPTION
+) {
+    val readable: Boolean
+        get() = (access and ACCESS_READ) != 0
+
+    val writable: Boolean
+        get() = (access and ACCESS_WRITE) != 0
+
+    val notifies: Boolean
+        get() = (access and ACCESS_NOTIFY) != 0
+
+    companion object {
+        const val ACCESS_READ = 1
+        const val ACCESS_WRITE = 1 shl 1
+        const val ACCESS_NOTIFY = 1 shl 2
+        const val NO_SUBSCRIPTION = Int.MAX_VALUE
+    }
+}
+
+/** A receiver family: the primary service and the characteristics we use on it. */
+class ReceiverProfile(
+    val name: String,
+    val serviceUuid: UUID,
+    val characteristics: List<CharacteristicSpec>
+) {
+    /** Notifying characteristics in subscription order. */
+    val subscriptions: List<CharacteristicSpec> =
+        characteristics.filter { it.notifies }.sortedBy { it.subscribePriority }
+
+    fun spec(role: CharacteristicRole): CharacteristicSpec? {
+        for (spec in characteristics) {
+            if (spec.role == role) return spec
+        }
+        return null
+    }
+}
+
+/** Known receiver families, tried in order when services are discovered. */
+object ReceiverProfiles {
+    private const val READ = CharacteristicSpec.ACCESS_READ
+    private const val WRITE = CharacteristicSpec.ACCESS_WRITE
+    private const val NOTIFY = CharacteristicSpec.ACCESS_NOTIFY
+
+    val GPS_C3 =
+        ReceiverProfile(
+            "GPS-C3",
+            BleUuids.GPS_SERVICE_UUID,
+            listOf(
+                CharacteristicSpec(
+                    BleUuids.CHAR_COORDINATES_UUID,
+                    CharacteristicRole.COORDINATES,
+                    READ or NOTIFY,
+                    0
+                ),
+                CharacteristicSpec(
+                    BleUuids.CHAR_STATUS_UUID,
+                    CharacteristicRole.STATUS,
+                    READ or NOTIFY,
+                    1
+                ),
+                CharacteristicSpec(
+                    BleUuids.CHAR_NMEA_UUID,
+                    CharacteristicRole.BRIDGE_STREAM,
+                    NOTIFY,
+                    2
+                ),
+                CharacteristicSpec(
+                    BleUuids.CHAR_AP_CONTROL_UUID,
+                    CharacteristicRole.AP_CONTROL,
+                    READ or WRITE
+                ),
+                CharacteristicSpec(
+                    BleUuids.CHAR_MODE_CONTROL_UUID,
+                    CharacteristicRole.MODE_CONTROL,
+                    READ or WRITE
+                ),
+                CharacteristicSpec(
+                    BleUuids.CHAR_GPS_BAUD_UUID,
+                    CharacteristicRole.GPS_BAUD,
+                    READ or WRITE
+                ),
+                CharacteristicSpec(
+                    BleUuids.CHAR_KEEPALIVE_UUID,
+                    CharacteristicRole.KEEPALIVE,
+                    WRITE or NOTIFY,
+                    4
+                ),
+                CharacteristicSpec(
+                    BleUuids.CHAR_PROTOCOL_UUID,
+                    CharacteristicRole.PROTOCOL,
+                    READ or WRITE
+                ),
+                CharacteristicSpec(
+                    BleUuids.CHAR_RPC_UUID,
+                    CharacteristicRole.RPC,
+                    WRITE or NOTIFY,
+                    3
+                )
+            )
+        )
+
+    /** Units that only expose a Nordic UART Service and stream NMEA/UBX on its TX side. */
+    val NORDIC_UART =
+        ReceiverProfile(
+            "Nordic UART",
+            BleUuids.NUS_SERVICE_UUID,
+            listOf(
+                CharacteristicSpec(
+                    BleUuids.NUS_TX_UUID,
+                    CharacteristicRole.BRIDGE_STREAM,
+                    NOTIFY,
+                    0
+                )
+            )
+        )
+
+    val ALL: List<ReceiverProfile> = listOf(GPS_C3, NORDIC_UART)
+}
+
+/**
+ * A profile bound to one connection's GATT objects. Characteristics are looked up once after
+ * service discovery; afterwards roles resolve by slot and incoming characteristics by their
+ * attribute handle ([BluetoothGattCharacteristic.getInstanceId]), both plain array reads.
+ */
+internal class ResolvedProfile private constructor(
+    val profile: ReceiverProfile,
+    val service: BluetoothGattService,
+    private val bySlot: Array<BluetoothGattCharacteristic?>,
+    private val roleByHandle: Array<CharacteristicRole?>
+) {
+    fun characteristic(role: CharacteristicRole): BluetoothGattCharacteristic? = bySlot[role.ordinal]
+
+    fun roleOf(characteristic: BluetoothGattCharacteristic): CharacteristicRole? {
+        val handle = characteristic.instanceId
+        if (handle in roleByHandle.indices) return roleByHandle[handle]
+        // Handles above MAX_INDEXED_HANDLE are not in the table.
+        for (spec in profile.characteristics) {
+            if (bySlot[spec.role.ordinal] === characteristic) return spec.role
+        }
+        return null
+    }
+
+    companion object {
+        /** Highest attribute handle we index directly; GATT servers on receivers stay far below. */
+        private const val MAX_INDEXED_HANDLE = 0x3FF
+
+        fun resolve(gatt: BluetoothGatt): ResolvedProfile? {
+            for (profile in ReceiverProfiles.ALL) {
+                val service = gatt.getService(profile.serviceUuid) ?: continue
+                return bind(profile, service)
+            }
+            return null
+        }
+
+        private fun bind(profile: ReceiverProfile, service: BluetoothGattService): ResolvedProfile {
+            val bySlot = arrayOfNulls<BluetoothGattCharacteristic>(CharacteristicRole.entries.size)
+            var maxHandle = -1
+            for (spec in profile.characteristics) {
+                val characteristic = service.getCharacteristic(spec.uuid) ?: continue
+                bySlot[spec.role.ordinal] = characteristic
+                if (characteristic.instanceId <= MAX_INDEXED_HANDLE) {
+                    maxHandle = maxOf(maxHandle, characteristic.instanceId)
+                }
+            }
+            val roleByHandle = arrayOfNulls<CharacteristicRole>(maxHandle + 1)
+            for (spec in profile.characteristics) {
+                val characteristic = bySlot[spec.role.ordinal] ?: continue
+                if (characteristic.instanceId <= maxHandle) {
+                    roleByHandle[characteristic.instanceId] = spec.role
+                }
+            }
+            return ResolvedProfile(profile, service, bySlot, roleByHandle)
+        }
+    }
+}
@@ -0,0 +1,75 @@
+package com.g992.blegpsmocker
+
+/**
+ * Last-writer-wins layer in front of setting changes. Each setting has at most one change on
+ * the link. Values requested while it is in flight only replace the desired value. Once the
+ * receiver confirms or refuses the change, the latest desired value is sent, unless it is the
+ * value just sent. A burst of switch flips or dropdown steps therefore costs at most two
+ * writes, the first and the last.
+ *
+ * Every callback of a burst runs once, with the outcome of the last change sent: callers
+ * only care about the state the receiver ended up in, not about intermediate values.
+ *
+ * Not thread-safe: call [submit] and deliver [Sender] results on one thread.
+ */
+internal class SettingCoalescer(private val sender: Sender) {
+    fun interface Sender {
+        /** Sends [value] for [role]; false when it could not be sent. */
+        fun send(role: CharacteristicRole, value: String, callback: SettingChangeCallback): Boolean
+    }
+
+    private inner class Slot(val role: CharacteristicRole) {
+        var inFlightValue: String? = null
+        var desiredValue: String? = null
+        val callbacks = ArrayList<SettingChangeCallback>(2)
+        val completion = SettingChangeCallback { success, value -> onResult(this, success, value) }
+    }
+
+    private val slots = HashMap<CharacteristicRole, Slot>()
+
+    /**
+     * Requests [value] for [role]. Returns false when nothing is in flight and the change could
+     * not be sent; [callback] does not run in that case.
+     */
+    fun submit(role: CharacteristicRole, value: String, callback: SettingChangeCallback?): Boolean {
+        val slot = slots.getOrPut(role) { Slot(role) }
+        if (slot.inFlightValue != null) {
+            slot.desiredValue = value
+            callback?.let { slot.callbacks.add(it) }
+            return true
+        }
+        if (!send(slot, value)) return false
+        callback?.let { slot.callbacks.add(it) }
+        return true
+    }
+
+    private fun onResult(slot: Slot, success: Boolean, value: String?) {
+        val sent = slot.inFlightValue ?: return
+        slot.inFlightValue = null
+        val next = slot.desiredValue
+        slot.desiredValue = null
+        if (next != null && next != sent) {
+            if (send(slot, next)) return
+            // The latest value never reached the receiver, so the burst did not take effect.
+            deliver(slot, false, null)
+            return
+        }
+        deliver(slot, success, value)
+    }
+
+    private fun deliver(slot: Slot, success: Boolean, value: String?) {
+        if (slot.callbacks.isEmpty()) return
+        val callbacks = slot.callbacks.toTypedArray()
+        slot.callbacks.clear()
+        for (callback in callbacks) {
+            callback.onSettingChangeResult(success, value)
+        }
+    }
+
+    private fun send(slot: Slot, value: String): Boolean {
+        slot.inFlightValue = value
+        if (sender.send(slot.role, value, slot.completion)) return true
+        slot.inFlightValue = null
+        return false
+    }
+}
@@ -0,0 +1,116 @@
+package com.g992.blegpsmocker
+
+/** Outcome of a setting change; [value] is what the receiver reports it applied, if known. */
+fun interface SettingChangeCallback {
+    fun onSettingChangeResult(success: Boolean, value: String?)
+}
+
+/**
+ * Request/response layer for setting changes over the RPC characteristic.
+ *
+ * Requests are written as `<id>:<key>=<value>`. The receiver notifies
+ * `<id>:<key>=<applied value>` once the change took effect, or `<id>:<key>!<reason>` when it
+ * refused it. IDs correlate responses with requests, so up to [maxInFlight] changes can be
+ * pending at once and each one confirms in a single round trip. Requests with no response
+ * within [timeoutMillis] fail.
+ *
+ * Thread-safe: requests come from the caller's thread, responses from the ingest thread and
+ * timeouts from the scheduler's.
+ */
+internal class SettingsRpc(
+    private val scheduler: GattOperationQueue.Scheduler,
+    private val maxInFlight: Int = DEFAULT_MAX_IN_FLIGHT,
+    private val timeoutMillis: Long = DEFAULT_TIMEOUT_MS
+) {
+    /** Receives the applied value before the request's callback runs. */
+    fun interface ResponseListener {
+        fun onSettingApplied(key: String, data: ByteArray, offset: Int, length: Int)
+    }
+
+    private inner class Pending {
+        var id = 0
+        var callback: SettingChangeCallback? = null
+        val timeout = Runnable { finish(id, false, null) }
+    }
+
+    private val lock = Any()
+    private val slots = Array(maxInFlight) { Pending() }
+    private var nextId = 1
+
+    /** Registers a request and returns its ID, or -1 when [maxInFlight] requests are pending. */
+    fun begin(callback: SettingChangeCallback?): Int {
+        synchronized(lock) {
+            val slot = slots.firstOrNull { it.id == 0 } ?: return -1
+            val id = nextId
+            nextId = if (nextId == MAX_ID) 1 else nextId + 1
+            slot.id = id
+            slot.callback = callback
+            scheduler.schedule(slot.timeout, timeoutMillis)
+            return id
+        }
+    }
+
+    /** Fails request [id], e.g. when its write could not be delivered. */
+    fun fail(id: Int) {
+        finish(id, false, null)
+    }
+
+    /** Parses one notification; returns false when it is not a well-formed response. */
+    fun onResponse(data: ByteArray, offset: Int, length: Int, listener: ResponseListener): Boolean {
+        val end = offset + length
+        var index = offset
+        var id = 0
+        while (index < end && data[index] in DIGIT_0..DIGIT_9) {
+            id = id * 10 + (data[index] - DIGIT_0)
+            if (id > MAX_ID) return false
+            index++
+        }
+        if (index == offset || index == end || data[index] != COLON) return false
+        val keyStart = ++index
+        while (index < end && data[index] != EQUALS && data[index] != BANG) index++
+        if (index == end || index == keyStart) return false
+        val key = String(data, keyStart, index - keyStart, Charsets.US_ASCII)
+        val accepted = data[index] == EQUALS
+        val valueStart = index + 1
+        val value = String(data, valueStart, end - valueStart, Charsets.UTF_8).trim()
+        if (accepted) {
+            listener.onSettingApplied(key, data, valueStart, end - valueStart)
+        }
+        finish(id, accepted, value)
+        return true
+    }
+
+    /** Fails every pending request, e.g. on disconnect. */
+    fun clear() {
+        for (slot in slots) {
+            val id = synchronized(lock) { slot.id }
+            if (id != 0) finish(id, false, null)
+        }
+    }
+
+    private fun finish(id: Int, success: Boolean, value: String?) {
+        val callback: SettingChangeCallback?
+        synchronized(lock) {
+            val slot = slots.firstOrNull { it.id == id } ?: return
+            scheduler.cancel(slot.timeout)
+            callback = slot.callback
+            slot.id = 0
+            slot.callback = null
+        }
+        callback?.onSettingChangeResult(success, value)
+    }
+
+    companion object {
+        const val DEFAULT_MAX_IN_FLIGHT = 8
+        const val DEFAULT_TIMEOUT_MS = 3_000L
+        private const val MAX_ID = 0xFFFF
+        private const val DIGIT_0 = '0'.code.toByte()
+        private const val DIGIT_9 = '9'.code.toByte()
+        private const val COLON = ':'.code.toByte()
+        private const val EQUALS = '='.code.toByte()
+        private const val BANG = '!'.code.toByte()
+
+        fun encodeRequest(id: Int, key: String, value: String): ByteArray =
+            "$id:$key=$value".toByteArray(Charsets.UTF_8)
+    }
+}
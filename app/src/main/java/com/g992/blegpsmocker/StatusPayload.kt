@@ -0,0 +1,129 @@
+package com.g992.blegpsmocker
+
+/**
+ * Fields of one status notification. [signals] is reused between notifications;
+ * only the first [signalCount] entries are valid.
+ */
+class StatusPayload {
+    var fix = -1
+    var hdop = Double.NaN
+    var vdop = Double.NaN
+    var ttffSeconds = 0L
+    var hasTtff = false
+    var hasSignals = false
+    var signalCount = 0
+
+    /** Receiver's settings revision, bumped on every settings change; -1 when not reported. */
+    var configRevision = -1L
+    var signals = IntArray(INITIAL_SIGNAL_CAPACITY)
+        private set
+
+    fun clear() {
+        fix = -1
+        hdop = Double.NaN
+        vdop = Double.NaN
+        ttffSeconds = 0L
+        hasTtff = false
+        hasSignals = false
+        signalCount = 0
+        configRevision = -1L
+    }
+
+    fun addSignal(level: Int) {
+        if (signalCount == signals.size) {
+            signals = signals.copyOf(signals.size * 2)
+        }
+        signals[signalCount++] = level
+    }
+
+    companion object {
+        private const val INITIAL_SIGNAL_CAPACITY = 64
+    }
+}
+
+/**
+ * Reads `{"fix":..,"hdop":..,"signals":[..],"ttff":..,"cfg":..}` straight from the notification bytes.
+ *
+ * Signal levels are decoded into [StatusPayload.signals] without an intermediate String.
+ * Returns false for anything outside the strict format; the caller then falls back to org.json.
+ */
+internal class StatusPayloadParser {
+    private val reader = JsonByteReader()
+
+    fun parse(data: ByteArray, offset: Int, length: Int, out: StatusPayload): Boolean {
+        out.clear()
+        reader.reset(data, offset, length)
+        try {
+            return parseObject(out)
+        } finally {
+            reader.release()
+        }
+    }
+
+    private fun parseObject(out: StatusPayload): Boolean {
+        if (!reader.consume('{')) return false
+        if (reader.consume('}')) return reader.isAtEnd()
+        var seen = 0
+        do {
+            if (!reader.readKey()) return false
+            val field =
+                when {
+                    reader.keyEquals(KEY_FIX) -> FIELD_FIX
+                    reader.keyEquals(KEY_HDOP) -> FIELD_HDOP
+                    reader.keyEquals(KEY_SIGNALS) -> FIELD_SIGNALS
+                    reader.keyEquals(KEY_TTFF) -> FIELD_TTFF
+                    reader.keyEquals(KEY_CONFIG) -> FIELD_CONFIG
+                    else -> 0
+                }
+            if (field == 0) {
+                if (!reader.skipValue()) return false
+                continue
+            }
+            if ((seen and field) != 0) return false
+            seen = seen or field
+            when (field) {
+                FIELD_SIGNALS -> if (!readSignals(out)) return false
+                else -> {
+                    val value = reader.readNumber()
+                    if (value.isNaN()) return false
+                    when (field) {
+                        FIELD_FIX -> out.fix = value.toInt()
+                        FIELD_HDOP -> out.hdop = value
+                        FIELD_TTFF -> {
+                            out.ttffSeconds = value.toLong()
+                            out.hasTtff = true
+                        }
+                        FIELD_CONFIG -> out.configRevision = value.toLong()
+                    }
+                }
+            }
+        } while (reader.consume(','))
+        return reader.consume('}') && reader.isAtEnd()
+    }
+
+    private fun readSignals(out: StatusPayload): Boolean {
+        if (!reader.consume('[')) return false
+        out.hasSignals = true
+        if (reader.consume(']')) return true
+        do {
+            val level = reader.readNumber()
+            if (level.isNaN()) return false
+            out.addSignal(level.toInt())
+        } while (reader.consume(','))
+        return reader.consume(']')
+    }
+
+    companion object {
+        const val KEY_FIX = "fix"
+        const val KEY_HDOP = "hdop"
+        const val KEY_SIGNALS = "signals"
+        const val KEY_TTFF = "ttff"
+        const val KEY_CONFIG = "cfg"
+
+        private const val FIELD_FIX = 1
+        private const val FIELD_HDOP = 1 shl 1
+        private const val FIELD_SIGNALS = 1 shl 2
+        private const val FIELD_TTFF = 1 shl 3
+        private const val FIELD_CONFIG = 1 shl 4
+    }
+}
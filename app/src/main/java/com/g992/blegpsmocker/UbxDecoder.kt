@@ -0,0 +1,215 @@
+package com.g992.blegpsmocker
+
+/**
+ * Streaming decoder for u-blox UBX frames: `0xB5 0x62, class, id, length:u16, payload, ckA, ckB`.
+ *
+ * Bytes can be fed in chunks split anywhere. The decoder hunts for the sync pair, verifies the
+ * 8-bit Fletcher checksum over class..payload and decodes NAV-PVT, NAV-DOP and NAV-SAT into
+ * reused [CoordinatesPayload]/[StatusPayload] holders. Other UBX messages are skipped.
+ *
+ * u-blox modules interleave UBX with NMEA on the same port; bytes outside UBX frames are handed
+ * to [passthrough] in contiguous runs so an [NmeaTokenizer] can consume them.
+ */
+internal class UbxDecoder(
+    private val listener: Listener,
+    private val passthrough: Passthrough? = null
+) {
+    interface Listener {
+        fun onUbxFix(payload: CoordinatesPayload)
+        fun onUbxStatus(payload: StatusPayload)
+    }
+
+    fun interface Passthrough {
+        fun feed(data: ByteArray, offset: Int, length: Int)
+    }
+
+    private val payload = ByteArray(MAX_PAYLOAD_SIZE)
+    private var state = STATE_SYNC1
+    private var messageClass = 0
+    private var messageId = 0
+    private var payloadLength = 0
+    private var received = 0
+    private var ckA = 0
+    private var ckB = 0
+    private var expectedCkA = 0
+
+    private val fix = CoordinatesPayload()
+    private val status = StatusPayload()
+
+    var frames = 0L
+        private set
+    var checksumErrors = 0L
+        private set
+
+    fun reset() {
+        state = STATE_SYNC1
+    }
+
+    fun feed(data: ByteArray, offset: Int, length: Int) {
+        val end = offset + length
+        var runStart = if (state == STATE_SYNC1) offset else -1
+        var index = offset
+        while (index < end) {
+            val current = data[index].toInt() and 0xFF
+            when (state) {
+                STATE_SYNC1 -> if (current == SYNC_1) {
+                    if (runStart in 0 until index) passthrough?.feed(data, runStart, index - runStart)
+                    runStart = -1
+                    state = STATE_SYNC2
+                }
+                STATE_SYNC2 -> when (current) {
+                    SYNC_2 -> state = STATE_CLASS
+                    SYNC_1 -> Unit
+                    else -> {
+                        // 0xB5 is not ASCII, so the lone sync byte is dropped rather than forwarded.
+                        state = STATE_SYNC1
+                        runStart = index
+                    }
+                }
+                STATE_CLASS -> {
+                    messageClass = current
+                    ckA = current
+                    ckB = current
+                    state = STATE_ID
+                }
+                STATE_ID -> {
+                    messageId = current
+                    checksum(current)
+                    state = STATE_LENGTH_LOW
+                }
+                STATE_LENGTH_LOW -> {
+                    payloadLength = current
+                    checksum(current)
+                    state = STATE_LENGTH_HIGH
+                }
+                STATE_LENGTH_HIGH -> {
+                    payloadLength = payloadLength or (current shl 8)
+                    checksum(current)
+                    received = 0
+                    state =
+                        when {
+                            payloadLength > MAX_PAYLOAD_SIZE -> STATE_SYNC1
+                            payloadLength == 0 -> STATE_CK_A
+                            else -> STATE_PAYLOAD
+                        }
+                    if (state == STATE_SYNC1) runStart = index + 1
+                }
+                STATE_PAYLOAD -> {
+                    val chunk = minOf(end - index, payloadLength - received)
+                    for (position in index until index + chunk) {
+                        val value = data[position].toInt() and 0xFF
+                        payload[received++] = value.toByte()
+                        ckA = (ckA + value) and 0xFF
+                        ckB = (ckB + ckA) and 0xFF
+                    }
+                    index += chunk - 1
+                    if (received == payloadLength) state = STATE_CK_A
+                }
+                STATE_CK_A -> {
+                    expectedCkA = current
+                    state = STATE_CK_B
+                }
+                STATE_CK_B -> {
+                    state = STATE_SYNC1
+                    runStart = index + 1
+                    if (expectedCkA == ckA && current == ckB) {
+                        frames++
+                        dispatch()
+                    } else {
+                        checksumErrors++
+                    }
+                }
+            }
+            index++
+        }
+        if (runStart in 0 until end) passthrough?.feed(data, runStart, end - runStart)
+    }
+
+    private fun checksum(value: Int) {
+        ckA = (ckA + value) and 0xFF
+        ckB = (ckB + ckA) and 0xFF
+    }
+
+    private fun dispatch() {
+        if (messageClass != CLASS_NAV) return
+        when (messageId) {
+            ID_NAV_PVT -> if (payloadLength >= NAV_PVT_SIZE) decodePvt()
+            ID_NAV_DOP -> if (payloadLength >= NAV_DOP_SIZE) decodeDop()
+            ID_NAV_SAT -> if (payloadLength >= NAV_SAT_HEADER_SIZE) decodeSat()
+        }
+    }
+
+    private fun decodePvt() {
+        val fixType = payload[20].toInt() and 0xFF
+        val fixOk = (payload[21].toInt() and PVT_FLAG_GNSS_FIX_OK) != 0
+        status.clear()
+        status.fix = if (fixOk && fixType in FIX_TYPE_2D..FIX_TYPE_GNSS_DEAD_RECKONING) 1 else 0
+        listener.onUbxStatus(status)
+        if (status.fix == 0) return
+
+        fix.clear()
+        fix.longitude = BinaryFrameCodec.readInt32(payload, 24) / BinaryFrameCodec.DEGREES_DIVISOR
+        fix.latitude = BinaryFrameCodec.readInt32(payload, 28) / BinaryFrameCodec.DEGREES_DIVISOR
+        if (fixType != FIX_TYPE_2D) {
+            fix.altitude = BinaryFrameCodec.readInt32(payload, 36) / MILLI_DIVISOR
+            fix.verticalAccuracy = BinaryFrameCodec.readUInt32(payload, 44) / MILLI_DIVISOR
+        }
+        fix.horizontalAccuracy = BinaryFrameCodec.readUInt32(payload, 40) / MILLI_DIVISOR
+        fix.speed = BinaryFrameCodec.readInt32(payload, 60) / MILLI_DIVISOR
+        fix.speedAccuracy = BinaryFrameCodec.readUInt32(payload, 68) / MILLI_DIVISOR
+        val heading = BinaryFrameCodec.readInt32(payload, 64) / HEADING_DIVISOR
+        fix.heading = if (heading < 0.0) heading + 360.0 else heading
+        listener.onUbxFix(fix)
+    }
+
+    private fun decodeDop() {
+        status.clear()
+        status.vdop = BinaryFrameCodec.readUInt16(payload, 10) / BinaryFrameCodec.CENTI_DIVISOR
+        status.hdop = BinaryFrameCodec.readUInt16(payload, 12) / BinaryFrameCodec.CENTI_DIVISOR
+        listener.onUbxStatus(status)
+    }
+
+    private fun decodeSat() {
+        val satellites = payload[5].toInt() and 0xFF
+        status.clear()
+        status.hasSignals = true
+        var position = NAV_SAT_HEADER_SIZE
+        for (satellite in 0 until satellites) {
+            if (position + NAV_SAT_BLOCK_SIZE > payloadLength) break
+            status.addSignal(payload[position + 2].toInt() and 0xFF)
+            position += NAV_SAT_BLOCK_SIZE
+        }
+        listener.onUbxStatus(status)
+    }
+
+    companion object {
+        const val SYNC_1 = 0xB5
+        const val SYNC_2 = 0x62
+        const val CLASS_NAV = 0x01
+        const val ID_NAV_DOP = 0x04
+        const val ID_NAV_PVT = 0x07
+        const val ID_NAV_SAT = 0x35
+        const val NAV_PVT_SIZE = 92
+        const val NAV_DOP_SIZE = 18
+        const val NAV_SAT_HEADER_SIZE = 8
+        const val NAV_SAT_BLOCK_SIZE = 12
+
+        /** NAV-SAT with 255 satellites is the largest NAV message we decode. */
+        private const val MAX_PAYLOAD_SIZE = NAV_SAT_HEADER_SIZE + 255 * NAV_SAT_BLOCK_SIZE
+        private const val PVT_FLAG_GNSS_FIX_OK = 1
+        private const val FIX_TYPE_2D = 2
+        private const val FIX_TYPE_GNSS_DEAD_RECKONING = 4
+        private const val MILLI_DIVISOR = 1_000.0
+        private const val HEADING_DIVISOR = 100_000.0
+
+        private const val STATE_SYNC1 = 0
+        private const val STATE_SYNC2 = 1
+        private const val STATE_CLASS = 2
+        private const val STATE_ID = 3
+        private const val STATE_LENGTH_LOW = 4
+        private const val STATE_LENGTH_HIGH = 5
+        private const val STATE_PAYLOAD = 6
+        private const val STATE_CK_A = 7
+        private const val STATE_CK_B = 8
+    }
+}
@@ -0,0 +1,179 @@
+package com.g992.blegpsmocker
+
+import java.io.ByteArrayOutputStream
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Test
+
+class DeltaStreamDecoderTest {
+    private val decoder = DeltaStreamDecoder()
+
+    @Test
+    fun keyframe_decodesAbsoluteFix() {
+        val count = decode(keyframe(counter = 7, latitude = 557_558_123, longitude = 376_172_999))
+
+        assertEquals(1, count)
+        val fix = decoder.fix(0)
+        assertEquals(55.7558123, fix.latitude, 1e-9)
+        assertEquals(37.6172999, fix.longitude, 1e-9)
+        assertEquals(12.5, fix.speed, 1e-9)
+        assertEquals(150.25, fix.altitude, 1e-9)
+        assertEquals(359.5, fix.heading, 1e-9)
+        assertEquals(1L, decoder.keyframes)
+    }
+
+    @Test
+    fun delta_appliesZigZagVarintsToThePreviousFix() {
+        decode(keyframe(counter = 7, latitude = 100, longitude = 200))
+
+        // 300 needs two varint bytes, -65 zigzags to 129 and needs two as well.
+        val count =
+            decode(
+                delta(counter = 8, ALL_FIELDS, intArrayOf(1, -1, 0, 0, 0), intArrayOf(300, -65, 10, -25, 100))
+            )
+
+        assertEquals(2, count)
+        assertEquals(101 / 1e7, decoder.fix(0).latitude, 1e-12)
+        assertEquals(199 / 1e7, decoder.fix(0).longitude, 1e-12)
+        assertEquals(401 / 1e7, decoder.fix(1).latitude, 1e-12)
+        assertEquals(134 / 1e7, decoder.fix(1).longitude, 1e-12)
+        assertEquals(12.6, decoder.fix(1).speed, 1e-9)
+        assertEquals(150.0, decoder.fix(1).altitude, 1e-9)
+        assertEquals(2L, decoder.deltaFixes)
+    }
+
+    @Test
+    fun delta_headingWrapsAt360() {
+        decode(keyframe(counter = 0))
+
+        decode(delta(counter = 1, BinaryFrameCodec.FLAG_HEADING, intArrayOf(0, 0, 100)))
+
+        assertEquals(0.5, decoder.fix(0).heading, 1e-9)
+    }
+
+    @Test
+    fun delta_withoutFlagsLeavesOptionalFieldsAbsent() {
+        decode(keyframe(counter = 0))
+
+        decode(delta(counter = 1, 0, intArrayOf(5, 5)))
+
+        assertTrue(decoder.fix(0).speed.isNaN())
+        assertTrue(decoder.fix(0).heading.isNaN())
+    }
+
+    @Test
+    fun delta_beforeAnyKeyframeIsDropped() {
+        assertEquals(0, decode(delta(counter = 1, 0, intArrayOf(5, 5))))
+        assertEquals(0L, decoder.deltaFixes)
+    }
+
+    @Test
+    fun counterGap_dropsTheStreamUntilTheNextKeyframe() {
+        decode(keyframe(counter = 10))
+        assertEquals(2, decode(delta(counter = 11, 0, intArrayOf(1, 1), intArrayOf(1, 1))))
+
+        assertEquals(0, decode(delta(counter = 14, 0, intArrayOf(1, 1))))
+        assertEquals(0, decode(delta(counter = 15, 0, intArrayOf(1, 1))))
+        assertEquals(1L, decoder.gaps)
+
+        assertEquals(1, decode(keyframe(counter = 20)))
+        assertEquals(1, decode(delta(counter = 21, 0, intArrayOf(1, 1))))
+    }
+
+    @Test
+    fun counter_wrapsAroundU8() {
+        decode(keyframe(counter = 254))
+
+        assertEquals(2, decode(delta(counter = 255, 0, intArrayOf(1, 1), intArrayOf(1, 1))))
+        assertEquals(1, decode(delta(counter = 1, 0, intArrayOf(1, 1))))
+        assertEquals(0L, decoder.gaps)
+    }
+
+    @Test
+    fun truncatedVarint_rejectsTheFrameAndResyncs() {
+        decode(keyframe(counter = 0))
+        val frame = delta(counter = 1, 0, intArrayOf(300, 1))
+
+        assertEquals(-1, decoder.decode(frame, 0, DeltaStreamDecoder.DELTA_HEADER_SIZE + 1))
+        assertEquals(0, decode(delta(counter = 2, 0, intArrayOf(1, 1))))
+    }
+
+    @Test
+    fun deltaRecords_allPassTheMockRateLimitOnceAged() {
+        val composer = MockFixComposer()
+        val intervalNanos = 200_000_000L
+        var nowMillis = 1_700_000_000_000L
+        var nowElapsedNanos = 5_000_000_000L
+        decode(keyframe(counter = 0))
+        assertEquals(MockFixComposer.RESULT_PUSH, compose(composer, 0, nowMillis, nowElapsedNanos))
+
+        nowMillis += 1_000L
+        nowElapsedNanos += 1_000_000_000L
+        val count = decode(delta(counter = 1, 0, *Array(5) { intArrayOf(10, 10) }))
+        val results = (0 until count).map { index ->
+            // Mirrors PayloadDecoder.dispatchDeltas: aged by the distance to the newest record.
+            val ageNanos = (count - 1 - index) * intervalNanos
+            composer.compose(
+                decoder.fix(index).latitude,
+                decoder.fix(index).longitude,
+                nowMillis,
+                nowElapsedNanos,
+                ageNanos,
+                rateLimited = false
+            )
+        }
+
+        assertEquals(List(5) { MockFixComposer.RESULT_PUSH }, results)
+        assertEquals(nowElapsedNanos, composer.lastElapsedRealtimeNanos)
+    }
+
+    private fun compose(composer: MockFixComposer, index: Int, nowMillis: Long, nowElapsedNanos: Long): Int =
+        composer.compose(decoder.fix(index).latitude, decoder.fix(index).longitude, nowMillis, nowElapsedNanos)
+
+    private fun decode(frame: ByteArray): Int = decoder.decode(frame, 0, frame.size)
+
+    private fun keyframe(counter: Int, latitude: Int = 0, longitude: Int = 0): ByteArray {
+        val frame = ByteArray(DeltaStreamDecoder.KEYFRAME_SIZE)
+        frame[0] = BinaryFrameCodec.PROTOCOL_VERSION_BINARY.toByte()
+        frame[1] = BinaryFrameCodec.TYPE_KEYFRAME.toByte()
+        frame[2] = ALL_FIELDS.toByte()
+        frame[3] = counter.toByte()
+        putLe(frame, 4, latitude, 4)
+        putLe(frame, 8, longitude, 4)
+        putLe(frame, 12, 1_250, 2)
+        putLe(frame, 14, 15_025, 4)
+        putLe(frame, 18, 35_950, 2)
+        return frame
+    }
+
+    private fun delta(counter: Int, flags: Int, vararg records: IntArray): ByteArray {
+        val out = ByteArrayOutputStream()
+        out.write(BinaryFrameCodec.PROTOCOL_VERSION_BINARY)
+        out.write(BinaryFrameCodec.TYPE_DELTA)
+        out.write(flags)
+        out.write(counter)
+        out.write(records.size)
+        for (record in records) {
+            for (value in record) writeZigZag(out, value)
+        }
+        return out.toByteArray()
+    }
+
+    private fun writeZigZag(out: ByteArrayOutputStream, value: Int) {
+        var encoded = (value shl 1) xor (value shr 31)
+        while ((encoded and 0x7F.inv()) != 0) {
+            out.write((encoded and 0x7F) or 0x80)
+            encoded = encoded ushr 7
+        }
+        out.write(encoded)
+    }
+
+    private fun putLe(data: ByteArray, offset: Int, value: Int, size: Int) {
+        for (index in 0 until size) data[offset + index] = (value ushr (8 * index)).toByte()
+    }
+
+    companion object {
+        private const val ALL_FIELDS =
+            BinaryFrameCodec.FLAG_HEADING or BinaryFrameCodec.FLAG_SPEED or BinaryFrameCodec.FLAG_ALTITUDE
+    }
+}
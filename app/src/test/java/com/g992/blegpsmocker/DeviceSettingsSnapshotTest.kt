@@ -0,0 +1,165 @@
+package com.g992.blegpsmocker
+
+import android.content.SharedPreferences
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertNull
+import org.junit.Assert.assertTrue
+import org.junit.Test
+
+class DeviceSettingsSnapshotTest {
+    private val prefs = MemoryPreferences()
+
+    @Test
+    fun encodeThenDecode_keepsEveryField() {
+        val snapshot = DeviceSettingsSnapshot(true, false, 115200, 42L, 1_700_000_000_000L)
+
+        val decoded = DeviceSettingsSnapshot.decode(snapshot.encode())!!
+
+        assertEquals("1;0;115200;42;1700000000000", snapshot.encode())
+        assertEquals(true, decoded.apControl)
+        assertEquals(false, decoded.bridgeMode)
+        assertEquals(115200, decoded.gpsBaudRate)
+        assertEquals(42L, decoded.configRevision)
+        assertEquals(1_700_000_000_000L, decoded.savedAtMillis)
+    }
+
+    @Test
+    fun unknownSettings_roundTripAsNull() {
+        val decoded = DeviceSettingsSnapshot.decode(DeviceSettingsSnapshot(null, true, null, -1L, 5L).encode())!!
+
+        assertNull(decoded.apControl)
+        assertEquals(true, decoded.bridgeMode)
+        assertNull(decoded.gpsBaudRate)
+        assertEquals(-1L, decoded.configRevision)
+        assertFalse(decoded.isComplete())
+    }
+
+    @Test
+    fun unreadableEntries_decodeToNull() {
+        for (raw in listOf(null, "", "1;0;9600;1", "1;0;9600;1;2;3", "1;0;9600;x;2", "1;0;9600;1;")) {
+            assertNull(raw, DeviceSettingsSnapshot.decode(raw))
+        }
+    }
+
+    @Test
+    fun isComplete_needsAllThreeSettings() {
+        assertTrue(DeviceSettingsSnapshot(false, false, 9600, 1L, 0L).isComplete())
+        assertFalse(DeviceSettingsSnapshot(false, false, null, 1L, 0L).isComplete())
+        assertFalse(DeviceSettingsSnapshot(null, false, 9600, 1L, 0L).isComplete())
+    }
+
+    @Test
+    fun isFresh_boundsTheAge() {
+        val snapshot = DeviceSettingsSnapshot(true, true, 9600, 1L, 1_000L)
+
+        assertTrue(snapshot.isFresh(1_000L))
+        assertTrue(snapshot.isFresh(1_000L + DeviceSettingsSnapshot.MAX_AGE_MS - 1L))
+        assertFalse(snapshot.isFresh(1_000L + DeviceSettingsSnapshot.MAX_AGE_MS))
+        // A clock set back behind the save time does not make the entry current.
+        assertFalse(snapshot.isFresh(999L))
+    }
+
+    @Test
+    fun cache_isKeptPerDeviceAddress() {
+        AppPrefs.setDeviceSettings(prefs, FIRST, DeviceSettingsSnapshot(true, false, 9600, 3L, 10L))
+        AppPrefs.setDeviceSettings(prefs, SECOND, DeviceSettingsSnapshot(false, true, 115200, 7L, 20L))
+
+        assertEquals("1;0;9600;3;10", AppPrefs.getDeviceSettings(prefs, FIRST)!!.encode())
+        assertEquals("0;1;115200;7;20", AppPrefs.getDeviceSettings(prefs, SECOND)!!.encode())
+        assertNull(AppPrefs.getDeviceSettings(prefs, "00:00:00:00:00:00"))
+    }
+
+    @Test
+    fun cache_replacesTheEntryOfTheSameDevice() {
+        AppPrefs.setDeviceSettings(prefs, FIRST, DeviceSettingsSnapshot(true, false, 9600, 3L, 10L))
+        AppPrefs.setDeviceSettings(prefs, FIRST, DeviceSettingsSnapshot(true, true, 38400, 4L, 30L))
+
+        assertEquals("1;1;38400;4;30", AppPrefs.getDeviceSettings(prefs, FIRST)!!.encode())
+        assertEquals(1, prefs.getAll().size)
+    }
+
+    @Test
+    fun cache_ignoresAnUnreadableEntry() {
+        prefs.edit().putString("device_settings_$FIRST", "garbage").apply()
+
+        assertNull(AppPrefs.getDeviceSettings(prefs, FIRST))
+    }
+
+    /** Only what [AppPrefs] uses for the settings cache is backed by the map. */
+    private class MemoryPreferences : SharedPreferences {
+        private val values = HashMap<String, Any?>()
+
+        override fun getAll(): Map<String, *> = values
+
+        override fun getString(key: String, defValue: String?): String? = values[key] as String? ?: defValue
+
+        override fun getStringSet(key: String, defValues: Set<String>?): Set<String>? = defValues
+
+        override fun getInt(key: String, defValue: Int): Int = values[key] as Int? ?: defValue
+
+        override fun getLong(key: String, defValue: Long): Long = values[key] as Long? ?: defValue
+
+        override fun getFloat(key: String, defValue: Float): Float = values[key] as Float? ?: defValue
+
+        override fun getBoolean(key: String, defValue: Boolean): Boolean = values[key] as Boolean? ?: defValue
+
+        override fun contains(key: String): Boolean = values.containsKey(key)
+
+        override fun edit(): SharedPreferences.Editor = Editor()
+
+        override fun registerOnSharedPreferenceChangeListener(
+            listener: SharedPreferences.OnSharedPreferenceChangeListener
+        ) {}
+
+        override fun unregisterOnSharedPreferenceChangeListener(
+            listener: SharedPreferences.OnSharedPreferenceChangeListener
+        ) {}
+
+        private inner class Editor : SharedPreferences.Editor {
+            private val changes = HashMap<String, Any?>()
+            private var cleared = false
+
+            override fun putString(key: String, value: String?) = put(key, value)
+
+            override fun putStringSet(key: String, values: Set<String>?) = put(key, values)
+
+            override fun putInt(key: String, value: Int) = put(key, value)
+
+            override fun putLong(key: String, value: Long) = put(key, value)
+
+            override fun putFloat(key: String, value: Float) = put(key, value)
+
+            override fun putBoolean(key: String, value: Boolean) = put(key, value)
+
+            override fun remove(key: String) = put(key, null)
+
+            override fun clear(): SharedPreferences.Editor {
+                cleared = true
+                return this
+            }
+
+            override fun commit(): Boolean {
+                apply()
+                return true
+            }
+
+            override fun apply() {
+                if (cleared) values.clear()
+                for ((key, value) in changes) {
+                    if (value == null) values.remove(key) else values[key] = value
+                }
+            }
+
+            private fun put(key: String, value: Any?): SharedPreferences.Editor {
+                changes[key] = value
+                return this
+            }
+        }
+    }
+
+    private companion object {
+        const val FIRST = "AA:BB:CC:DD:EE:01"
+        const val SECOND = "AA:BB:CC:DD:EE:02"
+    }
+}
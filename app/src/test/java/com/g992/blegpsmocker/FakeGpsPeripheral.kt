@@ -0,0 +1,376 @@
+package com.g992.blegpsmocker
+
+import java.util.PriorityQueue
+
+/**
+ * Deterministic [GattOperationQueue.Scheduler] for JVM tests: time only moves in [advanceBy],
+ * which runs due tasks in time order, and tasks scheduled at the same time in the order they
+ * were posted.
+ */
+internal class VirtualScheduler : GattOperationQueue.Scheduler {
+    private class Task(val at: Long, val sequence: Long, val runnable: Runnable)
+
+    private val tasks =
+        PriorityQueue<Task>(compareBy<Task> { it.at }.thenBy { it.sequence })
+    private var sequence = 0L
+    var now = 0L
+        private set
+
+    override fun uptimeMillis(): Long = now
+
+    override fun schedule(task: Runnable, delayMillis: Long) {
+        tasks.add(Task(now + delayMillis.coerceAtLeast(0L), sequence++, task))
+    }
+
+    override fun cancel(task: Runnable) {
+        tasks.removeIf { it.runnable === task }
+    }
+
+    fun advanceBy(millis: Long) {
+        val until = now + millis
+        while (true) {
+            val next = tasks.peek() ?: break
+            if (next.at > until) break
+            tasks.poll()
+            now = next.at
+            next.runnable.run()
+        }
+        now = until
+    }
+}
+
+/** [Logger] that keeps warnings and errors for assertions and drops the rest. */
+internal class RecordingLogger : Logger {
+    val warnings = ArrayList<String>()
+    val errors = ArrayList<String>()
+
+    override fun isLoggable(tag: String, level: Int): Boolean = false
+
+    override fun v(tag: String, message: String) {}
+
+    override fun d(tag: String, message: String) {}
+
+    override fun i(tag: String, message: String) {}
+
+    override fun w(tag: String, message: String, throwable: Throwable?) {
+        warnings.add(message)
+    }
+
+    override fun e(tag: String, message: String, throwable: Throwable?) {
+        errors.add(message)
+    }
+}
+
+/**
+ * Scriptable GPS-C3 receiver behind [GattTransport], running on a [VirtualScheduler]. Every
+ * request is answered [latencyMillis] later, one at a time like the Android stack; a request
+ * issued while another is outstanding is refused and counted in [overlappingRequests].
+ *
+ * Once subscribed it streams coordinate and status notifications at the rates given to
+ * [streamCoordinates] and [streamStatus]. Keepalive beats are answered with `<t2>,<t3>` on a
+ * receiver clock [clockOffsetMillis] ahead of the phone's, and RPC requests with the applied
+ * value. Errors are scripted per operation: [failNext] completes it with a GATT error,
+ * [refuseNext] makes the stack refuse to start it and [dropNext] never answers it.
+ */
+internal class FakeGpsPeripheral(
+    private val scheduler: VirtualScheduler,
+    private val properties: Map<CharacteristicRole, Int> = GPS_C3_PROPERTIES
+) : GattTransport {
+    private class Script(val kind: Int, val role: CharacteristicRole, var count: Int, val status: Int)
+
+    private var callback: GattTransport.Callback? = null
+    private var busy = false
+    private var connected = false
+    private val subscribed = HashSet<CharacteristicRole>()
+    private val failures = ArrayList<Script>()
+    private val refusals = ArrayList<Script>()
+    private val drops = ArrayList<Script>()
+    private var coordinatesTask: Runnable? = null
+    private var statusTask: Runnable? = null
+
+    var latencyMillis = 10L
+    var agreedMtu = 247
+    var clockOffsetMillis = 0L
+
+    /** Time between a beat arriving and its answer leaving, on the receiver. */
+    var processingMillis = 2L
+    var le2MPhySupported = true
+    var answerRpc = true
+
+    /** Setting keys the receiver refuses, with the reason it gives. */
+    val refusedSettings = HashMap<String, String>()
+
+    /** Characteristic values; reads return them and writes replace them. */
+    val values = HashMap<CharacteristicRole, ByteArray>()
+
+    /** Characteristics that acknowledge writes but keep their value, like a setting the firmware clamps. */
+    val ignoredWrites = HashSet<CharacteristicRole>()
+
+    /** Started operations in order, as `subscribe ROLE`, `write ROLE` or `read ROLE`. */
+    val operations = ArrayList<String>()
+
+    /** Uptime of every keepalive write issued, and whether the last was unacknowledged. */
+    val keepAliveWrites = ArrayList<Long>()
+    var keepAliveWithoutResponse = false
+        private set
+    var overlappingRequests = 0
+        private set
+    var connectionPriority = -1
+        private set
+    var coordinatesSent = 0
+        private set
+    var statusSent = 0
+        private set
+
+    override val address: String = "AA:BB:CC:DD:EE:FF"
+
+    override val supportsLe2MPhy: Boolean
+        get() = le2MPhySupported
+
+    override fun connect(callback: GattTransport.Callback): Boolean {
+        this.callback = callback
+        after { connected = true; callback.onConnectionStateChanged(true, GattTransport.GATT_SUCCESS) }
+        return true
+    }
+
+    override fun properties(role: CharacteristicRole): Int = properties[role] ?: 0
+
+    override fun requestMtu(mtu: Int): Boolean {
+        after { callback?.onMtuChanged(minOf(mtu, agreedMtu), GattTransport.GATT_SUCCESS) }
+        return true
+    }
+
+    override fun discoverServices(): Boolean {
+        after { callback?.onServicesResolved(ReceiverProfiles.GPS_C3, GattTransport.GATT_SUCCESS) }
+        return true
+    }
+
+    override fun requestConnectionPriority(priority: Int): Boolean {
+        connectionPriority = priority
+        return true
+    }
+
+    override fun requestPhy(prefer2M: Boolean) {
+        val phy = if (prefer2M && le2MPhySupported) GattTransport.PHY_LE_2M else GattTransport.PHY_LE_1M
+        after { callback?.onPhyChanged(phy, phy, GattTransport.GATT_SUCCESS) }
+    }
+
+    override fun subscribe(role: CharacteristicRole): Boolean {
+        if (!begin(GattOperation.KIND_SUBSCRIBE, role)) return false
+        after {
+            val status = end(GattOperation.KIND_SUBSCRIBE, role) ?: return@after
+            if (status == GattTransport.GATT_SUCCESS) subscribed.add(role)
+            callback?.onSubscribed(role, status)
+        }
+        return true
+    }
+
+    override fun read(role: CharacteristicRole): Boolean {
+        if (!begin(GattOperation.KIND_READ, role)) return false
+        after {
+            val status = end(GattOperation.KIND_READ, role) ?: return@after
+            val value = if (status == GattTransport.GATT_SUCCESS) values[role] ?: ByteArray(0) else null
+            callback?.onRead(role, value, status)
+        }
+        return true
+    }
+
+    override fun write(role: CharacteristicRole, value: ByteArray, withoutResponse: Boolean): Boolean {
+        if (!begin(GattOperation.KIND_WRITE, role)) return false
+        val copy = value.copyOf()
+        val sentAt = scheduler.now
+        if (role == CharacteristicRole.KEEPALIVE) {
+            keepAliveWrites.add(sentAt)
+            keepAliveWithoutResponse = withoutResponse
+        }
+        after {
+            val status = end(GattOperation.KIND_WRITE, role) ?: return@after
+            if (status == GattTransport.GATT_SUCCESS) {
+                receive(role, copy, sentAt)
+            }
+            callback?.onWritten(role, copy, status)
+        }
+        return true
+    }
+
+    override fun disconnect() {
+        after { dropLink(STATUS_LOCAL_DISCONNECT) }
+    }
+
+    override fun close() {
+        callback = null
+        connected = false
+        stopStreams()
+    }
+
+    /** Streams a JSON coordinate frame [rateHz] times a second while subscribed. */
+    fun streamCoordinates(rateHz: Int, frame: (Int) -> ByteArray = ::coordinatesFrame) {
+        coordinatesTask = stream(rateHz, CharacteristicRole.COORDINATES, frame) { coordinatesSent++ }
+    }
+
+    fun streamStatus(rateHz: Int, frame: (Int) -> ByteArray = ::statusFrame) {
+        statusTask = stream(rateHz, CharacteristicRole.STATUS, frame) { statusSent++ }
+    }
+
+    fun stopStreams() {
+        coordinatesTask?.let { scheduler.cancel(it) }
+        statusTask?.let { scheduler.cancel(it) }
+        coordinatesTask = null
+        statusTask = null
+    }
+
+    /** Loses the link as a receiver going out of range would. */
+    fun dropLink(status: Int = STATUS_CONNECTION_TIMEOUT) {
+        if (!connected) return
+        connected = false
+        busy = false
+        subscribed.clear()
+        stopStreams()
+        callback?.onConnectionStateChanged(false, status)
+    }
+
+    fun isSubscribed(role: CharacteristicRole): Boolean = role in subscribed
+
+    fun failNext(kind: Int, role: CharacteristicRole, status: Int = GattTransport.GATT_FAILURE, times: Int = 1) {
+        failures.add(Script(kind, role, times, status))
+    }
+
+    fun refuseNext(kind: Int, role: CharacteristicRole, times: Int = 1) {
+        refusals.add(Script(kind, role, times, 0))
+    }
+
+    fun dropNext(kind: Int, role: CharacteristicRole, times: Int = 1) {
+        drops.add(Script(kind, role, times, 0))
+    }
+
+    private fun begin(kind: Int, role: CharacteristicRole): Boolean {
+        if (!connected || properties(role) == 0) return false
+        if (busy) {
+            overlappingRequests++
+            return false
+        }
+        if (take(refusals, kind, role) != null) return false
+        busy = true
+        operations.add("${GattOperation.kindName(kind)} $role")
+        return true
+    }
+
+    /** Status to report, or null when the response is dropped. */
+    private fun end(kind: Int, role: CharacteristicRole): Int? {
+        if (!connected) return null
+        busy = false
+        if (take(drops, kind, role) != null) return null
+        return take(failures, kind, role)?.status ?: GattTransport.GATT_SUCCESS
+    }
+
+    private fun receive(role: CharacteristicRole, value: ByteArray, sentAt: Long) {
+        when (role) {
+            CharacteristicRole.KEEPALIVE -> {
+                if (!isSubscribed(role)) return
+                val t2 = sentAt + latencyMillis + clockOffsetMillis
+                val t3 = t2 + processingMillis
+                notifyLater(role, "$t2,$t3".toByteArray(Charsets.UTF_8), processingMillis)
+            }
+            CharacteristicRole.RPC -> {
+                if (!answerRpc || !isSubscribed(role)) return
+                val request = String(value, Charsets.UTF_8)
+                val id = request.substringBefore(':')
+                val key = request.substringAfter(':').substringBefore('=')
+                val setting = request.substringAfter('=')
+                val reason = refusedSettings[key]
+                val response =
+                    if (reason != null) {
+                        "$id:$key!$reason"
+                    } else {
+                        settingRole(key)?.let { values[it] = setting.toByteArray(Charsets.UTF_8) }
+                        "$id:$key=$setting"
+                    }
+                notifyLater(role, response.toByteArray(Charsets.UTF_8), processingMillis)
+            }
+            else -> if (role !in ignoredWrites) values[role] = value
+        }
+    }
+
+    private fun notifyLater(role: CharacteristicRole, value: ByteArray, delayMillis: Long) {
+        scheduler.schedule(
+            { if (connected && isSubscribed(role)) callback?.onNotification(role, value) },
+            delayMillis + latencyMillis
+        )
+    }
+
+    private fun stream(
+        rateHz: Int,
+        role: CharacteristicRole,
+        frame: (Int) -> ByteArray,
+        sent: () -> Unit
+    ): Runnable {
+        val periodMillis = 1_000L / rateHz
+        val task =
+            object : Runnable {
+                var index = 0
+
+                override fun run() {
+                    if (connected && isSubscribed(role)) {
+                        callback?.onNotification(role, frame(index++))
+                        sent()
+                    }
+                    scheduler.schedule(this, periodMillis)
+                }
+            }
+        scheduler.schedule(task, periodMillis)
+        return task
+    }
+
+    private fun after(action: () -> Unit) {
+        scheduler.schedule(action, latencyMillis)
+    }
+
+    private fun take(scripts: MutableList<Script>, kind: Int, role: CharacteristicRole): Script? {
+        val script = scripts.firstOrNull { it.kind == kind && it.role == role } ?: return null
+        if (--script.count == 0) scripts.remove(script)
+        return script
+    }
+
+    private fun settingRole(key: String): CharacteristicRole? =
+        when (key) {
+            "ap" -> CharacteristicRole.AP_CONTROL
+            "mode" -> CharacteristicRole.MODE_CONTROL
+            "baud" -> CharacteristicRole.GPS_BAUD
+            else -> null
+        }
+
+    companion object {
+        const val STATUS_CONNECTION_TIMEOUT = 8
+        const val STATUS_LOCAL_DISCONNECT = 22
+
+        private const val READ = GattTransport.PROPERTY_READ
+        private const val WRITE = GattTransport.PROPERTY_WRITE
+        private const val WRITE_NR = GattTransport.PROPERTY_WRITE_NO_RESPONSE
+        private const val NOTIFY = GattTransport.PROPERTY_NOTIFY
+
+        val GPS_C3_PROPERTIES: Map<CharacteristicRole, Int> =
+            mapOf(
+                CharacteristicRole.COORDINATES to (READ or NOTIFY),
+                CharacteristicRole.STATUS to (READ or NOTIFY),
+                CharacteristicRole.BRIDGE_STREAM to NOTIFY,
+                CharacteristicRole.AP_CONTROL to (READ or WRITE),
+                CharacteristicRole.MODE_CONTROL to (READ or WRITE),
+                CharacteristicRole.GPS_BAUD to (READ or WRITE),
+                CharacteristicRole.KEEPALIVE to (WRITE or WRITE_NR or NOTIFY),
+                CharacteristicRole.PROTOCOL to (READ or WRITE),
+                CharacteristicRole.RPC to (WRITE or NOTIFY)
+            )
+
+        /** Firmware before RPC and keepalive answers: write-only keepalive, no RPC. */
+        val LEGACY_PROPERTIES: Map<CharacteristicRole, Int> =
+            GPS_C3_PROPERTIES - CharacteristicRole.RPC + (CharacteristicRole.KEEPALIVE to WRITE)
+
+        fun coordinatesFrame(index: Int): ByteArray =
+            "{\"lt\":${55.75 + index * 1e-5},\"lg\":37.61,\"spd\":1.5,\"alt\":150}"
+                .toByteArray(Charsets.UTF_8)
+
+        fun statusFrame(index: Int): ByteArray =
+            "{\"fix\":1,\"hdop\":0.9,\"signals\":[31,28,40],\"ttff\":${30 + index}}"
+                .toByteArray(Charsets.UTF_8)
+    }
+}
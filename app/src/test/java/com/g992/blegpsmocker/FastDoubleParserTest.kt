@@ -0,0 +1,101 @@
+package com.g992.blegpsmocker
+
+import java.util.Random
+import org.junit.Assert.assertEquals
+import org.junit.Test
+
+class FastDoubleParserTest {
+    @Test
+    fun randomCoordinates_matchPlatformParser() {
+        val random = Random(0x5EEDL)
+        val builder = StringBuilder(32)
+        repeat(RANDOM_COORDINATES) {
+            val range = if (it and 1 == 0) 90L else 180L
+            val decimals = random.nextInt(16)
+            val scale = POWERS_OF_TEN[decimals]
+            val magnitude = (random.nextDouble() * range * scale).toLong()
+            builder.setLength(0)
+            if (random.nextBoolean()) builder.append('-')
+            appendScaled(builder, magnitude, decimals)
+            assertParsesLikePlatform(builder.toString())
+        }
+    }
+
+    @Test
+    fun randomShortestRepresentations_matchPlatformParser() {
+        val random = Random(42L)
+        repeat(RANDOM_DOUBLES) {
+            val value = java.lang.Double.longBitsToDouble(random.nextLong())
+            if (value.isNaN() || value.isInfinite()) return@repeat
+            assertParsesLikePlatform(toJsonNumber(value.toString()))
+        }
+    }
+
+    @Test
+    fun randomLongMantissas_matchPlatformParser() {
+        val random = Random(7L)
+        val builder = StringBuilder(64)
+        repeat(RANDOM_LONG_MANTISSAS) {
+            builder.setLength(0)
+            builder.append(random.nextInt(9) + 1)
+            repeat(random.nextInt(30)) { builder.append(random.nextInt(10)) }
+            if (random.nextBoolean()) {
+                builder.insert(1 + random.nextInt(builder.length), '.')
+                if (builder.last() == '.') builder.append('0')
+            }
+            builder.append('e').append(random.nextInt(640) - 330)
+            assertParsesLikePlatform(builder.toString())
+        }
+    }
+
+    @Test
+    fun edgeCases_matchPlatformParser() {
+        listOf(
+            "0", "-0", "0.0", "1", "-1", "0.1", "0.30000000000000004",
+            "9007199254740992", "9007199254740993", "9007199254740995",
+            "4.9e-324", "2.4703282292062327e-324", "2.4703282292062328e-324",
+            "2.2250738585072011e-308", "2.2250738585072014e-308",
+            "1.7976931348623157e308", "1.7976931348623158e308", "1.8e308",
+            "1e-400", "1e400", "123456789012345678901234567890",
+            "0.000000000000000000000000000001", "55.755826", "37.6173",
+            "-33.8688197", "151.2092955", "179.9999999", "-89.9999999",
+            "7.2057594037927933e16", "1.00000000000000011102230246251565404236316680908203125"
+        ).forEach(::assertParsesLikePlatform)
+    }
+
+    private fun assertParsesLikePlatform(text: String) {
+        val bytes = text.toByteArray(Charsets.US_ASCII)
+        val expected = java.lang.Double.parseDouble(text)
+        val actual = FastDoubleParser.parse(bytes, 0, bytes.size)
+        assertEquals(
+            text,
+            java.lang.Double.doubleToRawLongBits(expected),
+            java.lang.Double.doubleToRawLongBits(actual)
+        )
+    }
+
+    companion object {
+        private const val RANDOM_COORDINATES = 2_000_000
+        private const val RANDOM_DOUBLES = 1_000_000
+        private const val RANDOM_LONG_MANTISSAS = 500_000
+
+        val POWERS_OF_TEN = LongArray(19).also {
+            it[0] = 1L
+            for (index in 1 until it.size) it[index] = it[index - 1] * 10
+        }
+
+        fun appendScaled(builder: StringBuilder, magnitude: Long, decimals: Int) {
+            val scale = POWERS_OF_TEN[decimals]
+            builder.append(magnitude / scale)
+            if (decimals > 0) {
+                val fraction = (magnitude % scale).toString()
+                builder.append('.')
+                repeat(decimals - fraction.length) { builder.append('0') }
+                builder.append(fraction)
+            }
+        }
+
+        // Double.toString uses "1.0E10"; JSON wants an explicit exponent without padding.
+        fun toJsonNumber(text: String): String = text.replace("E", "e")
+    }
+}
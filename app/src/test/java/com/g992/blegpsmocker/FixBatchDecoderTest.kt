@@ -0,0 +1,133 @@
+package com.g992.blegpsmocker
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertTrue
+import org.junit.Test
+
+class FixBatchDecoderTest {
+    private val decoder = FixBatchDecoder()
+
+    @Test
+    fun header_isRecognisedAndParsed() {
+        val frame = batch(ALL_FIELDS, 1_000L, record(0, 557_558_123, 376_172_999))
+
+        assertTrue(decoder.isBatchFrame(frame, 0, frame.size))
+        assertEquals(1, decode(frame))
+        val fix = decoder.fix(0)
+        assertEquals(55.7558123, fix.latitude, 1e-9)
+        assertEquals(37.6172999, fix.longitude, 1e-9)
+        assertEquals(3.5, fix.speed, 1e-9)
+        assertEquals(-12.0, fix.altitude, 1e-9)
+        assertEquals(180.25, fix.heading, 1e-9)
+        assertEquals(1L, decoder.batches)
+    }
+
+    @Test
+    fun otherFrameTypes_areNotBatches() {
+        val fix = ByteArray(BinaryFrameCodec.FIX_FRAME_SIZE)
+        fix[0] = BinaryFrameCodec.PROTOCOL_VERSION_BINARY.toByte()
+        fix[1] = BinaryFrameCodec.TYPE_FIX.toByte()
+        val json = "{\"lt\":1}".toByteArray(Charsets.US_ASCII)
+
+        assertFalse(decoder.isBatchFrame(fix, 0, fix.size))
+        assertFalse(decoder.isBatchFrame(json, 0, json.size))
+    }
+
+    @Test
+    fun flagsApplyToEveryRecord() {
+        assertEquals(2, decode(batch(0, 0L, record(0, 1, 1), record(100, 2, 2))))
+
+        for (index in 0 until 2) {
+            assertTrue(decoder.fix(index).speed.isNaN())
+            assertTrue(decoder.fix(index).altitude.isNaN())
+            assertTrue(decoder.fix(index).heading.isNaN())
+        }
+    }
+
+    @Test
+    fun recordTimestamps_areBasePlusUnsignedOffsets() {
+        // A base time past 2^31 and an offset past 2^15 must both be read unsigned.
+        val base = 3_000_000_000L
+
+        decode(batch(0, base, record(0, 1, 1), record(200, 2, 2), record(40_000, 3, 3)))
+
+        assertEquals(base, decoder.fix(0).deviceTimeMillis)
+        assertEquals(base + 200L, decoder.fix(1).deviceTimeMillis)
+        assertEquals(base + 40_000L, decoder.fix(2).deviceTimeMillis)
+    }
+
+    @Test
+    fun records_areSortedOldestFirst() {
+        decode(batch(0, 0L, record(400, 3, 0), record(0, 1, 0), record(200, 2, 0)))
+
+        assertEquals(listOf(0L, 200L, 400L), (0 until 3).map { decoder.fix(it).deviceTimeMillis })
+        assertEquals(listOf(1e-7, 2e-7, 3e-7), (0 until 3).map { decoder.fix(it).latitude })
+    }
+
+    @Test
+    fun countBeyondLength_isRejected() {
+        val frame = batch(0, 0L, record(0, 1, 1), record(100, 2, 2))
+        frame[3] = 3
+
+        assertEquals(-1, decode(frame))
+        assertEquals(-1, decoder.decode(frame, 0, FixBatchDecoder.HEADER_SIZE - 1))
+        assertEquals(0L, decoder.batches)
+    }
+
+    @Test
+    fun trailingBytesBeyondCount_areIgnored() {
+        val frame = batch(0, 0L, record(0, 1, 1), record(100, 2, 2))
+        frame[3] = 1
+
+        assertEquals(1, decode(frame))
+    }
+
+    @Test
+    fun emptyBatch_decodesToNoFixes() {
+        assertEquals(0, decode(batch(0, 0L)))
+    }
+
+    @Test
+    fun largeBatch_growsTheRecordPool() {
+        val records = Array(40) { record(it * 100, it, it) }
+
+        assertEquals(40, decode(batch(0, 0L, *records)))
+        assertEquals(3_900L, decoder.fix(39).deviceTimeMillis)
+    }
+
+    private fun decode(frame: ByteArray): Int = decoder.decode(frame, 0, frame.size)
+
+    private fun record(offsetMillis: Int, latitude: Int, longitude: Int): ByteArray {
+        val record = ByteArray(FixBatchDecoder.RECORD_SIZE)
+        putLe(record, 0, offsetMillis, 2)
+        putLe(record, 2, latitude, 4)
+        putLe(record, 6, longitude, 4)
+        putLe(record, 10, 350, 2)
+        putLe(record, 12, -1_200, 4)
+        putLe(record, 16, 18_025, 2)
+        return record
+    }
+
+    private fun batch(flags: Int, baseTime: Long, vararg records: ByteArray): ByteArray {
+        val frame = ByteArray(FixBatchDecoder.HEADER_SIZE + records.size * FixBatchDecoder.RECORD_SIZE)
+        frame[0] = BinaryFrameCodec.PROTOCOL_VERSION_BINARY.toByte()
+        frame[1] = BinaryFrameCodec.TYPE_BATCH.toByte()
+        frame[2] = flags.toByte()
+        frame[3] = records.size.toByte()
+        putLe(frame, 4, baseTime.toInt(), 4)
+        records.forEachIndexed { index, record ->
+            System.arraycopy(record, 0, frame, FixBatchDecoder.HEADER_SIZE + index * record.size, record.size)
+        }
+        return frame
+    }
+
+    private fun putLe(data: ByteArray, offset: Int, value: Int, size: Int) {
+        for (index in 0 until size) data[offset + index] = (value ushr (8 * index)).toByte()
+    }
+
+    companion object {
+        private const val ALL_FIELDS =
+            BinaryFrameCodec.FLAG_HEADING or BinaryFrameCodec.FLAG_SPEED or BinaryFrameCodec.FLAG_ALTITUDE
+    }
+}
@@ -0,0 +1,215 @@
+package com.g992.blegpsmocker
+
+import java.lang.management.ManagementFactory
+import java.util.Locale
+import java.util.Random
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Assume.assumeTrue
+import org.junit.Test
+
+/**
+ * Allocation budget for the per-fix path: notification bytes through [PayloadDecoder] into a
+ * listener that handles fixes and status the way the service does, with the fix pushed
+ * through [MockFixComposer]. Measured with the thread's allocated-bytes counter. GC pauses on
+ * low-end head units show up as stuttering mock fixes, so a change that makes this path
+ * allocate again should fail the build rather than be found on a device.
+ */
+class FixPipelineAllocationTest {
+    private val listener = ServiceLikeListener()
+    private val decoder = PayloadDecoder(Logger.NONE) {}
+    private val jsonFixes = buildJsonFixes()
+    private val binaryFixes = buildBinaryFixes()
+    private val statuses = buildStatuses()
+    private var nowElapsedMillis = 1_000L
+
+    init {
+        decoder.listener = listener
+    }
+
+    @Test
+    fun jsonFixes_stayWithinAllocationBudget() {
+        assertWithinBudget(jsonFixes)
+    }
+
+    @Test
+    fun binaryFixes_stayWithinAllocationBudget() {
+        assertWithinBudget(binaryFixes)
+    }
+
+    private fun assertWithinBudget(fixes: Array<ByteArray>) {
+        val threadBean = ManagementFactory.getThreadMXBean() as? com.sun.management.ThreadMXBean
+        assumeTrue(
+            "Thread allocation counters unavailable on this JVM",
+            threadBean != null && threadBean.isThreadAllocatedMemorySupported
+        )
+        threadBean!!.isThreadAllocatedMemoryEnabled = true
+        val threadId = Thread.currentThread().id
+
+        // Let the JIT compile the path first; interpreted code allocates what escape analysis removes.
+        for (index in 0 until WARMUP_FIXES) feed(fixes, index)
+        listener.pushed = 0
+
+        val before = threadBean.getThreadAllocatedBytes(threadId)
+        for (index in 0 until MEASURED_FIXES) feed(fixes, index)
+        val allocated = threadBean.getThreadAllocatedBytes(threadId) - before
+
+        assertEquals(MEASURED_FIXES, listener.pushed)
+        val perFix = allocated.toDouble() / MEASURED_FIXES
+        assertTrue(
+            "Per-fix allocation $perFix bytes exceeds budget of $BUDGET_BYTES_PER_FIX bytes",
+            perFix <= BUDGET_BYTES_PER_FIX
+        )
+    }
+
+    private fun feed(fixes: Array<ByteArray>, index: Int) {
+        if (index % STATUS_EVERY == 0) {
+            decode(CharacteristicRole.STATUS, statuses[(index / STATUS_EVERY) and CORPUS_MASK])
+        }
+        nowElapsedMillis += FIX_INTERVAL_MS
+        decode(CharacteristicRole.COORDINATES, fixes[index and CORPUS_MASK])
+    }
+
+    private fun decode(role: CharacteristicRole, data: ByteArray) {
+        decoder.decode(role, data, 0, data.size, nowElapsedMillis)
+    }
+
+    /**
+     * What the service does on the ingest thread: fixes go through [MockFixComposer], status
+     * values update it, and the signal levels become a fresh breakdown for the main thread.
+     */
+    private inner class ServiceLikeListener : GnssDataListener {
+        private val composer = MockFixComposer(minIntervalMillis = 0L)
+        private val wallClockOffsetMillis = 1_700_000_000_000L
+        var breakdown = SignalBreakdown(0, 0)
+        var ttffSeconds = -1L
+        var pushed = 0
+
+        override fun onFix(fix: GnssFix) {
+            val nowElapsedNanos = nowElapsedMillis * 1_000_000L
+            composer.update(fix, nowElapsedNanos)
+            val result =
+                composer.compose(
+                    fix.latitude,
+                    fix.longitude,
+                    wallClockOffsetMillis + nowElapsedMillis,
+                    nowElapsedNanos
+                )
+            if (result == MockFixComposer.RESULT_PUSH) pushed++
+        }
+
+        override fun onHdopReceived(hdop: Double) {
+            composer.hdop = hdop
+        }
+
+        override fun onVdopReceived(vdop: Double) {
+            composer.vdop = vdop
+        }
+
+        override fun onSignalLevelsReceived(levels: IntArray, count: Int) {
+            var strong = 0
+            for (index in 0 until count) {
+                if (levels[index] >= 30) strong++
+            }
+            breakdown = SignalBreakdown(strong, count - strong)
+        }
+
+        override fun onFixStatusReceived(fix: Int, type: Int) = Unit
+
+        override fun onTtffReceived(ttffSeconds: Long) {
+            this.ttffSeconds = ttffSeconds
+        }
+
+        override fun onError(message: String) = Unit
+
+        override fun onCoordinatesReceived(latitude: Double, longitude: Double) = Unit
+
+        override fun onFixStatusReceived(status: String) = Unit
+
+        override fun onSignalLevelsReceived(levels: String) = Unit
+
+        override fun onAltitudeReceived(altitudeMeters: Double) {
+            composer.altitude = altitudeMeters
+        }
+
+        override fun onSpeedReceived(speedMetersPerSecond: Double) {
+            composer.speed = speedMetersPerSecond
+        }
+
+        override fun onHeadingReceived(headingDegrees: Double) = Unit
+
+        override fun onDeviceStatusReceived(status: String) = Unit
+
+        override fun onApControlChanged(enabled: Boolean) = Unit
+
+        override fun onBridgeModeChanged(enabled: Boolean) = Unit
+
+        override fun onGpsBaudRateChanged(baudRate: Int) = Unit
+    }
+
+    /** Immutable like the service's breakdown, which it publishes to the main thread. */
+    private class SignalBreakdown(val strong: Int, val weak: Int)
+
+    companion object {
+        /**
+         * Generous for JIT/TLAB noise. Once compiled, only the signal breakdown of each
+         * status frame is allocated, a few bytes per fix at one status every five fixes.
+         */
+        private const val BUDGET_BYTES_PER_FIX = 16.0
+        private const val WARMUP_FIXES = 50_000
+        private const val MEASURED_FIXES = 20_000
+        private const val STATUS_EVERY = 5
+        private const val FIX_INTERVAL_MS = 200L
+        private const val CORPUS_SIZE = 256
+        private const val CORPUS_MASK = CORPUS_SIZE - 1
+
+        private fun buildJsonFixes(): Array<ByteArray> {
+            val random = Random(7L)
+            return Array(CORPUS_SIZE) {
+                val latitude = String.format(Locale.US, "%.7f", 55.0 + random.nextDouble())
+                val longitude = String.format(Locale.US, "%.7f", 37.0 + random.nextDouble())
+                val speed = String.format(Locale.US, "%.2f", random.nextDouble() * 30)
+                "{\"lt\":$latitude,\"lg\":$longitude,\"hd\":${random.nextInt(360)},\"spd\":$speed,\"alt\":${random.nextInt(300)}}"
+                    .toByteArray(Charsets.UTF_8)
+            }
+        }
+
+        private fun buildBinaryFixes(): Array<ByteArray> {
+            val random = Random(7L)
+            return Array(CORPUS_SIZE) {
+                val frame = ByteArray(BinaryFrameCodec.FIX_FRAME_SIZE)
+                frame[0] = BinaryFrameCodec.PROTOCOL_VERSION_BINARY.toByte()
+                frame[1] = BinaryFrameCodec.TYPE_FIX.toByte()
+                frame[2] = (BinaryFrameCodec.FLAG_SPEED or BinaryFrameCodec.FLAG_ALTITUDE).toByte()
+                writeInt32(frame, 3, ((55.0 + random.nextDouble()) * 1e7).toInt())
+                writeInt32(frame, 7, ((37.0 + random.nextDouble()) * 1e7).toInt())
+                writeUInt16(frame, 11, random.nextInt(3_000))
+                writeInt32(frame, 13, random.nextInt(30_000))
+                frame
+            }
+        }
+
+        private fun buildStatuses(): Array<ByteArray> {
+            val random = Random(7L)
+            return Array(CORPUS_SIZE) {
+                val signals = (0 until 32).joinToString(",") { "${random.nextInt(50)}" }
+                val hdop = String.format(Locale.US, "%.2f", 0.6 + random.nextDouble() * 2)
+                "{\"fix\":1,\"hdop\":$hdop,\"signals\":[$signals],\"ttff\":31}".toByteArray(Charsets.UTF_8)
+            }
+        }
+
+        private fun writeInt32(frame: ByteArray, offset: Int, value: Int) {
+            writeLittleEndian(frame, offset, value, 4)
+        }
+
+        private fun writeUInt16(frame: ByteArray, offset: Int, value: Int) {
+            writeLittleEndian(frame, offset, value, 2)
+        }
+
+        private fun writeLittleEndian(frame: ByteArray, offset: Int, value: Int, size: Int) {
+            for (shift in 0 until size) {
+                frame[offset + shift] = (value ushr (8 * shift)).toByte()
+            }
+        }
+    }
+}
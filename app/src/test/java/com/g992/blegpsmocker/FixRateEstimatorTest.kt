@@ -0,0 +1,77 @@
+package com.g992.blegpsmocker
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertTrue
+import org.junit.Test
+
+class FixRateEstimatorTest {
+    private val estimator = FixRateEstimator(windowMillis = 5_000L)
+    private var nowMillis = 100_000L
+
+    @Test
+    fun rate_isMeasuredOncePerWindow() {
+        assertEquals(0, feed(rateHz = 10, seconds = 4))
+        assertEquals(0, estimator.rateHz)
+
+        assertEquals(1, feed(rateHz = 10, seconds = 2))
+        assertEquals(10, estimator.rateHz)
+    }
+
+    @Test
+    fun unchangedRate_isNotReportedAgain() {
+        feed(rateHz = 5, seconds = 6)
+
+        assertEquals(0, feed(rateHz = 5, seconds = 10))
+        assertEquals(5, estimator.rateHz)
+    }
+
+    @Test
+    fun rateChange_isReported() {
+        feed(rateHz = 1, seconds = 6)
+        assertEquals(1, estimator.rateHz)
+
+        assertTrue(feed(rateHz = 10, seconds = 11) > 0)
+        assertEquals(10, estimator.rateHz)
+    }
+
+    @Test
+    fun fixesOfOneFrame_countOneByOne() {
+        // Five delta records every half second are a 10 Hz receiver.
+        repeat(12) {
+            repeat(5) { estimator.onFix(nowMillis) }
+            nowMillis += 500L
+        }
+
+        assertEquals(10, estimator.rateHz)
+    }
+
+    @Test
+    fun slowReceiver_neverReadsAsZero() {
+        feed(rateHz = 1, seconds = 1)
+        nowMillis += 30_000L
+
+        assertTrue(estimator.onFix(nowMillis))
+        assertEquals(1, estimator.rateHz)
+    }
+
+    @Test
+    fun reset_startsOver() {
+        feed(rateHz = 10, seconds = 6)
+
+        estimator.reset()
+
+        assertEquals(0, estimator.rateHz)
+        assertFalse(estimator.onFix(nowMillis))
+    }
+
+    /** Feeds [seconds] of fixes at [rateHz]; returns how many calls reported a new rate. */
+    private fun feed(rateHz: Int, seconds: Int): Int {
+        var changes = 0
+        repeat(rateHz * seconds) {
+            if (estimator.onFix(nowMillis)) changes++
+            nowMillis += 1_000L / rateHz
+        }
+        return changes
+    }
+}
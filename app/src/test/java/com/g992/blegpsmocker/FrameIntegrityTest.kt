@@ -0,0 +1,120 @@
+package com.g992.blegpsmocker
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertTrue
+import org.junit.Test
+
+class FrameIntegrityTest {
+    @Test
+    fun crc16_matchesCcittFalseCheckValues() {
+        assertEquals(0x29B1, Crc16.compute(ascii("123456789"), 0, 9))
+        assertEquals(0xFFFF, Crc16.compute(ByteArray(0), 0, 0))
+        assertEquals(0xB915, Crc16.compute(ascii("A"), 0, 1))
+    }
+
+    @Test
+    fun crc16_coversOnlyTheGivenRange() {
+        val data = ascii("xx123456789yy")
+
+        assertEquals(0x29B1, Crc16.compute(data, 2, 11))
+    }
+
+    @Test
+    fun envelope_acceptsValidCrcAndReadsSequence() {
+        val frame = envelope(0xABCD, ascii("{\"lt\":55.7}"))
+
+        assertTrue(FrameEnvelope.isEnveloped(frame, 0, frame.size))
+        assertTrue(FrameEnvelope.isCrcValid(frame, 0, frame.size))
+        assertEquals(0xABCD, FrameEnvelope.sequence(frame, 0))
+    }
+
+    @Test
+    fun envelope_rejectsCorruptedPayloadOrCrc() {
+        val corruptPayload = envelope(1, ascii("payload"))
+        corruptPayload[FrameEnvelope.HEADER_SIZE] = 'P'.code.toByte()
+        val corruptCrc = envelope(1, ascii("payload"))
+        corruptCrc[corruptCrc.size - 1] = (corruptCrc[corruptCrc.size - 1].toInt() xor 0x01).toByte()
+
+        assertFalse(FrameEnvelope.isCrcValid(corruptPayload, 0, corruptPayload.size))
+        assertFalse(FrameEnvelope.isCrcValid(corruptCrc, 0, corruptCrc.size))
+    }
+
+    @Test
+    fun envelope_ignoresUnmarkedAndTooShortPayloads() {
+        val json = ascii("{\"lt\":1}")
+        val headerOnly = byteArrayOf(FrameEnvelope.ENVELOPE_MARKER.toByte(), 0, 0, 0, 0)
+
+        assertFalse(FrameEnvelope.isEnveloped(json, 0, json.size))
+        assertFalse(FrameEnvelope.isEnveloped(headerOnly, 0, headerOnly.size))
+    }
+
+    @Test
+    fun sequence_countsGapsAndDuplicates() {
+        val tracker = SequenceTracker()
+
+        assertTrue(tracker.accept(10))
+        assertTrue(tracker.accept(11))
+        assertFalse(tracker.accept(11))
+        assertTrue(tracker.accept(15))
+
+        assertEquals(StreamIntegrityStats(received = 3, lost = 3, duplicates = 1), tracker.snapshot())
+    }
+
+    @Test
+    fun sequence_wrapsAroundU16() {
+        val tracker = SequenceTracker()
+
+        assertTrue(tracker.accept(0xFFFE))
+        assertTrue(tracker.accept(0xFFFF))
+        assertTrue(tracker.accept(0))
+        assertTrue(tracker.accept(2))
+
+        assertEquals(4L, tracker.received)
+        assertEquals(1L, tracker.lost)
+        assertEquals(0L, tracker.reordered)
+    }
+
+    @Test
+    fun sequence_dropsFramesReplayedAfterReconnect() {
+        val tracker = SequenceTracker()
+        for (sequence in 100..110) tracker.accept(sequence)
+
+        // The stack replays notifications from before the drop, then the stream carries on.
+        assertFalse(tracker.accept(108))
+        assertFalse(tracker.accept(109))
+        assertTrue(tracker.accept(111))
+
+        assertEquals(2L, tracker.reordered)
+        assertEquals(0L, tracker.lost)
+    }
+
+    @Test
+    fun sequence_resyncsAfterReceiverRestartsItsCounter() {
+        val tracker = SequenceTracker(resyncThreshold = 3)
+        tracker.accept(5_000)
+
+        assertFalse(tracker.accept(0))
+        assertFalse(tracker.accept(1))
+        assertTrue(tracker.accept(2))
+        assertTrue(tracker.accept(3))
+
+        assertEquals(3L, tracker.reordered)
+        assertEquals(0L, tracker.lost)
+    }
+
+    private fun ascii(text: String): ByteArray = text.toByteArray(Charsets.US_ASCII)
+
+    private fun envelope(sequence: Int, payload: ByteArray): ByteArray {
+        val frame = ByteArray(payload.size + FrameEnvelope.OVERHEAD)
+        frame[0] = FrameEnvelope.ENVELOPE_MARKER.toByte()
+        frame[1] = sequence.toByte()
+        frame[2] = (sequence ushr 8).toByte()
+        System.arraycopy(payload, 0, frame, FrameEnvelope.HEADER_SIZE, payload.size)
+        val crcOffset = frame.size - FrameEnvelope.TRAILER_SIZE
+        val crc = Crc16.compute(frame, 1, crcOffset)
+        frame[crcOffset] = crc.toByte()
+        frame[crcOffset + 1] = (crc ushr 8).toByte()
+        return frame
+    }
+}
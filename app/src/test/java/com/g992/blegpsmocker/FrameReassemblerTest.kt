@@ -0,0 +1,153 @@
+package com.g992.blegpsmocker
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertTrue
+import org.junit.Test
+
+class FrameReassemblerTest {
+    private val reassembler = FrameReassembler(maxPayloadSize = 64)
+    private var nowMillis = 10_000L
+
+    @Test
+    fun unfragmentedPayloads_areNotFragments() {
+        val json = "{\"lt\":1}".toByteArray(Charsets.US_ASCII)
+        val binary = byteArrayOf(BinaryFrameCodec.PROTOCOL_VERSION_BINARY.toByte(), 1, 0)
+
+        assertFalse(reassembler.isFragment(json, 0, json.size))
+        assertFalse(reassembler.isFragment(binary, 0, binary.size))
+        assertTrue(reassembler.isFragment(start(0, 3, "ab"), 0, 4))
+    }
+
+    @Test
+    fun fragmentsInOrder_completeThePayload() {
+        assertFalse(accept(start(0, 9, "abc")))
+        assertFalse(accept(middle(1, "def")))
+        assertTrue(accept(end(2, "ghi")))
+
+        assertEquals("abcdefghi", payload())
+        assertEquals(1L, reassembler.completed)
+        assertEquals(0L, reassembler.dropped)
+    }
+
+    @Test
+    fun singleStartAndEndFragment_completes() {
+        assertTrue(accept(fragment(0, FrameReassembler.FLAG_START or FrameReassembler.FLAG_END, 3, "xyz")))
+
+        assertEquals("xyz", payload())
+    }
+
+    @Test
+    fun outOfOrderFragment_dropsThePartialPayload() {
+        accept(start(0, 9, "abc"))
+
+        assertFalse(accept(end(2, "ghi")))
+        assertFalse(accept(middle(1, "def")))
+
+        assertEquals(1L, reassembler.dropped)
+        assertEquals(0L, reassembler.completed)
+    }
+
+    @Test
+    fun duplicateFragment_dropsThePartialPayload() {
+        accept(start(0, 9, "abc"))
+        accept(middle(1, "def"))
+
+        assertFalse(accept(middle(1, "def")))
+        assertFalse(accept(end(2, "ghi")))
+
+        assertEquals(1L, reassembler.dropped)
+    }
+
+    @Test
+    fun missingFinalFragment_isDroppedByTheNextStart() {
+        accept(start(0, 9, "abc"))
+        accept(middle(1, "def"))
+
+        assertFalse(accept(start(2, 2, "ok")))
+        assertEquals(1L, reassembler.dropped)
+        assertTrue(accept(end(3, "")))
+        assertEquals("ok", payload())
+    }
+
+    @Test
+    fun lateFragment_afterTimeoutIsNotCompleted() {
+        accept(start(0, 6, "abc"))
+        nowMillis += FrameReassembler.DEFAULT_TIMEOUT_MS + 1L
+
+        assertFalse(accept(end(1, "def")))
+
+        assertEquals(1L, reassembler.dropped)
+        assertEquals(0L, reassembler.completed)
+    }
+
+    @Test
+    fun fragmentWithinTimeout_completes() {
+        accept(start(0, 6, "abc"))
+        nowMillis += FrameReassembler.DEFAULT_TIMEOUT_MS
+
+        assertTrue(accept(end(1, "def")))
+    }
+
+    @Test
+    fun oversizeTotalLength_isRejected() {
+        assertFalse(accept(start(0, 65, "abc")))
+        assertFalse(accept(end(1, "def")))
+
+        assertEquals(1L, reassembler.dropped)
+        assertEquals(0L, reassembler.completed)
+    }
+
+    @Test
+    fun moreDataThanAnnounced_isRejected() {
+        accept(start(0, 4, "abc"))
+
+        assertFalse(accept(end(1, "de")))
+
+        assertEquals(1L, reassembler.dropped)
+    }
+
+    @Test
+    fun lessDataThanAnnounced_isRejected() {
+        accept(start(0, 8, "abc"))
+
+        assertFalse(accept(end(1, "de")))
+
+        assertEquals(1L, reassembler.dropped)
+    }
+
+    @Test
+    fun fragmentIndex_wrapsAfterSixteen() {
+        accept(start(0, 20, "a"))
+        for (index in 1 until 19) accept(middle(index and 0x0F, "b"))
+
+        assertTrue(accept(end(19 and 0x0F, "c")))
+        assertEquals("a" + "b".repeat(18) + "c", payload())
+    }
+
+    private fun accept(fragment: ByteArray): Boolean = reassembler.accept(fragment, 0, fragment.size, nowMillis)
+
+    private fun payload(): String =
+        String(reassembler.payload, 0, reassembler.payloadLength, Charsets.US_ASCII)
+
+    private fun start(index: Int, total: Int, data: String): ByteArray =
+        fragment(index, FrameReassembler.FLAG_START, total, data)
+
+    private fun middle(index: Int, data: String): ByteArray = fragment(index, 0, -1, data)
+
+    private fun end(index: Int, data: String): ByteArray = fragment(index, FrameReassembler.FLAG_END, -1, data)
+
+    private fun fragment(index: Int, flags: Int, total: Int, data: String): ByteArray {
+        val body = data.toByteArray(Charsets.US_ASCII)
+        val header = if (total >= 0) FrameReassembler.START_HEADER_SIZE else 2
+        val fragment = ByteArray(header + body.size)
+        fragment[0] = FrameReassembler.FRAGMENT_MARKER.toByte()
+        fragment[1] = ((index shl 4) or flags).toByte()
+        if (total >= 0) {
+            fragment[2] = total.toByte()
+            fragment[3] = (total ushr 8).toByte()
+        }
+        System.arraycopy(body, 0, fragment, header, body.size)
+        return fragment
+    }
+}
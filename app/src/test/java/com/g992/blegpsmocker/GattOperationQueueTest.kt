@@ -0,0 +1,164 @@
+package com.g992.blegpsmocker
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertTrue
+import org.junit.Test
+
+class GattOperationQueueTest {
+    private val scheduler = VirtualScheduler()
+    private val started = ArrayList<GattOperation>()
+    private var accepting = true
+    private val queue =
+        GattOperationQueue(
+            { operation ->
+                if (accepting) started.add(operation)
+                accepting
+            },
+            scheduler
+        )
+    private val results = ArrayList<String>()
+
+    @Test
+    fun operationsRunOneAtATimeInLaneOrder() {
+        queue.enqueue(read("a", CharacteristicRole.GPS_BAUD))
+        queue.enqueue(write("b", CharacteristicRole.AP_CONTROL, GattOperationQueue.Lane.CONTROL))
+        queue.enqueue(
+            GattOperation(
+                GattOperation.KIND_SUBSCRIBE,
+                CharacteristicRole.COORDINATES,
+                GattOperationQueue.Lane.SUBSCRIPTION,
+                completion = record("c")
+            )
+        )
+
+        assertEquals(1, started.size)
+        assertTrue(queue.complete(GattOperation.KIND_READ, CharacteristicRole.GPS_BAUD, 0))
+        assertTrue(queue.complete(GattOperation.KIND_SUBSCRIBE, CharacteristicRole.COORDINATES, 0))
+        assertTrue(queue.complete(GattOperation.KIND_WRITE, CharacteristicRole.AP_CONTROL, 0))
+
+        assertEquals(listOf("a 0", "c 0", "b 0"), results)
+        assertEquals(0, queue.pendingCount)
+    }
+
+    @Test
+    fun callbackForAnotherOperation_completesNothing() {
+        queue.enqueue(read("a", CharacteristicRole.GPS_BAUD))
+
+        assertFalse(queue.complete(GattOperation.KIND_WRITE, CharacteristicRole.GPS_BAUD, 0))
+        assertFalse(queue.complete(GattOperation.KIND_READ, CharacteristicRole.AP_CONTROL, 0))
+
+        assertTrue(results.isEmpty())
+        assertEquals(1, queue.pendingCount)
+    }
+
+    @Test
+    fun eachStartGetsANewGeneration() {
+        queue.enqueue(read("a", CharacteristicRole.GPS_BAUD))
+        queue.complete(GattOperation.KIND_READ, CharacteristicRole.GPS_BAUD, 0)
+        queue.enqueue(read("b", CharacteristicRole.GPS_BAUD))
+
+        assertEquals(2, started.size)
+        assertTrue(started[1].generation > started[0].generation)
+    }
+
+    @Test
+    fun lateCallbackAfterTimeout_doesNotCompleteTheNextSameOperation() {
+        queue.enqueue(read("a", CharacteristicRole.GPS_BAUD))
+        queue.enqueue(read("b", CharacteristicRole.GPS_BAUD, GattOperationQueue.Lane.CONTROL))
+        scheduler.advanceBy(GattOperation.DEFAULT_TIMEOUT_MS)
+        assertEquals(listOf("a ${GattOperation.STATUS_TIMEOUT}"), results)
+
+        // The answer to "a" arrives while "b" is running.
+        assertFalse(queue.complete(GattOperation.KIND_READ, CharacteristicRole.GPS_BAUD, 0, byteArrayOf(1)))
+        assertEquals(1, results.size)
+        assertEquals(1L, queue.lateCallbacks)
+
+        assertTrue(queue.complete(GattOperation.KIND_READ, CharacteristicRole.GPS_BAUD, 0, byteArrayOf(2)))
+        assertEquals("b 0", results.last())
+        assertEquals(2, started.last().result!![0].toInt())
+    }
+
+    @Test
+    fun lateCallbackIsOnlyExpectedWithinTheTimeout() {
+        queue.enqueue(read("a", CharacteristicRole.GPS_BAUD, timeoutMillis = 100L))
+        queue.enqueue(read("b", CharacteristicRole.GPS_BAUD, GattOperationQueue.Lane.CONTROL))
+        scheduler.advanceBy(100L)
+
+        // The stack never answered "a"; once its window has passed, the callback is "b"'s own.
+        scheduler.advanceBy(100L)
+        assertTrue(queue.complete(GattOperation.KIND_READ, CharacteristicRole.GPS_BAUD, 0))
+
+        assertEquals(listOf("a ${GattOperation.STATUS_TIMEOUT}", "b 0"), results)
+        assertEquals(0L, queue.lateCallbacks)
+    }
+
+    @Test
+    fun otherCallbackAfterTimeout_settlesTheLateAnswer() {
+        queue.enqueue(read("a", CharacteristicRole.GPS_BAUD))
+        queue.enqueue(write("b", CharacteristicRole.AP_CONTROL, GattOperationQueue.Lane.READ))
+        queue.enqueue(read("c", CharacteristicRole.GPS_BAUD, GattOperationQueue.Lane.KEEPALIVE))
+        scheduler.advanceBy(GattOperation.DEFAULT_TIMEOUT_MS)
+
+        // The stack answers in order, so once "b" is answered "a"'s answer is not coming.
+        assertTrue(queue.complete(GattOperation.KIND_WRITE, CharacteristicRole.AP_CONTROL, 0))
+        assertTrue(queue.complete(GattOperation.KIND_READ, CharacteristicRole.GPS_BAUD, 0))
+
+        assertEquals(listOf("a ${GattOperation.STATUS_TIMEOUT}", "b 0", "c 0"), results)
+        assertEquals(0L, queue.lateCallbacks)
+    }
+
+    @Test
+    fun refusedStart_isRetriedThenReported() {
+        accepting = false
+        queue.enqueue(read("a", CharacteristicRole.GPS_BAUD))
+
+        scheduler.advanceBy(1_000L)
+
+        assertEquals(listOf("a ${GattOperation.STATUS_NOT_STARTED}"), results)
+        assertEquals(0, queue.pendingCount)
+    }
+
+    @Test
+    fun waitingReads_areCoalesced() {
+        queue.enqueue(read("a", CharacteristicRole.GPS_BAUD))
+
+        assertTrue(queue.enqueue(read("b", CharacteristicRole.AP_CONTROL)))
+        assertFalse(queue.enqueue(read("c", CharacteristicRole.AP_CONTROL)))
+        assertEquals(2, queue.pendingCount)
+    }
+
+    @Test
+    fun clear_cancelsEverythingAndForgetsTheLateAnswer() {
+        queue.enqueue(read("a", CharacteristicRole.GPS_BAUD))
+        scheduler.advanceBy(GattOperation.DEFAULT_TIMEOUT_MS)
+        queue.enqueue(read("b", CharacteristicRole.GPS_BAUD))
+        queue.enqueue(read("c", CharacteristicRole.AP_CONTROL))
+
+        queue.clear()
+        queue.enqueue(read("d", CharacteristicRole.GPS_BAUD))
+
+        assertTrue(queue.complete(GattOperation.KIND_READ, CharacteristicRole.GPS_BAUD, 0))
+        assertEquals(
+            listOf(
+                "a ${GattOperation.STATUS_TIMEOUT}",
+                "b ${GattOperation.STATUS_CANCELLED}",
+                "c ${GattOperation.STATUS_CANCELLED}",
+                "d 0"
+            ),
+            results
+        )
+    }
+
+    private fun read(
+        name: String,
+        role: CharacteristicRole,
+        lane: GattOperationQueue.Lane = GattOperationQueue.Lane.READ,
+        timeoutMillis: Long = GattOperation.DEFAULT_TIMEOUT_MS
+    ): GattOperation = GattOperation(GattOperation.KIND_READ, role, lane, null, timeoutMillis, record(name))
+
+    private fun write(name: String, role: CharacteristicRole, lane: GattOperationQueue.Lane): GattOperation =
+        GattOperation(GattOperation.KIND_WRITE, role, lane, byteArrayOf(1), completion = record(name))
+
+    private fun record(name: String) = GattOperation.Completion { _, status -> results.add("$name $status") }
+}
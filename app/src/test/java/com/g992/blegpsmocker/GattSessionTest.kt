@@ -0,0 +1,382 @@
+package com.g992.blegpsmocker
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertNull
+import org.junit.Assert.assertTrue
+import org.junit.Test
+
+/**
+ * [GattSession] against [FakeGpsPeripheral] in virtual time: connection setup, streaming,
+ * keepalive, settings and the failure paths that are hard to reproduce with a real receiver.
+ */
+class GattSessionTest {
+    private val scheduler = VirtualScheduler()
+    private val values = ArrayList<Pair<CharacteristicRole, String>>()
+    private val applied = ArrayList<Pair<CharacteristicRole, String>>()
+    private val errors = ArrayList<String>()
+    private val logger = RecordingLogger()
+    private var servicesReady = 0
+    private var disconnected = 0
+    private lateinit var session: GattSession
+
+    private fun connect(
+        peripheral: FakeGpsPeripheral = FakeGpsPeripheral(scheduler),
+        fixRateHz: Int = ConnectionManager.DEFAULT_FIX_RATE_HZ
+    ): FakeGpsPeripheral {
+        session =
+            GattSession(
+                peripheral,
+                scheduler,
+                GattSession.Clock { scheduler.now },
+                logger,
+                fixRateHz,
+                object : GattSession.Events {
+                    override fun onConnected() = Unit
+
+                    override fun onServicesReady(profile: ReceiverProfile) {
+                        servicesReady++
+                    }
+
+                    override fun onDisconnected() {
+                        disconnected++
+                        session.close()
+                    }
+
+                    override fun onValue(role: CharacteristicRole, data: ByteArray) {
+                        if (role == CharacteristicRole.RPC) {
+                            assertTrue(session.onRpcResponse(data, 0, data.size))
+                        } else {
+                            values.add(role to String(data, Charsets.UTF_8))
+                        }
+                    }
+
+                    override fun onSettingApplied(
+                        role: CharacteristicRole,
+                        data: ByteArray,
+                        offset: Int,
+                        length: Int
+                    ) {
+                        applied.add(role to String(data, offset, length, Charsets.UTF_8))
+                    }
+
+                    override fun onError(message: String) {
+                        errors.add(message)
+                    }
+                }
+            )
+        assertTrue(session.connect())
+        scheduler.advanceBy(SETUP_MILLIS)
+        return peripheral
+    }
+
+    @Test
+    fun setup_negotiatesMtuAndSubscribesInPriorityOrder() {
+        val peripheral = connect()
+
+        assertEquals(1, servicesReady)
+        assertEquals(247, session.mtu)
+        assertEquals(244, session.getMaxPayloadSize())
+        assertEquals(
+            listOf(
+                "subscribe COORDINATES",
+                "subscribe STATUS",
+                "subscribe BRIDGE_STREAM",
+                "subscribe RPC",
+                "subscribe KEEPALIVE",
+                "write RPC"
+            ),
+            peripheral.operations
+        )
+        assertEquals(0, peripheral.overlappingRequests)
+        assertTrue(errors.isEmpty())
+    }
+
+    @Test
+    fun setup_capsPayloadAtAttributeLimit() {
+        connect(FakeGpsPeripheral(scheduler).apply { agreedMtu = GattSession.MAX_ATT_MTU })
+
+        assertEquals(GattSession.MAX_ATT_MTU, session.mtu)
+        assertEquals(IngestQueue.MAX_ATTRIBUTE_SIZE, session.getMaxPayloadSize())
+    }
+
+    @Test
+    fun setup_skipsCharacteristicsThatDoNotNotify() {
+        val peripheral = connect(FakeGpsPeripheral(scheduler, FakeGpsPeripheral.LEGACY_PROPERTIES))
+
+        assertFalse(peripheral.isSubscribed(CharacteristicRole.KEEPALIVE))
+        assertFalse(peripheral.operations.any { it.endsWith("RPC") })
+        assertTrue(peripheral.isSubscribed(CharacteristicRole.BRIDGE_STREAM))
+    }
+
+    @Test
+    fun linkTuning_followsFixRate() {
+        val slow = connect()
+        assertEquals(GattTransport.CONNECTION_PRIORITY_BALANCED, slow.connectionPriority)
+        assertEquals(GattTransport.PHY_LE_1M, session.txPhy)
+
+        val fast = connect(FakeGpsPeripheral(scheduler), fixRateHz = 10)
+        assertEquals(GattTransport.CONNECTION_PRIORITY_HIGH, fast.connectionPriority)
+        assertEquals(GattTransport.PHY_LE_2M, session.txPhy)
+        assertEquals(GattTransport.PHY_LE_2M, session.rxPhy)
+    }
+
+    @Test
+    fun linkTuning_followsMeasuredFixRate() {
+        val peripheral = connect()
+
+        session.updateFixRate(10)
+        scheduler.advanceBy(100L)
+        assertEquals(GattTransport.CONNECTION_PRIORITY_HIGH, peripheral.connectionPriority)
+        assertEquals(GattTransport.PHY_LE_2M, session.txPhy)
+
+        session.updateFixRate(1)
+        scheduler.advanceBy(100L)
+        assertEquals(GattTransport.CONNECTION_PRIORITY_BALANCED, peripheral.connectionPriority)
+        assertEquals(1, session.fixRateHz)
+    }
+
+    @Test
+    fun notifications_arriveAtConfiguredRates() {
+        val peripheral = connect()
+        values.clear()
+        peripheral.streamCoordinates(10)
+        peripheral.streamStatus(1)
+
+        scheduler.advanceBy(5_000L)
+
+        assertEquals(50, values.count { it.first == CharacteristicRole.COORDINATES })
+        assertEquals(5, values.count { it.first == CharacteristicRole.STATUS })
+        assertEquals(peripheral.coordinatesSent + peripheral.statusSent, values.size)
+        assertTrue(values.first().second.startsWith("{\"lt\":"))
+    }
+
+    @Test
+    fun keepAlive_backsOffWithoutTraffic() {
+        val peripheral = connect()
+        session.startKeepAlive()
+
+        scheduler.advanceBy(20_500L)
+
+        // Acknowledged beats double the interval until it reaches the ceiling.
+        val gaps = peripheral.keepAliveWrites.zipWithNext { first, second -> second - first }
+        assertTrue(gaps.first() < GattSession.KEEPALIVE_MAX_INTERVAL_MS)
+        assertTrue(gaps.takeLast(3).all { it == GattSession.KEEPALIVE_MAX_INTERVAL_MS })
+        assertEquals(GattSession.KEEPALIVE_MAX_INTERVAL_MS, session.getKeepAliveIntervalMillis())
+        assertTrue(peripheral.keepAliveWithoutResponse)
+    }
+
+    @Test
+    fun keepAlive_onlyForcedBeatsWhileTrafficFlows() {
+        val peripheral = connect()
+        peripheral.streamCoordinates(10)
+        session.startKeepAlive()
+
+        scheduler.advanceBy(19_500L)
+
+        val gaps = peripheral.keepAliveWrites.zipWithNext { first, second -> second - first }
+        assertEquals(5, peripheral.keepAliveWrites.size)
+        assertTrue(gaps.all { it >= GattSession.KEEPALIVE_MAX_INTERVAL_MS })
+    }
+
+    @Test
+    fun keepAlive_failedBeatsResetInterval() {
+        val peripheral = connect()
+        peripheral.failNext(GattOperation.KIND_WRITE, CharacteristicRole.KEEPALIVE, times = 100)
+        val start = scheduler.now
+        session.startKeepAlive()
+
+        scheduler.advanceBy(5_500L)
+
+        assertEquals(
+            listOf(0L, 1_000L, 2_000L, 3_000L, 4_000L, 5_000L),
+            peripheral.keepAliveWrites.map { it - start }
+        )
+        assertEquals(6, errors.size)
+    }
+
+    @Test
+    fun keepAlive_answersEstimateRttAndClockOffset() {
+        val peripheral = connect()
+        peripheral.latencyMillis = 15L
+        peripheral.clockOffsetMillis = 86_400_000L
+        session.startKeepAlive()
+
+        scheduler.advanceBy(10_000L)
+
+        assertEquals(30L, session.getLinkRttMillis())
+        assertEquals(86_400_000L, session.getReceiverClockOffsetMillis())
+    }
+
+    @Test
+    fun settingChange_overRpcReportsAppliedValue() {
+        val peripheral = connect()
+        val results = ArrayList<Pair<Boolean, String?>>()
+
+        assertTrue(
+            session.requestSettingChange(CharacteristicRole.GPS_BAUD, "115200") { success, value ->
+                results.add(success to value)
+            }
+        )
+        scheduler.advanceBy(100L)
+
+        assertEquals(listOf(true to "115200"), results)
+        assertEquals(listOf(CharacteristicRole.GPS_BAUD to "115200"), applied)
+        assertEquals("115200", String(peripheral.values.getValue(CharacteristicRole.GPS_BAUD)))
+    }
+
+    @Test
+    fun settingChange_refusedByReceiver() {
+        val peripheral = connect()
+        peripheral.refusedSettings["mode"] = "busy"
+        val results = ArrayList<Pair<Boolean, String?>>()
+
+        session.requestSettingChange(CharacteristicRole.MODE_CONTROL, "1") { success, value ->
+            results.add(success to value)
+        }
+        scheduler.advanceBy(100L)
+
+        assertEquals(listOf(false to "busy"), results)
+        assertTrue(applied.isEmpty())
+    }
+
+    @Test
+    fun settingChange_unansweredRpcTimesOut() {
+        val peripheral = connect()
+        peripheral.answerRpc = false
+        val results = ArrayList<Boolean>()
+
+        session.requestSettingChange(CharacteristicRole.AP_CONTROL, "1") { success, _ ->
+            results.add(success)
+        }
+        scheduler.advanceBy(SettingsRpc.DEFAULT_TIMEOUT_MS - 1L)
+        assertTrue(results.isEmpty())
+        scheduler.advanceBy(1L)
+
+        assertEquals(listOf(false), results)
+    }
+
+    @Test
+    fun settingChange_withoutRpcWritesAndReadsBack() {
+        val peripheral = connect(FakeGpsPeripheral(scheduler, FakeGpsPeripheral.LEGACY_PROPERTIES))
+        peripheral.operations.clear()
+        val results = ArrayList<Pair<Boolean, String?>>()
+
+        session.requestSettingChange(CharacteristicRole.AP_CONTROL, "1") { success, value ->
+            results.add(success to value)
+        }
+        scheduler.advanceBy(100L)
+
+        assertEquals(listOf("write AP_CONTROL", "read AP_CONTROL"), peripheral.operations)
+        assertEquals(listOf(true to "1"), results)
+        assertEquals(CharacteristicRole.AP_CONTROL to "1", values.last())
+    }
+
+    @Test
+    fun settingChange_withoutRpcReportsReadBackMismatch() {
+        val peripheral = connect(FakeGpsPeripheral(scheduler, FakeGpsPeripheral.LEGACY_PROPERTIES))
+        peripheral.values[CharacteristicRole.GPS_BAUD] = "9600".toByteArray(Charsets.UTF_8)
+        peripheral.ignoredWrites.add(CharacteristicRole.GPS_BAUD)
+        val results = ArrayList<Pair<Boolean, String?>>()
+
+        session.requestSettingChange(CharacteristicRole.GPS_BAUD, "921600") { success, value ->
+            results.add(success to value)
+        }
+        scheduler.advanceBy(100L)
+
+        assertEquals(listOf(false to "9600"), results)
+        assertEquals("Setting GPS_BAUD reads back as 9600, requested 921600", logger.warnings.last())
+    }
+
+    @Test
+    fun refusedStart_isRetried() {
+        val peripheral = connect()
+        peripheral.values[CharacteristicRole.STATUS] = FakeGpsPeripheral.statusFrame(0)
+        peripheral.refuseNext(GattOperation.KIND_READ, CharacteristicRole.STATUS, times = 2)
+
+        session.read(CharacteristicRole.STATUS)
+        scheduler.advanceBy(200L)
+
+        assertEquals(CharacteristicRole.STATUS, values.single().first)
+    }
+
+    @Test
+    fun droppedResponse_timesOutAndQueueMovesOn() {
+        val peripheral = connect(FakeGpsPeripheral(scheduler, FakeGpsPeripheral.LEGACY_PROPERTIES))
+        peripheral.dropNext(GattOperation.KIND_WRITE, CharacteristicRole.GPS_BAUD)
+        val results = ArrayList<Pair<Boolean, String?>>()
+
+        session.requestSettingChange(CharacteristicRole.GPS_BAUD, "9600") { success, value ->
+            results.add(success to value)
+        }
+        session.read(CharacteristicRole.STATUS)
+        scheduler.advanceBy(GattOperation.DEFAULT_TIMEOUT_MS - 1L)
+        assertTrue(results.isEmpty())
+        assertTrue(values.isEmpty())
+        scheduler.advanceBy(100L)
+
+        assertEquals(listOf(false to null), results)
+        assertEquals(CharacteristicRole.STATUS, values.single().first)
+    }
+
+    @Test
+    fun gattError_isReportedAndNextReadWorks() {
+        val peripheral = connect()
+        peripheral.failNext(GattOperation.KIND_READ, CharacteristicRole.STATUS)
+
+        session.read(CharacteristicRole.STATUS)
+        scheduler.advanceBy(100L)
+        assertEquals(1, errors.size)
+        assertTrue(values.isEmpty())
+
+        session.read(CharacteristicRole.STATUS)
+        scheduler.advanceBy(100L)
+        assertEquals(1, values.size)
+    }
+
+    @Test
+    fun accessTheProfileDoesNotDeclare_isNotIssued() {
+        // The bridge stream is notify-only in the profile, whatever the GATT server claims.
+        val properties =
+            FakeGpsPeripheral.GPS_C3_PROPERTIES +
+                (CharacteristicRole.BRIDGE_STREAM to
+                    (GattTransport.PROPERTY_READ or GattTransport.PROPERTY_WRITE or GattTransport.PROPERTY_NOTIFY))
+        val peripheral = connect(FakeGpsPeripheral(scheduler, properties))
+        val issued = peripheral.operations.size
+
+        session.read(CharacteristicRole.BRIDGE_STREAM)
+        scheduler.advanceBy(100L)
+
+        assertFalse(session.isWritable(CharacteristicRole.BRIDGE_STREAM))
+        assertEquals(issued, peripheral.operations.size)
+        assertEquals("read(BRIDGE_STREAM) skipped: not readable on this receiver", logger.warnings.last())
+    }
+
+    @Test
+    fun linkLoss_failsPendingRequestsAndStopsKeepAlive() {
+        val peripheral = connect()
+        peripheral.answerRpc = false
+        session.startKeepAlive()
+        scheduler.advanceBy(100L)
+        val results = ArrayList<Boolean>()
+        session.requestSettingChange(CharacteristicRole.AP_CONTROL, "0") { success, _ ->
+            results.add(success)
+        }
+        scheduler.advanceBy(100L)
+
+        peripheral.dropLink()
+        val beats = peripheral.keepAliveWrites.size
+        scheduler.advanceBy(20_000L)
+
+        assertEquals(1, disconnected)
+        assertEquals(listOf(false), results)
+        assertEquals(beats, peripheral.keepAliveWrites.size)
+        assertNull(session.profile)
+        assertEquals(GattSession.DEFAULT_ATT_MTU, session.mtu)
+        assertEquals(-1L, session.getLinkRttMillis())
+    }
+
+    companion object {
+        private const val SETUP_MILLIS = 1_000L
+    }
+}
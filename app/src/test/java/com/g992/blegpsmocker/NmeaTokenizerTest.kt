@@ -0,0 +1,138 @@
+package com.g992.blegpsmocker
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Test
+
+class NmeaTokenizerTest {
+    private val fixes = ArrayList<DoubleArray>()
+    private val statuses = ArrayList<String>()
+    private val tokenizer =
+        NmeaTokenizer(
+            object : NmeaTokenizer.Listener {
+                override fun onNmeaFix(payload: CoordinatesPayload) {
+                    fixes.add(
+                        doubleArrayOf(
+                            payload.latitude,
+                            payload.longitude,
+                            payload.altitude,
+                            payload.speed,
+                            payload.heading
+                        )
+                    )
+                }
+
+                override fun onNmeaStatus(payload: StatusPayload) {
+                    statuses.add("fix=${payload.fix} hdop=${payload.hdop}")
+                }
+            }
+        )
+
+    @Test
+    fun gga_decodesPositionAltitudeAndHdop() {
+        feed(sentence("GPGGA,123519,4807.038,N,01131.000,E,1,08,0.9,545.4,M,46.9,M,,"))
+
+        assertEquals(listOf("fix=1 hdop=0.9"), statuses)
+        assertFix(doubleArrayOf(48.1173, 11.0 + 31.0 / 60.0, 545.4, Double.NaN, Double.NaN), fixes.single())
+        assertEquals(1L, tokenizer.sentences)
+    }
+
+    @Test
+    fun gga_southAndWestAreNegative() {
+        feed(sentence("GNGGA,010203.00,3351.000,S,15112.600,W,2,10,1.2,20.0,M,,M,,"))
+
+        assertFix(doubleArrayOf(-33.85, -151.21, 20.0, Double.NaN, Double.NaN), fixes.single())
+    }
+
+    @Test
+    fun rmc_withoutGgaEmitsFixWithSpeedAndCourse() {
+        feed(sentence("GPRMC,123519,A,4807.038,N,01131.000,E,022.4,084.4,230394,003.1,W"))
+
+        assertFix(
+            doubleArrayOf(48.1173, 11.0 + 31.0 / 60.0, Double.NaN, 22.4 * 0.514444, 84.4),
+            fixes.single()
+        )
+    }
+
+    @Test
+    fun rmc_voidStatusEmitsNothing() {
+        feed(sentence("GPRMC,123519,V,4807.038,N,01131.000,E,022.4,084.4,230394,003.1,W"))
+
+        assertTrue(fixes.isEmpty())
+    }
+
+    @Test
+    fun gga_takesSpeedAndCourseFromRmcOfTheSameEpoch() {
+        feed(sentence("GPRMC,123519,A,4807.038,N,01131.000,E,010.0,270.0,230394,,"))
+        feed(sentence("GPGGA,123519,4807.038,N,01131.000,E,1,08,0.9,545.4,M,46.9,M,,"))
+        feed(sentence("GPGGA,123520,4807.040,N,01131.000,E,1,08,0.9,545.4,M,46.9,M,,"))
+
+        assertEquals(3, fixes.size)
+        assertEquals(10.0 * 0.514444, fixes[1][3], 1e-9)
+        assertEquals(270.0, fixes[1][4], 1e-9)
+        assertTrue(fixes[2][3].isNaN())
+    }
+
+    @Test
+    fun emptyFields_doNotBecomeZeroCoordinates() {
+        feed(sentence("GPGGA,123519,,,,,0,00,,,M,,M,,"))
+        feed(sentence("GPGGA,123520,.,N,.,E,1,04,.,.,M,,M,,"))
+        feed(sentence("GPRMC,123521,A,,,,,,,230394,,"))
+
+        assertEquals(listOf("fix=0 hdop=NaN", "fix=1 hdop=NaN"), statuses)
+        assertTrue(fixes.isEmpty())
+    }
+
+    @Test
+    fun badChecksum_isCountedAndDropped() {
+        val valid = sentence("GPGGA,123519,4807.038,N,01131.000,E,1,08,0.9,545.4,M,46.9,M,,")
+        val corrupted = valid.replace("4807.038", "4807.039")
+
+        feed(corrupted)
+
+        assertEquals(1L, tokenizer.checksumErrors)
+        assertEquals(0L, tokenizer.sentences)
+        assertTrue(statuses.isEmpty())
+    }
+
+    @Test
+    fun missingChecksum_isRejected() {
+        feed("\$GPGGA,123519,4807.038,N,01131.000,E,1,08,0.9,545.4,M,46.9,M,,\r\n")
+
+        assertEquals(1L, tokenizer.checksumErrors)
+        assertTrue(fixes.isEmpty())
+        assertTrue(statuses.isEmpty())
+    }
+
+    @Test
+    fun sentenceSplitAcrossFeeds_isDecoded() {
+        val bytes = sentence("GPGGA,123519,4807.038,N,01131.000,E,1,08,0.9,545.4,M,46.9,M,,")
+            .toByteArray(Charsets.US_ASCII)
+
+        for (index in bytes.indices) tokenizer.feed(bytes, index, 1)
+
+        assertEquals(1, fixes.size)
+    }
+
+    private fun feed(text: String) {
+        val bytes = text.toByteArray(Charsets.US_ASCII)
+        tokenizer.feed(bytes, 0, bytes.size)
+    }
+
+    private fun sentence(body: String): String {
+        var checksum = 0
+        for (character in body) checksum = checksum xor character.code
+        return "\$$body*${String.format("%02X", checksum)}\r\n"
+    }
+
+    private fun assertFix(expected: DoubleArray, actual: DoubleArray) {
+        assertEquals(expected.size, actual.size)
+        for (index in expected.indices) {
+            if (expected[index].isNaN()) {
+                assertTrue("field $index", actual[index].isNaN())
+            } else {
+                assertEquals("field $index", expected[index], actual[index], 1e-9)
+            }
+        }
+    }
+}
@@ -0,0 +1,304 @@
+package com.g992.blegpsmocker
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Test
+
+/**
+ * [PayloadDecoder] on single values, and behind [GattSession] and [IngestQueue] with
+ * [FakeGpsPeripheral] streaming, wired the way [ConnectionManager] wires them.
+ */
+class PayloadDecoderTest {
+    private val logger = RecordingLogger()
+    private val rates = ArrayList<Int>()
+    private val decoder = PayloadDecoder(logger) { hz -> rates.add(hz) }
+    private val events = RecordingListener()
+    private var nowMillis = 0L
+
+    init {
+        decoder.listener = events
+    }
+
+    @Test
+    fun jsonFix_isFusedWithTheLatestStatus() {
+        decode(CharacteristicRole.STATUS, FakeGpsPeripheral.statusFrame(0))
+        decode(CharacteristicRole.COORDINATES, FakeGpsPeripheral.coordinatesFrame(0))
+
+        assertEquals(listOf("fix 55.75,37.61 spd=1.5 alt=150.0 hdop=0.9 live"), events.fixes)
+    }
+
+    @Test
+    fun binaryFix_isDecoded() {
+        val frame = ByteArray(BinaryFrameCodec.FIX_FRAME_SIZE)
+        frame[0] = BinaryFrameCodec.PROTOCOL_VERSION_BINARY.toByte()
+        frame[1] = BinaryFrameCodec.TYPE_FIX.toByte()
+        frame[2] = BinaryFrameCodec.FLAG_SPEED.toByte()
+        writeLittleEndian(frame, 3, 557_500_000, 4)
+        writeLittleEndian(frame, 7, 376_100_000, 4)
+        writeLittleEndian(frame, 11, 250, 2)
+
+        decode(CharacteristicRole.COORDINATES, frame)
+
+        assertEquals(listOf("fix 55.75,37.61 spd=2.5 alt=NaN hdop=NaN live"), events.fixes)
+    }
+
+    @Test
+    fun nonStrictJson_fallsBackToOrgJson() {
+        decode(CharacteristicRole.COORDINATES, "{\"lt\":\"55.75\",\"lg\":37.61}".toByteArray(Charsets.UTF_8))
+
+        assertEquals(1, events.fixes.size)
+        assertTrue(events.fixes[0].startsWith("fix 55.75,37.61 "))
+    }
+
+    @Test
+    fun garbage_isDroppedWithAWarning() {
+        decode(CharacteristicRole.COORDINATES, "{\"lt\":55.7".toByteArray(Charsets.UTF_8))
+
+        assertTrue(events.fixes.isEmpty())
+        assertTrue(logger.warnings.single().startsWith("Invalid Navigation JSON"))
+    }
+
+    @Test
+    fun status_reportsItsFields() {
+        decode(CharacteristicRole.STATUS, FakeGpsPeripheral.statusFrame(1))
+
+        assertEquals(listOf("status 1,1", "hdop 0.9", "signals 31,28,40", "ttff 31"), events.other)
+    }
+
+    @Test
+    fun configRevision_isReportedOnlyWhenItChanges() {
+        for (revision in listOf(4, 4, 4, 5, 5)) {
+            decode(CharacteristicRole.STATUS, "{\"fix\":1,\"cfg\":$revision}".toByteArray(Charsets.UTF_8))
+        }
+
+        assertEquals(listOf("revision 4", "revision 5"), events.other.filter { it.startsWith("revision") })
+
+        // A new connection hears the current revision again.
+        decoder.reset()
+        decode(CharacteristicRole.STATUS, "{\"fix\":1,\"cfg\":5}".toByteArray(Charsets.UTF_8))
+        assertEquals("revision 5", events.other.last())
+    }
+
+    @Test
+    fun settingValues_reachTheirCallbacks() {
+        decode(CharacteristicRole.AP_CONTROL, "1")
+        decode(CharacteristicRole.MODE_CONTROL, "0")
+        decode(CharacteristicRole.GPS_BAUD, "115200\n")
+        decode(CharacteristicRole.GPS_BAUD, "fast")
+        decode(CharacteristicRole.PROTOCOL, "3")
+
+        assertEquals(listOf("ap true", "bridge false", "baud 115200"), events.other)
+        assertEquals(listOf("Invalid GPS baud payload: fast"), logger.warnings)
+        assertEquals(3, decoder.wireProtocolVersion)
+    }
+
+    @Test
+    fun envelope_dropsCorruptAndRepeatedFrames() {
+        val first = envelope(1, FakeGpsPeripheral.coordinatesFrame(0))
+        val corrupt = envelope(2, FakeGpsPeripheral.coordinatesFrame(1)).also { it[5] = '9'.code.toByte() }
+
+        decode(CharacteristicRole.COORDINATES, first)
+        decode(CharacteristicRole.COORDINATES, first)
+        decode(CharacteristicRole.COORDINATES, corrupt)
+        decode(CharacteristicRole.COORDINATES, envelope(3, FakeGpsPeripheral.coordinatesFrame(2)))
+
+        assertEquals(2, events.fixes.size)
+        assertEquals(1L, decoder.coordinatesIntegrityStats().crcErrors)
+    }
+
+    @Test
+    fun fragments_areReassembledBeforeDecoding() {
+        val payload = FakeGpsPeripheral.coordinatesFrame(0)
+        val split = payload.size / 2
+
+        decode(CharacteristicRole.COORDINATES, fragment(0, FrameReassembler.FLAG_START, payload, 0, split, payload.size))
+        assertTrue(events.fixes.isEmpty())
+        decode(CharacteristicRole.COORDINATES, fragment(1, FrameReassembler.FLAG_END, payload, split, payload.size, -1))
+
+        assertEquals(1, events.fixes.size)
+        assertEquals(0L, decoder.droppedFragmentedPayloads)
+    }
+
+    @Test
+    fun valueAtAnOffset_isDecodedInPlace() {
+        val frame = FakeGpsPeripheral.coordinatesFrame(0)
+        val slot = ByteArray(frame.size + 8)
+        System.arraycopy(frame, 0, slot, 4, frame.size)
+
+        decoder.decode(CharacteristicRole.COORDINATES, slot, 4, frame.size, nowMillis)
+
+        assertEquals(1, events.fixes.size)
+    }
+
+    @Test
+    fun streamFromTheFakeReceiver_isDecodedThroughTheIngestQueue() {
+        val scheduler = VirtualScheduler()
+        val peripheral = FakeGpsPeripheral(scheduler)
+        val ingestQueue = IngestQueue()
+        val drain =
+            IngestQueue.Consumer { tag, data, length ->
+                decoder.decode(CharacteristicRole.entries[tag], data, 0, length, scheduler.now)
+            }
+        lateinit var session: GattSession
+        session =
+            GattSession(
+                peripheral,
+                scheduler,
+                GattSession.Clock { scheduler.now },
+                logger,
+                ConnectionManager.DEFAULT_FIX_RATE_HZ,
+                object : GattSession.Events {
+                    override fun onConnected() = Unit
+
+                    override fun onServicesReady(profile: ReceiverProfile) = Unit
+
+                    override fun onDisconnected() = Unit
+
+                    override fun onValue(role: CharacteristicRole, data: ByteArray) {
+                        if (role == CharacteristicRole.RPC) {
+                            session.onRpcResponse(data, 0, data.size)
+                        } else {
+                            assertTrue(ingestQueue.offer(role.ordinal, data))
+                        }
+                    }
+
+                    override fun onSettingApplied(
+                        role: CharacteristicRole,
+                        data: ByteArray,
+                        offset: Int,
+                        length: Int
+                    ) {
+                        decoder.decode(role, data, offset, length, scheduler.now)
+                    }
+
+                    override fun onError(message: String) {
+                        events.other.add("error $message")
+                    }
+                }
+            )
+        assertTrue(session.connect())
+        scheduler.advanceBy(1_000L)
+        peripheral.streamCoordinates(5)
+        peripheral.streamStatus(1)
+
+        // The ingest thread drains in batches, a few times a second.
+        repeat(60) {
+            scheduler.advanceBy(100L)
+            ingestQueue.drain(drain)
+        }
+        session.requestSettingChange(CharacteristicRole.GPS_BAUD, "115200", null)
+        scheduler.advanceBy(100L)
+
+        assertEquals(peripheral.coordinatesSent, events.fixes.size)
+        assertTrue(events.fixes.last().endsWith("hdop=0.9 live"))
+        assertEquals(peripheral.statusSent, events.other.count { it.startsWith("ttff") })
+        // A 5 s window of the 5 Hz stream.
+        assertEquals(listOf(5), rates)
+        assertEquals("baud 115200", events.other.last())
+        assertEquals(0L, ingestQueue.dropped)
+    }
+
+    private fun decode(role: CharacteristicRole, text: String) = decode(role, text.toByteArray(Charsets.UTF_8))
+
+    private fun decode(role: CharacteristicRole, data: ByteArray) {
+        decoder.decode(role, data, 0, data.size, nowMillis)
+        nowMillis += 100L
+    }
+
+    private fun envelope(sequence: Int, payload: ByteArray): ByteArray {
+        val frame = ByteArray(payload.size + FrameEnvelope.OVERHEAD)
+        frame[0] = FrameEnvelope.ENVELOPE_MARKER.toByte()
+        writeLittleEndian(frame, 1, sequence, 2)
+        System.arraycopy(payload, 0, frame, FrameEnvelope.HEADER_SIZE, payload.size)
+        val crcOffset = frame.size - FrameEnvelope.TRAILER_SIZE
+        writeLittleEndian(frame, crcOffset, Crc16.compute(frame, 1, crcOffset), 2)
+        return frame
+    }
+
+    private fun fragment(index: Int, flags: Int, payload: ByteArray, from: Int, to: Int, total: Int): ByteArray {
+        val header = if (total >= 0) FrameReassembler.START_HEADER_SIZE else 2
+        val fragment = ByteArray(header + to - from)
+        fragment[0] = FrameReassembler.FRAGMENT_MARKER.toByte()
+        fragment[1] = ((index shl 4) or flags).toByte()
+        if (total >= 0) writeLittleEndian(fragment, 2, total, 2)
+        System.arraycopy(payload, from, fragment, header, to - from)
+        return fragment
+    }
+
+    private fun writeLittleEndian(frame: ByteArray, offset: Int, value: Int, size: Int) {
+        for (shift in 0 until size) {
+            frame[offset + shift] = (value ushr (8 * shift)).toByte()
+        }
+    }
+
+    /** Fixes in [fixes], every other callback in [other], in arrival order. */
+    private class RecordingListener : GnssDataListener {
+        val fixes = ArrayList<String>()
+        val other = ArrayList<String>()
+
+        override fun onFix(fix: GnssFix) {
+            val kind = if (fix.batched) "batched" else "live"
+            fixes.add("fix ${fix.latitude},${fix.longitude} spd=${fix.speed} alt=${fix.altitude} hdop=${fix.hdop} $kind")
+        }
+
+        override fun onSignalLevelsReceived(levels: IntArray, count: Int) {
+            other.add("signals " + (0 until count).joinToString(",") { levels[it].toString() })
+        }
+
+        override fun onConfigRevisionReceived(revision: Long) {
+            other.add("revision $revision")
+        }
+
+        override fun onError(message: String) {
+            other.add("error $message")
+        }
+
+        override fun onCoordinatesReceived(latitude: Double, longitude: Double) {
+            other.add("coordinates $latitude,$longitude")
+        }
+
+        override fun onFixStatusReceived(status: String) {
+            other.add("status $status")
+        }
+
+        override fun onHdopReceived(hdop: Double) {
+            other.add("hdop $hdop")
+        }
+
+        override fun onSignalLevelsReceived(levels: String) {
+            other.add("signals $levels")
+        }
+
+        override fun onAltitudeReceived(altitudeMeters: Double) {
+            other.add("altitude $altitudeMeters")
+        }
+
+        override fun onSpeedReceived(speedMetersPerSecond: Double) {
+            other.add("speed $speedMetersPerSecond")
+        }
+
+        override fun onHeadingReceived(headingDegrees: Double) {
+            other.add("heading $headingDegrees")
+        }
+
+        override fun onDeviceStatusReceived(status: String) {
+            other.add("device $status")
+        }
+
+        override fun onTtffReceived(ttffSeconds: Long) {
+            other.add("ttff $ttffSeconds")
+        }
+
+        override fun onApControlChanged(enabled: Boolean) {
+            other.add("ap $enabled")
+        }
+
+        override fun onBridgeModeChanged(enabled: Boolean) {
+            other.add("bridge $enabled")
+        }
+
+        override fun onGpsBaudRateChanged(baudRate: Int) {
+            other.add("baud $baudRate")
+        }
+    }
+}
@@ -0,0 +1,108 @@
+package com.g992.blegpsmocker
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertTrue
+import org.junit.Test
+
+class SettingCoalescerTest {
+    private val sent = ArrayList<Pair<CharacteristicRole, String>>()
+    private val pending = ArrayList<SettingChangeCallback>()
+    private var accepting = true
+    private val coalescer =
+        SettingCoalescer { role, value, callback ->
+            if (accepting) {
+                sent.add(role to value)
+                pending.add(callback)
+            }
+            accepting
+        }
+    private val results = ArrayList<String>()
+
+    @Test
+    fun idleSetting_isSentRightAway() {
+        assertTrue(coalescer.submit(CharacteristicRole.GPS_BAUD, "9600", record("a")))
+
+        assertEquals(listOf(CharacteristicRole.GPS_BAUD to "9600"), sent)
+        answer(true, "9600")
+        assertEquals(listOf("a true 9600"), results)
+    }
+
+    @Test
+    fun burstWhileInFlight_sendsOnlyTheFirstAndTheLast() {
+        coalescer.submit(CharacteristicRole.GPS_BAUD, "9600", record("a"))
+        coalescer.submit(CharacteristicRole.GPS_BAUD, "38400", record("b"))
+        coalescer.submit(CharacteristicRole.GPS_BAUD, "115200", record("c"))
+
+        answer(true, "9600")
+        assertEquals(listOf("9600", "115200"), sent.map { it.second })
+        assertTrue(results.isEmpty())
+
+        answer(true, "115200")
+        assertEquals(listOf("a true 115200", "b true 115200", "c true 115200"), results)
+    }
+
+    @Test
+    fun desiredValueEqualToTheInFlightOne_isNotSentAgain() {
+        coalescer.submit(CharacteristicRole.AP_CONTROL, "1", record("a"))
+        coalescer.submit(CharacteristicRole.AP_CONTROL, "0", record("b"))
+        coalescer.submit(CharacteristicRole.AP_CONTROL, "1", record("c"))
+
+        answer(true, "1")
+
+        assertEquals(1, sent.size)
+        assertEquals(listOf("a true 1", "b true 1", "c true 1"), results)
+    }
+
+    @Test
+    fun refusedInFlightChange_stillSendsTheLatestValue() {
+        coalescer.submit(CharacteristicRole.MODE_CONTROL, "1", record("a"))
+        coalescer.submit(CharacteristicRole.MODE_CONTROL, "2", record("b"))
+
+        answer(false, "busy")
+        answer(true, "2")
+
+        assertEquals(listOf("1", "2"), sent.map { it.second })
+        assertEquals(listOf("a true 2", "b true 2"), results)
+    }
+
+    @Test
+    fun unsendableIdleChange_returnsFalseWithoutCallback() {
+        accepting = false
+
+        assertFalse(coalescer.submit(CharacteristicRole.GPS_BAUD, "9600", record("a")))
+
+        assertTrue(results.isEmpty())
+    }
+
+    @Test
+    fun unsendableReplacement_failsTheBurst() {
+        coalescer.submit(CharacteristicRole.GPS_BAUD, "9600", record("a"))
+        coalescer.submit(CharacteristicRole.GPS_BAUD, "115200", record("b"))
+        accepting = false
+
+        answer(true, "9600")
+
+        assertEquals(listOf("a false null", "b false null"), results)
+        // The slot is idle again, so the next request goes out directly.
+        accepting = true
+        assertTrue(coalescer.submit(CharacteristicRole.GPS_BAUD, "57600", record("c")))
+        assertEquals("57600", sent.last().second)
+    }
+
+    @Test
+    fun settingsCoalesceIndependently() {
+        coalescer.submit(CharacteristicRole.GPS_BAUD, "9600", record("baud"))
+        coalescer.submit(CharacteristicRole.AP_CONTROL, "1", record("ap"))
+
+        assertEquals(2, sent.size)
+        answer(true, "1", index = 1)
+        assertEquals(listOf("ap true 1"), results)
+    }
+
+    private fun record(name: String) = SettingChangeCallback { success, value -> results.add("$name $success $value") }
+
+    private fun answer(success: Boolean, value: String?, index: Int = 0) {
+        pending.removeAt(index).onSettingChangeResult(success, value)
+    }
+}
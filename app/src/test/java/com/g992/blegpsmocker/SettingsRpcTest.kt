@@ -0,0 +1,114 @@
+package com.g992.blegpsmocker
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertTrue
+import org.junit.Test
+
+class SettingsRpcTest {
+    private val scheduler = VirtualScheduler()
+    private val rpc = SettingsRpc(scheduler, maxInFlight = 2)
+    private val results = ArrayList<Pair<Boolean, String?>>()
+    private val applied = ArrayList<Pair<String, String>>()
+    private val listener =
+        SettingsRpc.ResponseListener { key, data, offset, length ->
+            applied.add(key to String(data, offset, length, Charsets.UTF_8))
+        }
+    private val callback = SettingChangeCallback { success, value -> results.add(success to value) }
+
+    @Test
+    fun appliedResponse_completesTheRequest() {
+        val id = rpc.begin(callback)
+
+        assertTrue(respond("$id:baud=115200 "))
+
+        assertEquals(listOf(true to "115200"), results)
+        assertEquals(listOf("baud" to "115200 "), applied)
+    }
+
+    @Test
+    fun errorResponse_failsWithTheReason() {
+        val id = rpc.begin(callback)
+
+        assertTrue(respond("$id:mode!busy"))
+
+        assertEquals(listOf(false to "busy"), results)
+        assertTrue(applied.isEmpty())
+    }
+
+    @Test
+    fun responsesMatchTheirRequestById() {
+        val first = rpc.begin { success, value -> results.add(success to "first $value") }
+        val second = rpc.begin { success, value -> results.add(success to "second $value") }
+
+        respond("$second:ap=0")
+        respond("$first:ap=1")
+
+        assertEquals(listOf(true to "second 0", true to "first 1"), results)
+    }
+
+    @Test
+    fun unknownId_isWellFormedButCompletesNothing() {
+        val id = rpc.begin(callback)
+
+        assertTrue(respond("${id + 1}:ap=1"))
+
+        assertTrue(results.isEmpty())
+        // The listener still learns the value the receiver applied.
+        assertEquals(listOf("ap" to "1"), applied)
+    }
+
+    @Test
+    fun malformedResponses_areRejected() {
+        rpc.begin(callback)
+
+        for (response in listOf("", "ap=1", ":ap=1", "1", "1:", "1:ap", "1:=1", "1;ap=1", "70000:ap=1")) {
+            assertFalse(response, respond(response))
+        }
+        assertTrue(results.isEmpty())
+        assertTrue(applied.isEmpty())
+    }
+
+    @Test
+    fun unansweredRequest_timesOutAndIgnoresTheLateResponse() {
+        val id = rpc.begin(callback)
+
+        scheduler.advanceBy(SettingsRpc.DEFAULT_TIMEOUT_MS)
+        respond("$id:ap=1")
+
+        assertEquals(listOf(false to null), results)
+    }
+
+    @Test
+    fun inFlightLimit_refusesFurtherRequestsUntilOneCompletes() {
+        val first = rpc.begin(callback)
+        rpc.begin(callback)
+
+        assertEquals(-1, rpc.begin(callback))
+        respond("$first:ap=1")
+        assertTrue(rpc.begin(callback) > 0)
+    }
+
+    @Test
+    fun failAndClear_reportFailure() {
+        val first = rpc.begin(callback)
+        rpc.begin(callback)
+
+        rpc.fail(first)
+        rpc.clear()
+
+        assertEquals(listOf(false to null, false to null), results)
+        scheduler.advanceBy(SettingsRpc.DEFAULT_TIMEOUT_MS)
+        assertEquals(2, results.size)
+    }
+
+    @Test
+    fun encodeRequest_matchesTheWireFormat() {
+        assertEquals("17:baud=9600", String(SettingsRpc.encodeRequest(17, "baud", "9600"), Charsets.UTF_8))
+    }
+
+    private fun respond(text: String): Boolean {
+        val data = text.toByteArray(Charsets.UTF_8)
+        return rpc.onResponse(data, 0, data.size, listener)
+    }
+}
@@ -0,0 +1,213 @@
+package com.g992.blegpsmocker
+
+import org.junit.Assert.assertArrayEquals
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Test
+
+class UbxDecoderTest {
+    private val fixes = ArrayList<DoubleArray>()
+    private val statuses = ArrayList<String>()
+    private val passthrough = StringBuilder()
+    private val decoder =
+        UbxDecoder(
+            object : UbxDecoder.Listener {
+                override fun onUbxFix(payload: CoordinatesPayload) {
+                    fixes.add(
+                        doubleArrayOf(
+                            payload.latitude,
+                            payload.longitude,
+                            payload.altitude,
+                            payload.horizontalAccuracy,
+                            payload.verticalAccuracy,
+                            payload.speed,
+                            payload.speedAccuracy,
+                            payload.heading
+                        )
+                    )
+                }
+
+                override fun onUbxStatus(payload: StatusPayload) {
+                    val signals = payload.signals.copyOf(payload.signalCount).joinToString(",")
+                    statuses.add("fix=${payload.fix} hdop=${payload.hdop} vdop=${payload.vdop} signals=$signals")
+                }
+            },
+            UbxDecoder.Passthrough { data, offset, length ->
+                passthrough.append(String(data, offset, length, Charsets.US_ASCII))
+            }
+        )
+
+    @Test
+    fun fletcherChecksum_matchesKnownFrame() {
+        // CFG-PRT poll as printed in the u-blox protocol description.
+        val frame = frame(0x06, 0x00, ByteArray(0))
+
+        assertArrayEquals(bytes(0xB5, 0x62, 0x06, 0x00, 0x00, 0x00, 0x06, 0x18), frame)
+        decoder.feed(frame, 0, frame.size)
+        assertEquals(1L, decoder.frames)
+        assertEquals(0L, decoder.checksumErrors)
+    }
+
+    @Test
+    fun navPvt_decodesOffsetsAndScaling() {
+        val frame = frame(UbxDecoder.CLASS_NAV, UbxDecoder.ID_NAV_PVT, pvt())
+
+        decoder.feed(frame, 0, frame.size)
+
+        assertEquals(listOf("fix=1 hdop=NaN vdop=NaN signals="), statuses)
+        val fix = fixes.single()
+        assertArrayEquals(
+            doubleArrayOf(55.7558123, 37.6172999, 156.789, 2.5, 3.75, 12.345, 0.42, 270.0),
+            fix,
+            1e-9
+        )
+    }
+
+    @Test
+    fun navPvt_twoDimensionalFixHasNoAltitude() {
+        val frame = frame(UbxDecoder.CLASS_NAV, UbxDecoder.ID_NAV_PVT, pvt(fixType = 2))
+
+        decoder.feed(frame, 0, frame.size)
+
+        assertTrue(fixes.single()[2].isNaN())
+        assertTrue(fixes.single()[4].isNaN())
+    }
+
+    @Test
+    fun navPvt_withoutFixOkReportsNoFix() {
+        val frame = frame(UbxDecoder.CLASS_NAV, UbxDecoder.ID_NAV_PVT, pvt(flags = 0))
+
+        decoder.feed(frame, 0, frame.size)
+
+        assertEquals(listOf("fix=0 hdop=NaN vdop=NaN signals="), statuses)
+        assertTrue(fixes.isEmpty())
+    }
+
+    @Test
+    fun badChecksum_isCountedAndDropped() {
+        val frame = frame(UbxDecoder.CLASS_NAV, UbxDecoder.ID_NAV_PVT, pvt())
+        frame[frame.size - 1] = (frame[frame.size - 1].toInt() xor 0x01).toByte()
+
+        decoder.feed(frame, 0, frame.size)
+
+        assertEquals(0L, decoder.frames)
+        assertEquals(1L, decoder.checksumErrors)
+        assertTrue(fixes.isEmpty())
+        assertTrue(statuses.isEmpty())
+    }
+
+    @Test
+    fun truncatedFrame_isNotDispatched() {
+        val frame = frame(UbxDecoder.CLASS_NAV, UbxDecoder.ID_NAV_PVT, pvt())
+        decoder.feed(frame, 0, frame.size - 10)
+        assertEquals(0L, decoder.frames)
+        assertTrue(statuses.isEmpty())
+
+        decoder.reset()
+        decoder.feed(frame, 0, frame.size)
+
+        assertEquals(1, fixes.size)
+    }
+
+    @Test
+    fun navPvt_shorterThanTheMessageIsIgnored() {
+        val frame = frame(UbxDecoder.CLASS_NAV, UbxDecoder.ID_NAV_PVT, pvt().copyOf(60))
+
+        decoder.feed(frame, 0, frame.size)
+
+        assertEquals(1L, decoder.frames)
+        assertTrue(statuses.isEmpty())
+    }
+
+    @Test
+    fun otherClassOrId_isSkipped() {
+        val wrongClass = frame(0x02, UbxDecoder.ID_NAV_PVT, pvt())
+        val wrongId = frame(UbxDecoder.CLASS_NAV, 0x99, pvt())
+
+        decoder.feed(wrongClass, 0, wrongClass.size)
+        decoder.feed(wrongId, 0, wrongId.size)
+
+        assertEquals(2L, decoder.frames)
+        assertTrue(fixes.isEmpty())
+        assertTrue(statuses.isEmpty())
+    }
+
+    @Test
+    fun navDopAndNavSat_fillStatus() {
+        val dop = ByteArray(UbxDecoder.NAV_DOP_SIZE)
+        putU16(dop, 10, 185)
+        putU16(dop, 12, 92)
+        val sat = ByteArray(UbxDecoder.NAV_SAT_HEADER_SIZE + 2 * UbxDecoder.NAV_SAT_BLOCK_SIZE)
+        sat[5] = 2
+        sat[UbxDecoder.NAV_SAT_HEADER_SIZE + 2] = 41
+        sat[UbxDecoder.NAV_SAT_HEADER_SIZE + UbxDecoder.NAV_SAT_BLOCK_SIZE + 2] = 17
+        val stream = frame(UbxDecoder.CLASS_NAV, UbxDecoder.ID_NAV_DOP, dop) +
+            frame(UbxDecoder.CLASS_NAV, UbxDecoder.ID_NAV_SAT, sat)
+
+        decoder.feed(stream, 0, stream.size)
+
+        assertEquals(
+            listOf("fix=-1 hdop=0.92 vdop=1.85 signals=", "fix=-1 hdop=NaN vdop=NaN signals=41,17"),
+            statuses
+        )
+    }
+
+    @Test
+    fun splitChunks_decodeAndPassNmeaThrough() {
+        val nmea = "\$GNGGA,1*00\r\n"
+        val stream = nmea.toByteArray(Charsets.US_ASCII) +
+            frame(UbxDecoder.CLASS_NAV, UbxDecoder.ID_NAV_PVT, pvt()) +
+            nmea.toByteArray(Charsets.US_ASCII)
+
+        for (index in stream.indices) decoder.feed(stream, index, 1)
+
+        assertEquals(1, fixes.size)
+        assertEquals(nmea + nmea, passthrough.toString())
+    }
+
+    private fun pvt(fixType: Int = 3, flags: Int = 1): ByteArray {
+        val payload = ByteArray(UbxDecoder.NAV_PVT_SIZE)
+        payload[20] = fixType.toByte()
+        payload[21] = flags.toByte()
+        putI32(payload, 24, 376_172_999)
+        putI32(payload, 28, 557_558_123)
+        putI32(payload, 36, 156_789)
+        putI32(payload, 40, 2_500)
+        putI32(payload, 44, 3_750)
+        putI32(payload, 60, 12_345)
+        putI32(payload, 64, -9_000_000)
+        putI32(payload, 68, 420)
+        return payload
+    }
+
+    private fun frame(messageClass: Int, messageId: Int, payload: ByteArray): ByteArray {
+        val frame = ByteArray(payload.size + 8)
+        frame[0] = UbxDecoder.SYNC_1.toByte()
+        frame[1] = UbxDecoder.SYNC_2.toByte()
+        frame[2] = messageClass.toByte()
+        frame[3] = messageId.toByte()
+        putU16(frame, 4, payload.size)
+        System.arraycopy(payload, 0, frame, 6, payload.size)
+        var ckA = 0
+        var ckB = 0
+        for (index in 2 until frame.size - 2) {
+            ckA = (ckA + (frame[index].toInt() and 0xFF)) and 0xFF
+            ckB = (ckB + ckA) and 0xFF
+        }
+        frame[frame.size - 2] = ckA.toByte()
+        frame[frame.size - 1] = ckB.toByte()
+        return frame
+    }
+
+    private fun bytes(vararg values: Int): ByteArray = ByteArray(values.size) { values[it].toByte() }
+
+    private fun putU16(data: ByteArray, offset: Int, value: Int) {
+        data[offset] = value.toByte()
+        data[offset + 1] = (value ushr 8).toByte()
+    }
+
+    private fun putI32(data: ByteArray, offset: Int, value: Int) {
+        putU16(data, offset, value and 0xFFFF)
+        putU16(data, offset + 2, value ushr 16)
+    }
+}
@@ -0,0 +1,61 @@
+plugins {
+    alias(libs.plugins.kotlin.jvm)
+    alias(libs.plugins.jmh)
+}
+
+// The Android-free decode chain (PayloadDecoder and what it uses) is compiled straight from the
+// app sources, so the benchmarks run the same classes the app ships without an Android runtime.
+sourceSets {
+    main {
+        kotlin {
+            srcDir("../app/src/main/java")
+            include(
+                "com/g992/blegpsmocker/BinaryFrameCodec.kt",
+                "com/g992/blegpsmocker/CharacteristicRole.kt",
+                "com/g992/blegpsmocker/CoordinatesPayload.kt",
+                "com/g992/blegpsmocker/DeltaStreamDecoder.kt",
+                "com/g992/blegpsmocker/FastDoubleParser.kt",
+                "com/g992/blegpsmocker/FixBatchDecoder.kt",
+                "com/g992/blegpsmocker/FixRateEstimator.kt",
+                "com/g992/blegpsmocker/FrameIntegrity.kt",
+                "com/g992/blegpsmocker/FrameReassembler.kt",
+                "com/g992/blegpsmocker/GnssDataListener.kt",
+                "com/g992/blegpsmocker/GnssFix.kt",
+                "com/g992/blegpsmocker/JsonByteReader.kt",
+                "com/g992/blegpsmocker/JsonPayloadFallback.kt",
+                "com/g992/blegpsmocker/Logger.kt",
+                "com/g992/blegpsmocker/NmeaTokenizer.kt",
+                "com/g992/blegpsmocker/PayloadDecoder.kt",
+                "com/g992/blegpsmocker/StatusPayload.kt",
+                "com/g992/blegpsmocker/UbxDecoder.kt"
+            )
+        }
+    }
+}
+
+java {
+    sourceCompatibility = JavaVersion.VERSION_11
+    targetCompatibility = JavaVersion.VERSION_11
+}
+
+kotlin {
+    compilerOptions {
+        jvmTarget.set(org.jetbrains.kotlin.gradle.dsl.JvmTarget.JVM_11)
+    }
+    // Benchmarks reach the internal parsers the same way unit tests do.
+    target.compilations.getByName("jmh").associateWith(target.compilations.getByName("main"))
+}
+
+dependencies {
+    // Provided by the platform on Android.
+    implementation(libs.json)
+}
+
+jmh {
+    jmhVersion.set(libs.versions.jmh)
+    fork.set(1)
+    warmupIterations.set(3)
+    iterations.set(5)
+    profilers.add("gc")
+    resultFormat.set("JSON")
+}
@@ -0,0 +1,62 @@
+package com.g992.blegpsmocker.benchmark
+
+import com.g992.blegpsmocker.GnssDataListener
+import com.g992.blegpsmocker.GnssFix
+import org.openjdk.jmh.infra.Blackhole
+
+/**
+ * Consumes what [com.g992.blegpsmocker.PayloadDecoder] delivers, field by field like the
+ * service does with a fix, so no decoded value is dead code to the JIT.
+ */
+class BlackholeListener(private val blackhole: Blackhole) : GnssDataListener {
+    override fun onFix(fix: GnssFix) {
+        blackhole.consume(fix.latitude)
+        blackhole.consume(fix.longitude)
+        blackhole.consume(fix.heading)
+        blackhole.consume(fix.speed)
+        blackhole.consume(fix.altitude)
+        blackhole.consume(fix.ageNanos)
+    }
+
+    override fun onSignalLevelsReceived(levels: IntArray, count: Int) {
+        var strongest = 0
+        for (index in 0 until count) {
+            strongest = maxOf(strongest, levels[index])
+        }
+        blackhole.consume(strongest)
+    }
+
+    override fun onError(message: String) = blackhole.consume(message)
+
+    override fun onCoordinatesReceived(latitude: Double, longitude: Double) {
+        blackhole.consume(latitude)
+        blackhole.consume(longitude)
+    }
+
+    override fun onFixStatusReceived(status: String) = blackhole.consume(status)
+
+    override fun onFixStatusReceived(fix: Int, type: Int) {
+        blackhole.consume(fix)
+        blackhole.consume(type)
+    }
+
+    override fun onHdopReceived(hdop: Double) = blackhole.consume(hdop)
+
+    override fun onSignalLevelsReceived(levels: String) = blackhole.consume(levels)
+
+    override fun onAltitudeReceived(altitudeMeters: Double) = blackhole.consume(altitudeMeters)
+
+    override fun onSpeedReceived(speedMetersPerSecond: Double) = blackhole.consume(speedMetersPerSecond)
+
+    override fun onHeadingReceived(headingDegrees: Double) = blackhole.consume(headingDegrees)
+
+    override fun onDeviceStatusReceived(status: String) = blackhole.consume(status)
+
+    override fun onTtffReceived(ttffSeconds: Long) = blackhole.consume(ttffSeconds)
+
+    override fun onApControlChanged(enabled: Boolean) = blackhole.consume(enabled)
+
+    override fun onBridgeModeChanged(enabled: Boolean) = blackhole.consume(enabled)
+
+    override fun onGpsBaudRateChanged(baudRate: Int) = blackhole.consume(baudRate)
+}
@@ -0,0 +1,80 @@
+package com.g992.blegpsmocker.benchmark
+
+import com.g992.blegpsmocker.CharacteristicRole
+import com.g992.blegpsmocker.CoordinatesPayload
+import com.g992.blegpsmocker.JsonPayloadFallback
+import com.g992.blegpsmocker.Logger
+import com.g992.blegpsmocker.PayloadDecoder
+import java.util.concurrent.TimeUnit
+import org.json.JSONException
+import org.openjdk.jmh.annotations.Benchmark
+import org.openjdk.jmh.annotations.BenchmarkMode
+import org.openjdk.jmh.annotations.Mode
+import org.openjdk.jmh.annotations.OperationsPerInvocation
+import org.openjdk.jmh.annotations.OutputTimeUnit
+import org.openjdk.jmh.annotations.Scope
+import org.openjdk.jmh.annotations.Setup
+import org.openjdk.jmh.annotations.State
+import org.openjdk.jmh.infra.Blackhole
+
+/**
+ * Coordinates notifications through the app's [PayloadDecoder], from the raw value to the
+ * listener's onFix: binary frame, strict byte parser, then org.json. [shortFixesOrgJson] is
+ * the org.json fallback on its own, as a baseline. Each invocation decodes the whole corpus;
+ * results are per payload.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+open class CoordinatesDecodingBenchmark {
+    private val shortFixes = PayloadCorpus.shortFixes()
+    private val malformedFixes = PayloadCorpus.malformedFixes()
+    private val binaryFixes = PayloadCorpus.binaryFixes()
+    private val decoder = PayloadDecoder(Logger.NONE) {}
+    private val payload = CoordinatesPayload()
+    private lateinit var blackhole: Blackhole
+
+    @Setup
+    fun setUp(blackhole: Blackhole) {
+        this.blackhole = blackhole
+        decoder.listener = BlackholeListener(blackhole)
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(PayloadCorpus.SIZE)
+    fun shortFixes() {
+        for (data in shortFixes) decode(data)
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(PayloadCorpus.SIZE)
+    fun shortFixesOrgJson() {
+        for (data in shortFixes) decodeOrgJson(data)
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(PayloadCorpus.SIZE)
+    fun malformedFixes() {
+        for (data in malformedFixes) decode(data)
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(PayloadCorpus.SIZE)
+    fun binaryFixes() {
+        for (data in binaryFixes) decode(data)
+    }
+
+    private fun decode(data: ByteArray) {
+        decoder.decode(CharacteristicRole.COORDINATES, data, 0, data.size, PayloadCorpus.NOW_MILLIS)
+    }
+
+    private fun decodeOrgJson(data: ByteArray) {
+        try {
+            JsonPayloadFallback.readCoordinates(String(data, Charsets.UTF_8).trim(), payload)
+            blackhole.consume(payload.latitude)
+            blackhole.consume(payload.longitude)
+        } catch (exception: JSONException) {
+            blackhole.consume(exception)
+        }
+    }
+}
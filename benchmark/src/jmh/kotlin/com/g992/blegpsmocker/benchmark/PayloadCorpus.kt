@@ -0,0 +1,85 @@
+package com.g992.blegpsmocker.benchmark
+
+import com.g992.blegpsmocker.BinaryFrameCodec
+import java.nio.ByteBuffer
+import java.nio.ByteOrder
+import java.util.Locale
+import java.util.Random
+
+/**
+ * Notification payloads shaped like what GPS-C3 firmware sends, generated from a fixed seed
+ * so runs are comparable.
+ */
+object PayloadCorpus {
+    const val SIZE = 256
+
+    /** Receive time handed to the decoder; the corpus has no fragments to time out. */
+    const val NOW_MILLIS = 0L
+
+    /** `{"lt":..,"lg":..,"hd":..,"spd":..,"alt":..}` with 7-decimal coordinates. */
+    fun shortFixes(): Array<ByteArray> {
+        val random = Random(SEED)
+        return Array(SIZE) {
+            val latitude = format("%.7f", random.nextDouble() * 180 - 90)
+            val longitude = format("%.7f", random.nextDouble() * 360 - 180)
+            val speed = format("%.2f", random.nextDouble() * 40)
+            val altitude = format("%.1f", random.nextDouble() * 500)
+            "{\"lt\":$latitude,\"lg\":$longitude,\"hd\":${random.nextInt(360)},\"spd\":$speed,\"alt\":$altitude}"
+                .toByteArray(Charsets.UTF_8)
+        }
+    }
+
+    /** Status notifications with 24-64 signal levels, as a multi-constellation receiver reports. */
+    fun longSignalStatus(): Array<ByteArray> {
+        val random = Random(SEED)
+        return Array(SIZE) {
+            val signals = (0 until 24 + random.nextInt(41)).joinToString(",") { "${random.nextInt(50)}" }
+            val hdop = format("%.2f", 0.5 + random.nextDouble() * 3)
+            "{\"fix\":1,\"hdop\":$hdop,\"signals\":[$signals],\"ttff\":${random.nextInt(120)}}"
+                .toByteArray(Charsets.UTF_8)
+        }
+    }
+
+    /**
+     * Payloads the strict parser rejects: quoted numbers and escaped keys that org.json still
+     * accepts, plus truncated and garbage frames it throws on.
+     */
+    fun malformedFixes(): Array<ByteArray> {
+        val random = Random(SEED)
+        val fixes = shortFixes()
+        return Array(SIZE) { index ->
+            val fix = fixes[index]
+            when (index % 4) {
+                0 -> String(fix, Charsets.UTF_8).replace("\"hd\":", "\"h\\u0064\":").toByteArray(Charsets.UTF_8)
+                1 -> String(fix, Charsets.UTF_8).replace(Regex("\"lt\":([^,]+)"), "\"lt\":\"$1\"").toByteArray(Charsets.UTF_8)
+                2 -> fix.copyOf(1 + random.nextInt(fix.size - 1))
+                else -> ByteArray(fix.size) { (' '.code + random.nextInt(95)).toByte() }
+            }
+        }
+    }
+
+    /** Version-2 binary fix frames with heading, speed and altitude. */
+    fun binaryFixes(): Array<ByteArray> {
+        val random = Random(SEED)
+        return Array(SIZE) {
+            ByteBuffer.allocate(BinaryFrameCodec.FIX_FRAME_SIZE)
+                .order(ByteOrder.LITTLE_ENDIAN)
+                .put(BinaryFrameCodec.PROTOCOL_VERSION_BINARY.toByte())
+                .put(BinaryFrameCodec.TYPE_FIX.toByte())
+                .put(
+                    (BinaryFrameCodec.FLAG_HEADING or BinaryFrameCodec.FLAG_SPEED or BinaryFrameCodec.FLAG_ALTITUDE)
+                        .toByte()
+                )
+                .putInt(((random.nextDouble() * 180 - 90) * 1e7).toInt())
+                .putInt(((random.nextDouble() * 360 - 180) * 1e7).toInt())
+                .putShort(random.nextInt(4_000).toShort())
+                .putInt(random.nextInt(50_000))
+                .putShort(random.nextInt(36_000).toShort())
+                .array()
+        }
+    }
+
+    private fun format(pattern: String, value: Double): String = String.format(Locale.US, pattern, value)
+
+    private const val SEED = 1L
+}
@@ -0,0 +1,59 @@
+package com.g992.blegpsmocker.benchmark
+
+import com.g992.blegpsmocker.CharacteristicRole
+import com.g992.blegpsmocker.JsonPayloadFallback
+import com.g992.blegpsmocker.Logger
+import com.g992.blegpsmocker.PayloadDecoder
+import com.g992.blegpsmocker.StatusPayload
+import java.util.concurrent.TimeUnit
+import org.json.JSONException
+import org.openjdk.jmh.annotations.Benchmark
+import org.openjdk.jmh.annotations.BenchmarkMode
+import org.openjdk.jmh.annotations.Mode
+import org.openjdk.jmh.annotations.OperationsPerInvocation
+import org.openjdk.jmh.annotations.OutputTimeUnit
+import org.openjdk.jmh.annotations.Scope
+import org.openjdk.jmh.annotations.Setup
+import org.openjdk.jmh.annotations.State
+import org.openjdk.jmh.infra.Blackhole
+
+/**
+ * Status notifications with long `signals` arrays through the app's [PayloadDecoder], and
+ * through the org.json fallback alone as a baseline.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+open class StatusDecodingBenchmark {
+    private val statuses = PayloadCorpus.longSignalStatus()
+    private val decoder = PayloadDecoder(Logger.NONE) {}
+    private val payload = StatusPayload()
+    private lateinit var blackhole: Blackhole
+
+    @Setup
+    fun setUp(blackhole: Blackhole) {
+        this.blackhole = blackhole
+        decoder.listener = BlackholeListener(blackhole)
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(PayloadCorpus.SIZE)
+    fun longSignals() {
+        for (data in statuses) {
+            decoder.decode(CharacteristicRole.STATUS, data, 0, data.size, PayloadCorpus.NOW_MILLIS)
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(PayloadCorpus.SIZE)
+    fun longSignalsOrgJson() {
+        for (data in statuses) {
+            try {
+                JsonPayloadFallback.readStatus(String(data, Charsets.UTF_8).trim(), payload)
+                blackhole.consume(payload.signalCount)
+            } catch (exception: JSONException) {
+                blackhole.consume(exception)
+            }
+        }
+    }
+}
@@ -21,4 +21,4 @@ dependencyResolutionManagement {
 
 rootProject.name = "BLE GPS Mocker"
 include(":app")
- 
\ No newline at end of file
+include(":benchmark")